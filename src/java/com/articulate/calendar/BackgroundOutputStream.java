@@ -0,0 +1,190 @@
+package com.articulate.calendar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A BackgroundOutputStream collects the bytes written to it in blocks and
+ * writes each full block to the wrapped stream as a task on the executor, so
+ * the slow work of the wrapped stream, like compressing, is done on another
+ * thread. The blocks are written in order, one at a time. Many
+ * BackgroundOutputStreams can share one executor to write files concurrently.
+ * If writing to the wrapped stream fails, the IOException is thrown by a later
+ * write, flush or close.
+ */
+public class BackgroundOutputStream extends OutputStream {
+  /**
+   * Create a BackgroundOutputStream.
+   * @param out The wrapped stream, which is closed by close.
+   * @param executor The executor which runs the writes.
+   * @param blockSize The bytes in each block.
+   * @param maxBlocks The most blocks waiting to be written, after which write
+   * waits.
+   */
+  public BackgroundOutputStream
+    (OutputStream out, Executor executor, int blockSize, int maxBlocks)
+  {
+    out_ = out;
+    executor_ = executor;
+    block_ = new byte[blockSize];
+    blockSize_ = blockSize;
+    freeBlocks_ = new Semaphore(maxBlocks);
+  }
+
+  public BackgroundOutputStream(OutputStream out, Executor executor)
+  {
+    this(out, executor, 1 << 20, 4);
+  }
+
+  @Override
+  public void
+  write(int b) throws IOException
+  {
+    if (length_ >= block_.length)
+      submitBlock();
+    block_[length_++] = (byte)b;
+  }
+
+  @Override
+  public void
+  write(byte[] bytes, int offset, int length) throws IOException
+  {
+    while (length > 0) {
+      if (length_ >= block_.length)
+        submitBlock();
+      int n = Math.min(length, block_.length - length_);
+      System.arraycopy(bytes, offset, block_, length_, n);
+      length_ += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Write the bytes so far and wait until they are written to the wrapped
+   * stream and it is flushed.
+   */
+  @Override
+  public void
+  flush() throws IOException
+  {
+    submitBlock();
+    submit(() -> out_.flush());
+    waitForWrites();
+  }
+
+  /**
+   * Write the bytes so far, wait until they are written, and close the wrapped
+   * stream.
+   */
+  @Override
+  public void
+  close() throws IOException
+  {
+    if (isClosed_)
+      return;
+    isClosed_ = true;
+
+    try {
+      submitBlock();
+      waitForWrites();
+    } finally {
+      out_.close();
+    }
+  }
+
+  private interface Write { void write() throws IOException; }
+
+  private void
+  submitBlock() throws IOException
+  {
+    if (length_ == 0)
+      return;
+
+    checkError();
+    try {
+      freeBlocks_.acquire();
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException("Interrupted waiting to write a block");
+    }
+    byte[] block = block_;
+    int length = length_;
+    // Release even if the write is skipped after an error.
+    submit(() -> out_.write(block, 0, length))
+      .whenComplete((result, ex) -> {
+        writtenBlocks_.add(block);
+        freeBlocks_.release();
+      });
+    byte[] nextBlock = writtenBlocks_.poll();
+    block_ = nextBlock != null ? nextBlock : new byte[blockSize_];
+    length_ = 0;
+  }
+
+  /**
+   * Run the write after the previous one. If a write throws, the later ones
+   * are skipped and tail_ completes with the exception.
+   * @return The new tail_.
+   */
+  private CompletableFuture<Void>
+  submit(Write write) throws IOException
+  {
+    checkError();
+    tail_ = tail_.thenRunAsync(() -> {
+      try {
+        write.write();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }, executor_);
+    return tail_;
+  }
+
+  private void
+  waitForWrites() throws IOException
+  {
+    try {
+      tail_.join();
+    } catch (CompletionException ex) {
+      throw toIOException(ex);
+    }
+  }
+
+  private void
+  checkError() throws IOException
+  {
+    if (tail_.isCompletedExceptionally())
+      waitForWrites();
+  }
+
+  private static IOException
+  toIOException(CompletionException ex)
+  {
+    Throwable cause = ex.getCause();
+    if (cause instanceof UncheckedIOException)
+      return ((UncheckedIOException)cause).getCause();
+    if (cause instanceof RuntimeException)
+      throw (RuntimeException)cause;
+    if (cause instanceof Error)
+      throw (Error)cause;
+    return new IOException(cause);
+  }
+
+  private final OutputStream out_;
+  private final Executor executor_;
+  private final int blockSize_;
+  private final Semaphore freeBlocks_;
+  // Blocks which have been written, to reuse.
+  private final ConcurrentLinkedQueue<byte[]> writtenBlocks_ =
+    new ConcurrentLinkedQueue<>();
+  private byte[] block_;
+  private int length_ = 0;
+  private CompletableFuture<Void> tail_ = CompletableFuture.completedFuture(null);
+  private boolean isClosed_ = false;
+}
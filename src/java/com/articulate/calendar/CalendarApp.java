@@ -10,22 +10,17 @@ on, or uses this code.
 
 package com.articulate.calendar;
 
-import com.articulate.calendar.WikidataJava.Item;
 import com.articulate.calendar.gui.CalendarFrame;
 import com.articulate.sigma.Formula;
 import com.articulate.sigma.KBmanager;
 import com.articulate.sigma.WordNet;
-import com.google.gson.Gson;
 import java.io.BufferedWriter;
-import java.io.File;
 import java.time.LocalDate;
-import java.util.HashSet;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * CalendarApp has the main method which creates the main window and starts the
@@ -50,44 +45,21 @@ public class CalendarApp {
         System.out.println(message);
       if (true) return;
     }
-
-    WikidataJava wikidata = new WikidataJava(dumpDir);
-    WikidataJava.getStatistics(wikidata.items_, messages);
-
-    try (FileWriter file = new FileWriter(new File(dumpDir, "locationIanaTimeZone.kif").getAbsolutePath());
-         BufferedWriter writer = new BufferedWriter(file)) {
-      Set<String> timeZoneMessages = new HashSet<>();
-      Map<Integer, Integer> map = WikidataJava.getLocationIanaTimeZones
-        (wikidata.items_, timeZoneMessages);
-      System.out.println("Debug locationIanaTimeZone size " + map.size());
-      for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
-        writer.write
-          ("(locationIanaTimeZone Q" + entry.getKey() + " Q" + entry.getValue() +
-           ")");
-        writer.newLine();
-      }
-
-      for (String message : timeZoneMessages)
+    boolean doUpdate = false;
+    if (doUpdate) {
+      // Apply changed and deleted entities to the existing dump files.
+      WikidataJava.updateDumpFromJson("/home/jeff/temp/wikidata-delta.json.gz", dumpDir, messages);
+      for (String message : messages)
         System.out.println(message);
+      if (true) return;
     }
 
+    // Rebuild locationIanaTimeZone.kif and iataAbbreviation.kif if the dump
+    // files changed.
+    WikidataDerivedFiles.update(dumpDir, messages);
     for (String message : messages)
       System.out.println(message);
 
-    Gson gson = new Gson();
-    try (FileWriter file = new FileWriter(new File(dumpDir, "iataAbbreviation.kif").getAbsolutePath());
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, Item> entry : wikidata.items_.entrySet()) {
-        Item item = entry.getValue();
-        if (item.iataAirportCode_ != null && item.iataAirportCode_.length == 1) {
-          writer.write
-            ("(abbreviation " + gson.toJson(item.iataAirportCode_[0]) +
-             " Q" + entry.getKey() + ")");
-          writer.newLine();
-        }
-      }
-    }
-
     if (true) return;
 */
 
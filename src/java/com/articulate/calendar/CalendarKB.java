@@ -12,12 +12,20 @@ package com.articulate.calendar;
 
 import com.articulate.sigma.KB;
 import com.google.gson.Gson;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
@@ -27,6 +35,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 import java.util.regex.Pattern;
 import org.nuvl.argue.aba_plus.Sentence;
 
@@ -38,10 +49,31 @@ import org.nuvl.argue.aba_plus.Sentence;
 public class CalendarKB {
   /**
    * Create a new CalendarKB by extracting sentences from the given Sigma KB.
+   * Use the snapshot in kb.kbDir if it is up to date.
    * @param kb The Sigma KB.
    */
   public CalendarKB(KB kb) throws FileNotFoundException, IOException
   {
+    this(kb, true);
+  }
+
+  /**
+   * Create a new CalendarKB by extracting sentences from the given Sigma KB.
+   * @param kb The Sigma KB.
+   * @param useSnapshot If true and the snapshot file in kb.kbDir was written
+   * from the same formulas and KIF files, load the indexes from it. Otherwise
+   * build them and write the snapshot for the next time.
+   */
+  public CalendarKB(KB kb, boolean useSnapshot)
+    throws FileNotFoundException, IOException
+  {
+    File snapshotFile = new File(kb.kbDir, snapshotFileName_);
+    long[] sourceStamp = getSourceStamp(kb);
+    if (useSnapshot && readSnapshot(snapshotFile, sourceStamp)) {
+      System.out.println(" done.");
+      return;
+    }
+
     Pattern predicatePattern = Pattern.compile("^\\(([^ \\)]+)");
 
     // Copy formulas to ABA_Plus sentences.
@@ -56,55 +88,59 @@ public class CalendarKB {
     }
 
     Set<String> ianaTimeZones = new HashSet<>();
-    try (FileReader file = new FileReader(new File(kb.kbDir, "locationIanaTimeZone.kif"));
-         BufferedReader reader = new BufferedReader(file)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        Matcher matcher = locationIanaTimeZonePattern_.matcher(line);
-        if (!matcher.find())
-          throw new Error("Can't match locationIanaTimeZone pattern: " + line);
-
-        locationIanaTimeZone_.put(matcher.group(1), matcher.group(2));
-        ianaTimeZones.add(matcher.group(2));
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(kb.kbDir, "locationIanaTimeZone.kif"))) {
+      while (reader.next()) {
+        // (locationIanaTimeZone Q123 Q456)
+        reader.startKif("locationIanaTimeZone");
+        String location = reader.nextSymbol();
+        String timeZone = reader.nextSymbol();
+        reader.endKif();
+
+        locationIanaTimeZone_.put(location, timeZone);
+        ianaTimeZones.add(timeZone);
       }
     }
 
     List<String> timeZones = Arrays.asList(TimeZone.getAvailableIDs());
-    try (FileReader file = new FileReader(new File(kb.kbDir, "itemTermFormatEnglishLanguage.kif"));
-         BufferedReader reader = new BufferedReader(file)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        Matcher matcher = itemTermFormatEnglishLanguagePattern_.matcher(line);
-        if (!matcher.find())
-          throw new Error("Can't match itemTermFormatEnglishLanguage pattern: " + line);
-
-        if (!(locationIanaTimeZone_.containsKey(matcher.group(1)) ||
-              ianaTimeZones.contains(matcher.group(1))))
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(kb.kbDir, "itemTermFormatEnglishLanguage.kif"))) {
+      while (reader.next()) {
+        // (termFormat EnglishLanguage Q123 "label")
+        reader.startKif("termFormat");
+        reader.expectSymbol("EnglishLanguage");
+        String id = reader.nextSymbol();
+        if (!(locationIanaTimeZone_.containsKey(id) || ianaTimeZones.contains(id)))
           // For now, only use memory to store labels needed for locations.
+          // Don't decode the label.
           continue;
 
-        String label = removeQuotes(matcher.group(2));
-        if (ianaTimeZones.contains(matcher.group(1)) &&
+        String label = reader.nextQuotedString();
+        reader.endKif();
+        if (ianaTimeZones.contains(id) &&
             !timeZones.contains(label.replace(" ", "_")))
-          throw new Error("TimeZone " + matcher.group(1) + " has unrecognized label: " + label);
+          throw new Error("TimeZone " + id + " has unrecognized label: " + label);
 
-        itemTermFormatEnglishLanguage_.put(matcher.group(1), label);
+        itemTermFormatEnglishLanguage_.put(id, label);
       }
     }
 
-    try (FileReader file = new FileReader(new File(kb.kbDir, "iataAbbreviation.kif"));
-         BufferedReader reader = new BufferedReader(file)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        Matcher matcher = iataAbbreviationPattern_.matcher(line);
-        if (!matcher.find())
-          throw new Error("Can't match iataAbbreviation pattern: " + line);
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(kb.kbDir, "iataAbbreviation.kif"))) {
+      while (reader.next()) {
+        // (abbreviation "ABC" Q123)
+        reader.startKif("abbreviation");
+        String abbreviation = reader.nextQuotedString();
+        String id = reader.nextSymbol();
+        reader.endKif();
 
-        String abbreviation = removeQuotes(matcher.group(1));
-        iataAbbreviation_.put(abbreviation, matcher.group(2));
+        iataAbbreviation_.put(abbreviation, id);
       }
     }
 
+    setWhenTimeIntervals();
+    if (useSnapshot)
+      writeSnapshot(snapshotFile, sourceStamp);
     System.out.println(" done.");
   }
 
@@ -152,21 +188,12 @@ public class CalendarKB {
       // TODO: Check if sentences_ has changed.
       // Set up overlapsDate_.
       Calendar calendar = Calendar.getInstance(timeZone);
-      Pattern pattern = Pattern.compile("^\\(equal \\(WhenFn (\\w+)\\) " +
-        "\\(TimeIntervalFn \\(SecondsSinceUnixEpochFn (\\d+)\\) \\(SecondsSinceUnixEpochFn (\\d+)\\)\\)\\)$");
 
       overlapsDate_.clear();
       overlapsDateTimeZone_ = timeZone;
-      for (Sentence sentence : sentencesByPredicate_.getOrDefault
-           ("equal", emptySentences_)) {
-        Matcher matcher = pattern.matcher(sentence.symbol());
-        if (!matcher.find())
-          continue;
-        String physical = matcher.group(1);
-
-        // TODO: Check for NumberFormatException.
-        long beginTimeUtcMillis = (long)(Double.parseDouble(matcher.group(2)) * 1000);
-        long endTimeUtcMillis = (long)(Double.parseDouble(matcher.group(3)) * 1000);
+      for (PhysicalTimeInterval timeInterval : whenTimeIntervals_) {
+        long beginTimeUtcMillis = timeInterval.beginUtcMillis;
+        long endTimeUtcMillis = timeInterval.endUtcMillis;
 
         // Find dates with dayBeginUtcMillis and dayEndUtcMillis where
         // (beginTimeUtcMillis < dayEndUtcMillis &&
@@ -196,8 +223,7 @@ public class CalendarKB {
             timeIntervalSet = new HashSet<>();
             overlapsDate_.put(key, timeIntervalSet);
           }
-          timeIntervalSet.add(new PhysicalTimeInterval
-            (physical, beginTimeUtcMillis, endTimeUtcMillis));
+          timeIntervalSet.add(timeInterval);
 
           if (key.equals(endDate))
             break;
@@ -254,6 +280,198 @@ public class CalendarKB {
   public static String 
   removeQuotes(String s) { return gson_.fromJson(s, String.class); }
 
+  /**
+   * Set whenTimeIntervals_ from the sentences like
+   * (equal (WhenFn ?PHYSICAL) (TimeIntervalFn ?BEGIN ?END)) so that
+   * overlapsDate doesn't match the pattern for each time zone.
+   */
+  private void
+  setWhenTimeIntervals()
+  {
+    Pattern pattern = Pattern.compile("^\\(equal \\(WhenFn (\\w+)\\) " +
+      "\\(TimeIntervalFn \\(SecondsSinceUnixEpochFn (\\d+)\\) \\(SecondsSinceUnixEpochFn (\\d+)\\)\\)\\)$");
+
+    whenTimeIntervals_.clear();
+    for (Sentence sentence : sentencesByPredicate_.getOrDefault
+         ("equal", emptySentences_)) {
+      Matcher matcher = pattern.matcher(sentence.symbol());
+      if (!matcher.find())
+        continue;
+
+      // TODO: Check for NumberFormatException.
+      whenTimeIntervals_.add(new PhysicalTimeInterval
+        (matcher.group(1), (long)(Double.parseDouble(matcher.group(2)) * 1000),
+         (long)(Double.parseDouble(matcher.group(3)) * 1000)));
+    }
+  }
+
+  /**
+   * Get the values which must match the snapshot: the number of formulas and a
+   * hash of them (String caches its hash code, so this is quick), then the
+   * size and modified time of each KIF file.
+   */
+  private static long[]
+  getSourceStamp(KB kb)
+  {
+    long[] result = new long[2 + 2 * kifFileNames_.length];
+    result[0] = kb.formulaMap.size();
+    for (String formula : kb.formulaMap.keySet())
+      // Add so that the order doesn't matter.
+      result[1] += formula.hashCode() * 0x9e3779b97f4a7c15L;
+    for (int i = 0; i < kifFileNames_.length; ++i) {
+      File file = DumpCompression.find(kb.kbDir, kifFileNames_[i]);
+      result[2 + 2 * i] = file.length();
+      result[3 + 2 * i] = file.lastModified();
+    }
+    return result;
+  }
+
+  /**
+   * Read the indexes from the snapshot file if it has the sourceStamp.
+   * @return True if read, or false if the file doesn't exist, is out of date,
+   * is corrupt (it ends with a CRC-32 of the rest) or can't be read, in which
+   * case the indexes are left empty.
+   */
+  private boolean
+  readSnapshot(File file, long[] sourceStamp)
+  {
+    if (!file.exists())
+      return false;
+
+    CheckedInputStream checkedIn = null;
+    try (DataInputStream in = new DataInputStream(checkedIn = new CheckedInputStream
+          (new BufferedInputStream(new FileInputStream(file), 1 << 16), new CRC32()))) {
+      if (in.readInt() != snapshotMagic_ || in.readInt() != snapshotVersion_)
+        return false;
+      long[] stamp = new long[in.readInt()];
+      for (int i = 0; i < stamp.length; ++i)
+        stamp[i] = in.readLong();
+      if (!Arrays.equals(stamp, sourceStamp))
+        return false;
+
+      int nPredicates = in.readInt();
+      for (int i = 0; i < nPredicates; ++i) {
+        String predicate = readString(in);
+        int nSentences = in.readInt();
+        Set<Sentence> sentenceSet = new HashSet<>();
+        for (int j = 0; j < nSentences; ++j)
+          sentenceSet.add(new Sentence(readString(in), false));
+        sentencesByPredicate_.put(predicate, sentenceSet);
+      }
+
+      int nTimeIntervals = in.readInt();
+      for (int i = 0; i < nTimeIntervals; ++i)
+        whenTimeIntervals_.add(new PhysicalTimeInterval
+          (readString(in), in.readLong(), in.readLong()));
+
+      readMap(in, locationIanaTimeZone_);
+      readMap(in, itemTermFormatEnglishLanguage_);
+      readMap(in, iataAbbreviation_);
+      long checksum = checkedIn.getChecksum().getValue();
+      if (in.readLong() != checksum)
+        throw new IOException("Bad checksum");
+      return true;
+    } catch (IOException ex) {
+      System.out.println("Can't read " + file + ": " + ex);
+      sentencesByPredicate_.clear();
+      whenTimeIntervals_.clear();
+      locationIanaTimeZone_.clear();
+      itemTermFormatEnglishLanguage_.clear();
+      iataAbbreviation_.clear();
+      return false;
+    }
+  }
+
+  /**
+   * Write the indexes to the snapshot file. If this fails, print a message
+   * since the snapshot is only to start faster.
+   */
+  private void
+  writeSnapshot(File file, long[] sourceStamp)
+  {
+    File newFile = new File(file.getPath() + ".new");
+    try {
+      CheckedOutputStream checkedOut = null;
+      try (DataOutputStream out = new DataOutputStream(checkedOut = new CheckedOutputStream
+            (new BufferedOutputStream(new FileOutputStream(newFile), 1 << 16),
+             new CRC32()))) {
+        out.writeInt(snapshotMagic_);
+        out.writeInt(snapshotVersion_);
+        out.writeInt(sourceStamp.length);
+        for (long value : sourceStamp)
+          out.writeLong(value);
+
+        out.writeInt(sentencesByPredicate_.size());
+        for (Map.Entry<String, Set<Sentence>> entry
+             : sentencesByPredicate_.entrySet()) {
+          writeString(out, entry.getKey());
+          out.writeInt(entry.getValue().size());
+          for (Sentence sentence : entry.getValue())
+            writeString(out, sentence.symbol());
+        }
+
+        out.writeInt(whenTimeIntervals_.size());
+        for (PhysicalTimeInterval timeInterval : whenTimeIntervals_) {
+          writeString(out, timeInterval.physical);
+          out.writeLong(timeInterval.beginUtcMillis);
+          out.writeLong(timeInterval.endUtcMillis);
+        }
+
+        writeMap(out, locationIanaTimeZone_);
+        writeMap(out, itemTermFormatEnglishLanguage_);
+        writeMap(out, iataAbbreviation_);
+        out.writeLong(checkedOut.getChecksum().getValue());
+      }
+      Files.move
+        (newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException ex) {
+      System.out.println("Can't write " + file + ": " + ex);
+      newFile.delete();
+    }
+  }
+
+  private static void
+  writeMap(DataOutputStream out, Map<String, String> map) throws IOException
+  {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  private static void
+  readMap(DataInputStream in, Map<String, String> map) throws IOException
+  {
+    int size = in.readInt();
+    for (int i = 0; i < size; ++i)
+      map.put(readString(in), readString(in));
+  }
+
+  /**
+   * Write the string as its UTF-8 length and bytes. Unlike writeUTF, this
+   * allows a formula longer than 64K.
+   */
+  private static void
+  writeString(DataOutputStream out, String s) throws IOException
+  {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String
+  readString(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    // Don't allocate a huge array for a corrupt length.
+    if (length < 0 || length > in.available())
+      throw new IOException("Bad string length " + length);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
   /** key: predicate, value: set of Sentence. */
   public final Map<String, Set<Sentence>> sentencesByPredicate_ = new HashMap<>();
   /** key: ID, value: time zone string. */
@@ -263,15 +481,21 @@ public class CalendarKB {
   /** key: abbreviation, value: ID. */
   public final Map<String, String> iataAbbreviation_ = new HashMap<>();
   
+  /**
+   * The PhysicalTimeInterval of each (equal (WhenFn ...) (TimeIntervalFn ...))
+   * sentence, from which overlapsDate_ is made.
+   */
+  private final List<PhysicalTimeInterval> whenTimeIntervals_ = new ArrayList<>();
   private TimeZone overlapsDateTimeZone_ = null;
   private final Map<LocalDate, Set<PhysicalTimeInterval>> overlapsDate_ = new HashMap<>();
   private static final Set<PhysicalTimeInterval> emptyPhysicalTimeIntervalSet_ = new HashSet<>();
   private static final Gson gson_ = new Gson();
   private static final Set<Sentence> emptySentences_ = new HashSet<>();
-  private static final Pattern locationIanaTimeZonePattern_ = Pattern.compile
-    ("^\\(locationIanaTimeZone (\\w+) (\\w+)\\)$");
-  private static final Pattern itemTermFormatEnglishLanguagePattern_ = Pattern.compile
-    ("^\\(termFormat EnglishLanguage (\\w+) (\".*\")\\)$");
-  private static final Pattern iataAbbreviationPattern_ = Pattern.compile
-    ("\\(abbreviation (\".*\") (\\w+)\\)");
+  // The KIF files read by the constructor.
+  private static final String[] kifFileNames_ =
+    { "locationIanaTimeZone.kif", "itemTermFormatEnglishLanguage.kif",
+      "iataAbbreviation.kif" };
+  private static final String snapshotFileName_ = "calendarKB.snapshot";
+  private static final int snapshotMagic_ = 0x43414b42;
+  private static final int snapshotVersion_ = 1;
 }
@@ -0,0 +1,97 @@
+package com.articulate.calendar;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+/**
+ * A DumpCompression is the compression of the text dump files, which is shown
+ * by the file extension added to the file name, like propertyEnLabels.tsv.gz.
+ * The loaders find a dump file with any of the extensions.
+ * Zstd needs the zstd-jni library which commons-compress uses.
+ */
+public enum DumpCompression {
+  None(""), Gzip(".gz"), Zstd(".zst");
+
+  DumpCompression(String extension) { this.extension = extension; }
+
+  /**
+   * Wrap the stream so that the bytes written to it are compressed.
+   */
+  public OutputStream
+  compress(OutputStream out) throws IOException
+  {
+    switch (this) {
+      case Gzip: return new GZIPOutputStream(out, 1 << 16);
+      case Zstd: return new ZstdCompressorOutputStream(out);
+      default: return out;
+    }
+  }
+
+  /**
+   * Open the file for reading its decompressed bytes, where the compression is
+   * chosen by the file extension. A gzip file is decompressed on a read-ahead
+   * thread by WikidataDumpInput.
+   */
+  public static InputStream
+  open(File file) throws IOException
+  {
+    switch (get(file)) {
+      case Gzip: return WikidataDumpInput.open(file.getPath(), 1);
+      case Zstd:
+        return new ZstdCompressorInputStream
+          (new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      default: return new FileInputStream(file);
+    }
+  }
+
+  /**
+   * Get the compression of the file from its extension.
+   */
+  public static DumpCompression
+  get(File file)
+  {
+    for (DumpCompression compression : values()) {
+      if (compression != None && file.getName().endsWith(compression.extension))
+        return compression;
+    }
+    return None;
+  }
+
+  /**
+   * Find the dump file, which may have the extension of any compression.
+   * @return The file which exists, or the uncompressed file if none exists so
+   * that opening it gives the usual error.
+   */
+  public static File
+  find(String dir, String fileName)
+  {
+    for (DumpCompression compression : values()) {
+      File file = new File(dir, fileName + compression.extension);
+      if (file.exists())
+        return file;
+    }
+    return new File(dir, fileName);
+  }
+
+  /**
+   * Delete the dump file with the extensions of the other compressions, so
+   * that find doesn't return an old file.
+   */
+  public void
+  deleteOthers(String dir, String fileName)
+  {
+    for (DumpCompression compression : values()) {
+      if (compression != this)
+        new File(dir, fileName + compression.extension).delete();
+    }
+  }
+
+  public final String extension;
+}
@@ -0,0 +1,396 @@
+package com.articulate.calendar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A DumpLineReader reads the lines of a UTF-8 TSV or KIF file and parses the
+ * fields in place from the bytes of the line, so that reading a line makes no
+ * garbage. Only the strings which are kept, like labels, are decoded.
+ * Call next() for each line, then read its fields in order.
+ * A TSV line has fields separated by tabs. A string field is JSON-escaped
+ * without the surrounding quotes.
+ * A KIF line is like (predicate arg1 arg2) where each arg is a symbol or a
+ * quoted JSON string, separated by one space.
+ * The read methods throw an Error if the line doesn't have the expected field.
+ */
+public class DumpLineReader implements Closeable {
+  /**
+   * Open the file, which is decompressed if it has the extension of a
+   * DumpCompression.
+   */
+  public DumpLineReader(File file) throws IOException
+  {
+    this(DumpCompression.open(file));
+  }
+
+  public DumpLineReader(InputStream in) { reader_ = new Utf8LineReader(in); }
+
+  /**
+   * Read the next line and move to its first field.
+   * @return False if there are no more lines.
+   */
+  public boolean
+  next() throws IOException
+  {
+    if (!reader_.readLine(line_))
+      return false;
+    ++nLines_;
+    position_ = 0;
+    return true;
+  }
+
+  /**
+   * Get the line from the last call to next(), which is only valid until the
+   * next call.
+   */
+  public Utf8Line getLine() { return line_; }
+
+  /**
+   * Get the number of lines read, which is the line number of the current line.
+   */
+  public int getNLines() { return nLines_; }
+
+  /**
+   * Return true if the current TSV line has another field, which may be empty.
+   */
+  public boolean hasNextField() { return position_ <= line_.length(); }
+
+  /**
+   * Read the next TSV field as a decimal int.
+   */
+  public int
+  nextInt()
+  {
+    int result = parseInt("an int field");
+    skipSeparator('\t');
+    return result;
+  }
+
+  /**
+   * Read the next TSV field as a JSON-escaped string without quotes.
+   */
+  public String
+  nextString()
+  {
+    int end = findFieldEnd();
+    String result = decode(position_, end, true);
+    position_ = end;
+    skipSeparator('\t');
+    return result;
+  }
+
+  /**
+   * Read the next TSV field as it is, without unescaping.
+   */
+  public String
+  nextField()
+  {
+    int end = findFieldEnd();
+    String result = decode(position_, end, false);
+    position_ = end;
+    skipSeparator('\t');
+    return result;
+  }
+
+  /**
+   * Read the start of a KIF line, "(predicate ".
+   */
+  public void
+  startKif(String predicate)
+  {
+    expect('(', "(" + predicate);
+    expectSymbol(predicate);
+  }
+
+  /**
+   * Read the next KIF symbol, which must be the given symbol.
+   */
+  public void
+  expectSymbol(String symbol)
+  {
+    for (int i = 0; i < symbol.length(); ++i)
+      expect(symbol.charAt(i), symbol);
+    skipKifSeparator(symbol);
+  }
+
+  /**
+   * Read the next KIF symbol.
+   */
+  public String
+  nextSymbol()
+  {
+    int end = position_;
+    while (end < line_.length() && isSymbolChar(line_.charAt(end)))
+      ++end;
+    if (end == position_)
+      throw parseError("a symbol");
+    String result = decode(position_, end, false);
+    position_ = end;
+    skipKifSeparator("a symbol");
+    return result;
+  }
+
+  /**
+   * Read the next KIF symbol, which must be the prefix followed by a decimal
+   * ID like Q123, and return the ID.
+   */
+  public int
+  nextSymbolId(char prefix)
+  {
+    expect(prefix, prefix + " ID");
+    int result = parseInt(prefix + " ID");
+    skipKifSeparator(prefix + " ID");
+    return result;
+  }
+
+  /**
+   * Read the next KIF arg as a quoted JSON string and return it unescaped.
+   */
+  public String
+  nextQuotedString()
+  {
+    expect('"', "a quoted string");
+    int end = position_;
+    while (end < line_.length() && line_.charAt(end) != '"') {
+      if (line_.charAt(end) == '\\')
+        // Skip the escaped character.
+        ++end;
+      ++end;
+    }
+    if (end >= line_.length())
+      throw parseError("the end quote");
+    String result = decode(position_, end, true);
+    position_ = end + 1;
+    skipKifSeparator("a quoted string");
+    return result;
+  }
+
+  /**
+   * Read the ")" at the end of a KIF line.
+   */
+  public void
+  endKif()
+  {
+    if (position_ != line_.length())
+      throw parseError("the end of the line");
+  }
+
+  @Override
+  public void
+  close() throws IOException { reader_.close(); }
+
+  /**
+   * An IntArrayBuilder collects ints which are reused for each line.
+   */
+  public static class IntArrayBuilder {
+    public void
+    add(int value)
+    {
+      if (size_ >= values_.length)
+        values_ = Arrays.copyOf(values_, values_.length * 2);
+      values_[size_++] = value;
+    }
+
+    public void clear() { size_ = 0; }
+
+    public int size() { return size_; }
+
+    /**
+     * Return a new array of the unique values in ascending order.
+     */
+    public int[]
+    toUniqueArray()
+    {
+      Arrays.sort(values_, 0, size_);
+      int nUnique = 0;
+      for (int i = 0; i < size_; ++i) {
+        if (nUnique == 0 || values_[i] != values_[nUnique - 1])
+          values_[nUnique++] = values_[i];
+      }
+      return Arrays.copyOf(values_, nUnique);
+    }
+
+    private int[] values_ = new int[16];
+    private int size_ = 0;
+  }
+
+  private int
+  parseInt(String expected)
+  {
+    boolean isNegative = position_ < line_.length() && line_.charAt(position_) == '-';
+    int start = isNegative ? position_ + 1 : position_;
+    int end = start;
+    // A long can't overflow with the 10 digits of the largest int.
+    long result = 0;
+    while (end < line_.length()) {
+      char c = line_.charAt(end);
+      if (c < '0' || c > '9')
+        break;
+      if (end - start >= 10)
+        throw parseError(expected);
+      result = result * 10 + (c - '0');
+      ++end;
+    }
+    if (end == start || result > Integer.MAX_VALUE)
+      throw parseError(expected);
+    position_ = end;
+    return (int)(isNegative ? -result : result);
+  }
+
+  private int
+  findFieldEnd()
+  {
+    int end = position_;
+    while (end < line_.length() && line_.charAt(end) != '\t')
+      ++end;
+    return end;
+  }
+
+  /**
+   * Skip the separator after a TSV field. At the end of the line, move past
+   * the end so that hasNextField() is false.
+   */
+  private void
+  skipSeparator(char separator)
+  {
+    if (position_ >= line_.length())
+      position_ = line_.length() + 1;
+    else if (line_.charAt(position_) == separator)
+      ++position_;
+    else
+      throw parseError("a tab");
+  }
+
+  /**
+   * Skip the space before the next KIF arg, or the ")" at the end.
+   */
+  private void
+  skipKifSeparator(String field)
+  {
+    if (position_ < line_.length() &&
+        (line_.charAt(position_) == ' ' || line_.charAt(position_) == ')'))
+      ++position_;
+    else
+      throw parseError("a space or \")\" after " + field);
+  }
+
+  private void
+  expect(char c, String expected)
+  {
+    if (position_ >= line_.length() || line_.charAt(position_) != c)
+      throw parseError(expected);
+    ++position_;
+  }
+
+  private static boolean
+  isSymbolChar(char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+      (c >= '0' && c <= '9') || c == '_';
+  }
+
+  /**
+   * Decode the UTF-8 bytes of the line from start to end, and if isJson then
+   * unescape JSON escapes.
+   */
+  private String
+  decode(int start, int end, boolean isJson)
+  {
+    // Each byte makes at most one char.
+    if (chars_.length < end - start)
+      chars_ = new char[Math.max(end - start, chars_.length * 2)];
+
+    int n = 0;
+    int i = start;
+    while (i < end) {
+      int b = line_.charAt(i);
+      if (b == '\\' && isJson && i + 1 < end) {
+        char escaped = line_.charAt(i + 1);
+        i += 2;
+        switch (escaped) {
+          case 'b': chars_[n++] = '\b'; break;
+          case 'f': chars_[n++] = '\f'; break;
+          case 'n': chars_[n++] = '\n'; break;
+          case 'r': chars_[n++] = '\r'; break;
+          case 't': chars_[n++] = '\t'; break;
+          case 'u':
+            if (i + 4 > end)
+              throw parseError("four hex digits");
+            int value = 0;
+            for (int j = 0; j < 4; ++j) {
+              int digit = Character.digit(line_.charAt(i + j), 16);
+              if (digit < 0)
+                throw parseError("four hex digits");
+              value = value * 16 + digit;
+            }
+            chars_[n++] = (char)value;
+            i += 4;
+            break;
+          default:
+            // '"', '\\' and '/' stand for themselves.
+            chars_[n++] = escaped;
+        }
+      }
+      else if (b < 0x80) {
+        chars_[n++] = (char)b;
+        ++i;
+      }
+      else {
+        int codePoint;
+        int nContinuation;
+        if ((b & 0xe0) == 0xc0) {
+          codePoint = b & 0x1f;
+          nContinuation = 1;
+        }
+        else if ((b & 0xf0) == 0xe0) {
+          codePoint = b & 0x0f;
+          nContinuation = 2;
+        }
+        else if ((b & 0xf8) == 0xf0) {
+          codePoint = b & 0x07;
+          nContinuation = 3;
+        }
+        else {
+          codePoint = 0xfffd;
+          nContinuation = 0;
+        }
+        ++i;
+        for (int j = 0; j < nContinuation; ++j, ++i) {
+          if (i >= end || (line_.charAt(i) & 0xc0) != 0x80) {
+            // Malformed, so replace like String does.
+            codePoint = 0xfffd;
+            break;
+          }
+          codePoint = (codePoint << 6) | (line_.charAt(i) & 0x3f);
+        }
+
+        if (codePoint >= 0x10000) {
+          chars_[n++] = Character.highSurrogate(codePoint);
+          chars_[n++] = Character.lowSurrogate(codePoint);
+        }
+        else
+          chars_[n++] = (char)codePoint;
+      }
+    }
+
+    return new String(chars_, 0, n);
+  }
+
+  private Error
+  parseError(String expected)
+  {
+    return new Error
+      ("Expected " + expected + " at column " + (position_ + 1) + " of line " +
+       nLines_ + ": " + line_);
+  }
+
+  private final Utf8LineReader reader_;
+  private final Utf8Line line_ = new Utf8Line();
+  private int nLines_ = 0;
+  private int position_ = 0;
+  private char[] chars_ = new char[256];
+}
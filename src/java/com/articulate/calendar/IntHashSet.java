@@ -0,0 +1,253 @@
+package com.articulate.calendar;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ * An IntHashSet is a set of ints in an int array with open addressing, so
+ * that there is no boxed Integer or entry object for each value. The methods
+ * which take an int don't box. It is also a Set<Integer> so that it can be
+ * passed to code which takes a Set. The iteration order is not the order of
+ * the values. The iterator doesn't support remove. This is not thread safe.
+ */
+public class IntHashSet extends AbstractSet<Integer> {
+  public IntHashSet() { this(2); }
+
+  /**
+   * Create an IntHashSet with room for expectedSize values before it grows.
+   */
+  public IntHashSet(int expectedSize) { allocate(getCapacity(expectedSize)); }
+
+  /**
+   * Add the value.
+   * @return True if it wasn't already in the set.
+   */
+  public boolean
+  add(int value)
+  {
+    if (value == freeValue_) {
+      if (hasFreeValue_)
+        return false;
+      hasFreeValue_ = true;
+      ++size_;
+      return true;
+    }
+
+    int slot = getSlot(value);
+    while (values_[slot] != freeValue_) {
+      if (values_[slot] == value)
+        return false;
+      slot = (slot + 1) & mask_;
+    }
+
+    values_[slot] = value;
+    if (++size_ > maxSize_)
+      resize(values_.length * 2);
+    return true;
+  }
+
+  public boolean
+  contains(int value)
+  {
+    if (value == freeValue_)
+      return hasFreeValue_;
+
+    int slot = getSlot(value);
+    while (values_[slot] != freeValue_) {
+      if (values_[slot] == value)
+        return true;
+      slot = (slot + 1) & mask_;
+    }
+    return false;
+  }
+
+  /**
+   * Remove the value.
+   * @return True if it was in the set.
+   */
+  public boolean
+  remove(int value)
+  {
+    if (value == freeValue_) {
+      if (!hasFreeValue_)
+        return false;
+      hasFreeValue_ = false;
+      --size_;
+      return true;
+    }
+
+    int slot = getSlot(value);
+    while (values_[slot] != value) {
+      if (values_[slot] == freeValue_)
+        return false;
+      slot = (slot + 1) & mask_;
+    }
+
+    // Shift back the following values of the probe sequence so that there
+    // are no gaps in it, like IntObjectHashMap.remove.
+    int gap = slot;
+    int i = slot;
+    while (true) {
+      i = (i + 1) & mask_;
+      if (values_[i] == freeValue_)
+        break;
+      int home = getSlot(values_[i]);
+      if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+        values_[gap] = values_[i];
+        gap = i;
+      }
+    }
+    values_[gap] = freeValue_;
+    --size_;
+    return true;
+  }
+
+  /**
+   * Call the consumer for each value, without boxing.
+   */
+  public void
+  forEachInt(IntConsumer consumer)
+  {
+    if (hasFreeValue_)
+      consumer.accept(freeValue_);
+    for (int value : values_) {
+      if (value != freeValue_)
+        consumer.accept(value);
+    }
+  }
+
+  /**
+   * Return a new array of the values in ascending order.
+   */
+  public int[]
+  toSortedArray()
+  {
+    int[] result = new int[size_];
+    int n = 0;
+    if (hasFreeValue_)
+      result[n++] = freeValue_;
+    for (int value : values_) {
+      if (value != freeValue_)
+        result[n++] = value;
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  @Override
+  public int size() { return size_; }
+
+  @Override
+  public boolean add(Integer value) { return add((int)value); }
+
+  @Override
+  public boolean
+  contains(Object value) { return value instanceof Integer && contains((int)(Integer)value); }
+
+  @Override
+  public boolean
+  remove(Object value) { return value instanceof Integer && remove((int)(Integer)value); }
+
+  @Override
+  public void
+  clear()
+  {
+    allocate(getCapacity(2));
+    hasFreeValue_ = false;
+    size_ = 0;
+  }
+
+  @Override
+  public Iterator<Integer> iterator() { return new ValueIterator(); }
+
+  /**
+   * A ValueIterator returns the free value first if it is in the set, then the
+   * value in each used slot.
+   */
+  private class ValueIterator implements Iterator<Integer> {
+    public ValueIterator()
+    {
+      if (!hasFreeValue_)
+        advance();
+    }
+
+    @Override
+    public boolean hasNext() { return slot_ < values_.length; }
+
+    @Override
+    public Integer
+    next()
+    {
+      if (slot_ >= values_.length)
+        throw new NoSuchElementException();
+      int result = slot_ < 0 ? freeValue_ : values_[slot_];
+      advance();
+      return result;
+    }
+
+    private void
+    advance()
+    {
+      ++slot_;
+      while (slot_ < values_.length && values_[slot_] == freeValue_)
+        ++slot_;
+    }
+
+    // -1 for the free value.
+    private int slot_ = -1;
+  }
+
+  /**
+   * Get the first slot to probe for the value, like IntObjectHashMap.
+   */
+  private int getSlot(int value) { return (value * 0x9e3779b9) >>> shift_; }
+
+  private static int
+  getCapacity(int expectedSize)
+  {
+    int capacity = 4;
+    while (capacity * loadFactor_ < expectedSize)
+      capacity *= 2;
+    return capacity;
+  }
+
+  private void
+  allocate(int capacity)
+  {
+    values_ = new int[capacity];
+    if (freeValue_ != 0)
+      Arrays.fill(values_, freeValue_);
+    mask_ = capacity - 1;
+    shift_ = Integer.numberOfLeadingZeros(capacity) + 1;
+    maxSize_ = (int)(capacity * loadFactor_);
+  }
+
+  private void
+  resize(int capacity)
+  {
+    int[] oldValues = values_;
+    allocate(capacity);
+    for (int value : oldValues) {
+      if (value != freeValue_) {
+        int slot = getSlot(value);
+        while (values_[slot] != freeValue_)
+          slot = (slot + 1) & mask_;
+        values_[slot] = value;
+      }
+    }
+  }
+
+  // A slot with freeValue_ is empty. Whether freeValue_ is in the set is
+  // kept in hasFreeValue_.
+  private static final int freeValue_ = 0;
+  private static final double loadFactor_ = 0.6;
+  private int[] values_;
+  private int mask_;
+  private int shift_;
+  private int maxSize_;
+  private boolean hasFreeValue_ = false;
+  private int size_ = 0;
+}
@@ -0,0 +1,341 @@
+package com.articulate.calendar;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An IntObjectHashMap is a map from int keys to values which stores the keys
+ * in an int array and the values in a parallel array with open addressing,
+ * so that there is no boxed Integer or entry object for each key. The methods
+ * which take an int key don't box. It is also a Map<Integer, V> so that it can
+ * be passed to code which takes a Map. A value can't be null. The iteration
+ * order is not the order of the keys. The iterators don't support remove.
+ * This is not thread safe.
+ */
+public class IntObjectHashMap<V> extends AbstractMap<Integer, V> {
+  public IntObjectHashMap() { this(8); }
+
+  /**
+   * Create an IntObjectHashMap with room for expectedSize entries before it
+   * grows.
+   */
+  public IntObjectHashMap(int expectedSize)
+  {
+    allocate(getCapacity(expectedSize));
+  }
+
+  /**
+   * Get the value for the key, or null if none.
+   */
+  @SuppressWarnings("unchecked")
+  public V
+  get(int key)
+  {
+    int slot = findSlot(key);
+    return slot < 0 ? null : (V)values_[slot];
+  }
+
+  public boolean containsKey(int key) { return findSlot(key) >= 0; }
+
+  /**
+   * Set the value for the key.
+   * @return The previous value, or null if none.
+   */
+  @SuppressWarnings("unchecked")
+  public V
+  put(int key, V value)
+  {
+    if (value == null)
+      throw new NullPointerException("IntObjectHashMap can't have a null value");
+
+    int slot = getSlot(key);
+    while (values_[slot] != null) {
+      if (keys_[slot] == key) {
+        V result = (V)values_[slot];
+        values_[slot] = value;
+        return result;
+      }
+      slot = (slot + 1) & mask_;
+    }
+
+    keys_[slot] = key;
+    values_[slot] = value;
+    if (++size_ > maxSize_)
+      resize(keys_.length * 2);
+    return null;
+  }
+
+  /**
+   * Remove the key.
+   * @return The removed value, or null if none.
+   */
+  @SuppressWarnings("unchecked")
+  public V
+  remove(int key)
+  {
+    int slot = findSlot(key);
+    if (slot < 0)
+      return null;
+
+    V result = (V)values_[slot];
+    // Shift back the following entries of the probe sequence so that there
+    // are no gaps in it.
+    int gap = slot;
+    int i = slot;
+    while (true) {
+      i = (i + 1) & mask_;
+      if (values_[i] == null)
+        break;
+      int home = getSlot(keys_[i]);
+      // Move the entry if its home slot is not between the gap and i.
+      if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+        keys_[gap] = keys_[i];
+        values_[gap] = values_[i];
+        gap = i;
+      }
+    }
+    values_[gap] = null;
+    --size_;
+    return result;
+  }
+
+  /**
+   * Call the consumer for each key and value, without boxing the keys.
+   */
+  @SuppressWarnings("unchecked")
+  public void
+  forEachEntry(IntObjectConsumer<? super V> consumer)
+  {
+    Object[] values = values_;
+    for (int slot = 0; slot < values.length; ++slot) {
+      if (values[slot] != null)
+        consumer.accept(keys_[slot], (V)values[slot]);
+    }
+  }
+
+  public interface IntObjectConsumer<V> { void accept(int key, V value); }
+
+  @Override
+  public int size() { return size_; }
+
+  @Override
+  public V
+  get(Object key) { return key instanceof Integer ? get((int)(Integer)key) : null; }
+
+  @Override
+  public boolean
+  containsKey(Object key)
+  {
+    return key instanceof Integer && containsKey((int)(Integer)key);
+  }
+
+  @Override
+  public V put(Integer key, V value) { return put((int)key, value); }
+
+  @Override
+  public V
+  remove(Object key) { return key instanceof Integer ? remove((int)(Integer)key) : null; }
+
+  @Override
+  public void
+  clear()
+  {
+    allocate(getCapacity(8));
+    size_ = 0;
+  }
+
+  @Override
+  public Set<Entry<Integer, V>>
+  entrySet()
+  {
+    return new AbstractSet<Entry<Integer, V>>() {
+      @Override
+      public Iterator<Entry<Integer, V>>
+      iterator()
+      {
+        return new SlotIterator<Entry<Integer, V>>() {
+          @Override
+          protected Entry<Integer, V>
+          get(int slot) { return new SlotEntry(slot); }
+        };
+      }
+
+      @Override
+      public int size() { return size_; }
+    };
+  }
+
+  @Override
+  public Collection<V>
+  values()
+  {
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V>
+      iterator()
+      {
+        return new SlotIterator<V>() {
+          @SuppressWarnings("unchecked")
+          @Override
+          protected V get(int slot) { return (V)values_[slot]; }
+        };
+      }
+
+      @Override
+      public int size() { return size_; }
+    };
+  }
+
+  /**
+   * A SlotEntry is a view of a slot, so setValue changes the map.
+   */
+  private class SlotEntry implements Map.Entry<Integer, V> {
+    public SlotEntry(int slot)
+    {
+      slot_ = slot;
+      key_ = keys_[slot];
+    }
+
+    @Override
+    public Integer getKey() { return key_; }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getValue() { return (V)values_[slot_]; }
+
+    @Override
+    public V
+    setValue(V value)
+    {
+      V result = getValue();
+      if (value == null)
+        throw new NullPointerException("IntObjectHashMap can't have a null value");
+      values_[slot_] = value;
+      return result;
+    }
+
+    @Override
+    public boolean
+    equals(Object obj)
+    {
+      if (!(obj instanceof Map.Entry))
+        return false;
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+      return getKey().equals(entry.getKey()) && getValue().equals(entry.getValue());
+    }
+
+    @Override
+    public int hashCode() { return key_ ^ getValue().hashCode(); }
+
+    @Override
+    public String toString() { return key_ + "=" + getValue(); }
+
+    private final int slot_;
+    private final int key_;
+  }
+
+  /**
+   * A SlotIterator visits each used slot.
+   */
+  private abstract class SlotIterator<T> implements Iterator<T> {
+    public SlotIterator() { advance(); }
+
+    @Override
+    public boolean hasNext() { return slot_ < values_.length; }
+
+    @Override
+    public T
+    next()
+    {
+      if (slot_ >= values_.length)
+        throw new NoSuchElementException();
+      T result = get(slot_);
+      advance();
+      return result;
+    }
+
+    protected abstract T get(int slot);
+
+    private void
+    advance()
+    {
+      ++slot_;
+      while (slot_ < values_.length && values_[slot_] == null)
+        ++slot_;
+    }
+
+    private int slot_ = -1;
+  }
+
+  /**
+   * Get the slot of the key, or -1 if it isn't in the map.
+   */
+  private int
+  findSlot(int key)
+  {
+    int slot = getSlot(key);
+    while (values_[slot] != null) {
+      if (keys_[slot] == key)
+        return slot;
+      slot = (slot + 1) & mask_;
+    }
+    return -1;
+  }
+
+  /**
+   * Get the first slot to probe for the key. Fibonacci hashing spreads keys
+   * like a range of IDs over the whole table.
+   */
+  private int getSlot(int key) { return (key * 0x9e3779b9) >>> shift_; }
+
+  private static int
+  getCapacity(int expectedSize)
+  {
+    int capacity = 8;
+    while (capacity * loadFactor_ < expectedSize)
+      capacity *= 2;
+    return capacity;
+  }
+
+  private void
+  allocate(int capacity)
+  {
+    keys_ = new int[capacity];
+    values_ = new Object[capacity];
+    mask_ = capacity - 1;
+    shift_ = Integer.numberOfLeadingZeros(capacity) + 1;
+    maxSize_ = (int)(capacity * loadFactor_);
+  }
+
+  private void
+  resize(int capacity)
+  {
+    int[] oldKeys = keys_;
+    Object[] oldValues = values_;
+    allocate(capacity);
+    for (int i = 0; i < oldValues.length; ++i) {
+      if (oldValues[i] != null) {
+        int slot = getSlot(oldKeys[i]);
+        while (values_[slot] != null)
+          slot = (slot + 1) & mask_;
+        keys_[slot] = oldKeys[i];
+        values_[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static final double loadFactor_ = 0.6;
+  private int[] keys_;
+  // A null value is an empty slot.
+  private Object[] values_;
+  private int mask_;
+  private int shift_;
+  private int maxSize_;
+  private int size_ = 0;
+}
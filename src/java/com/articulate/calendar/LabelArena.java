@@ -0,0 +1,150 @@
+package com.articulate.calendar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A LabelArena packs many strings as UTF-8 in a few large byte chunks instead
+ * of one String object each. add returns the index of the string, and get
+ * decodes it again when asked for. Each string is a varint length followed by
+ * its bytes, and never spans chunks.
+ * add is not thread safe, but get can be called by many threads once the
+ * strings are added.
+ */
+public class LabelArena {
+  public LabelArena() { this(1 << 22); }
+
+  /**
+   * Create a LabelArena.
+   * @param chunkSize The bytes in each chunk. A longer string gets a chunk of
+   * its own.
+   */
+  public LabelArena(int chunkSize) { chunkSize_ = chunkSize; }
+
+  /**
+   * Add the string and return its index.
+   */
+  public int
+  add(String value)
+  {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return add(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Add the UTF-8 bytes of a string and return its index.
+   */
+  public int
+  add(byte[] bytes, int offset, int length)
+  {
+    int nBytes = getVarintSize(length) + length;
+    if (chunk_ == null || chunk_.length - chunkEnd_ < nBytes) {
+      if (nChunks_ >= chunks_.length)
+        chunks_ = Arrays.copyOf(chunks_, Math.max(16, chunks_.length * 2));
+      chunk_ = new byte[Math.max(chunkSize_, nBytes)];
+      chunks_[nChunks_++] = chunk_;
+      chunkEnd_ = 0;
+    }
+
+    if (size_ >= positions_.length)
+      positions_ = Arrays.copyOf(positions_, Math.max(1024, positions_.length * 2));
+    positions_[size_] = ((long)(nChunks_ - 1) << 32) | chunkEnd_;
+
+    int value = length;
+    while ((value & ~0x7f) != 0) {
+      chunk_[chunkEnd_++] = (byte)((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    chunk_[chunkEnd_++] = (byte)value;
+    System.arraycopy(bytes, offset, chunk_, chunkEnd_, length);
+    chunkEnd_ += length;
+    nBytes_ += nBytes;
+
+    return size_++;
+  }
+
+  /**
+   * Decode the string at the index returned by add.
+   */
+  public String
+  get(int index)
+  {
+    if (index < 0 || index >= size_)
+      throw new Error("LabelArena index out of range: " + index);
+
+    long position = positions_[index];
+    byte[] chunk = chunks_[(int)(position >>> 32)];
+    int offset = (int)position;
+    int length = 0;
+    int shift = 0;
+    while (true) {
+      byte b = chunk[offset++];
+      length |= (b & 0x7f) << shift;
+      if (b >= 0)
+        break;
+      shift += 7;
+    }
+    return new String(chunk, offset, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check if the string at the index is empty, without decoding it.
+   */
+  public boolean
+  isEmpty(int index)
+  {
+    if (index < 0 || index >= size_)
+      throw new Error("LabelArena index out of range: " + index);
+
+    long position = positions_[index];
+    // The length is a varint, which is one zero byte for an empty string.
+    return chunks_[(int)(position >>> 32)][(int)position] == 0;
+  }
+
+  /**
+   * Get the number of strings added.
+   */
+  public int size() { return size_; }
+
+  /**
+   * Get the number of bytes used by the strings, not counting the unused end
+   * of each chunk.
+   */
+  public long getNBytes() { return nBytes_; }
+
+  /**
+   * Shrink the index and the last chunk to what is used. Call this after the
+   * last add.
+   */
+  public void
+  trimToSize()
+  {
+    positions_ = Arrays.copyOf(positions_, size_);
+    chunks_ = Arrays.copyOf(chunks_, nChunks_);
+    if (chunk_ != null && chunkEnd_ < chunk_.length) {
+      chunk_ = Arrays.copyOf(chunk_, chunkEnd_);
+      chunks_[nChunks_ - 1] = chunk_;
+    }
+  }
+
+  private static int
+  getVarintSize(int value)
+  {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      ++size;
+    }
+    return size;
+  }
+
+  private final int chunkSize_;
+  private byte[][] chunks_ = new byte[16][];
+  private int nChunks_ = 0;
+  private byte[] chunk_ = null;
+  private int chunkEnd_ = 0;
+  // The chunk index in the high 32 bits and the offset in the low 32 bits.
+  private long[] positions_ = new long[1024];
+  private int size_ = 0;
+  private long nBytes_ = 0;
+}
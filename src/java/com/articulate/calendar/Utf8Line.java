@@ -0,0 +1,79 @@
+package com.articulate.calendar;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Utf8Line is a view of a line of UTF-8 bytes as a CharSequence where each
+ * char is one byte. This lets the JSON scanners and regex patterns work on
+ * the undecoded bytes of a dump line, since the JSON syntax and the ASCII
+ * names that they match never occur inside a multi-byte UTF-8 sequence. Only
+ * toString decodes the bytes, so that a scanner can decode just the values it
+ * keeps, such as a label.
+ * A Utf8Line does not copy the bytes, so its contents change if the array
+ * changes.
+ */
+public class Utf8Line implements CharSequence {
+  public Utf8Line() {}
+
+  public Utf8Line(byte[] bytes, int offset, int length)
+  {
+    set(bytes, offset, length);
+  }
+
+  /**
+   * Make this a view of the given bytes.
+   */
+  public void
+  set(byte[] bytes, int offset, int length)
+  {
+    bytes_ = bytes;
+    offset_ = offset;
+    length_ = length;
+  }
+
+  @Override
+  public int
+  length() { return length_; }
+
+  @Override
+  public char
+  charAt(int index)
+  {
+    if (index < 0 || index >= length_)
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length_);
+    return (char)(bytes_[offset_ + index] & 0xff);
+  }
+
+  /**
+   * Copy the bytes of this line to the destination array.
+   */
+  public void
+  copyTo(byte[] destination, int destinationOffset)
+  {
+    System.arraycopy(bytes_, offset_, destination, destinationOffset, length_);
+  }
+
+  /**
+   * Get a view of a range of bytes of this line, sharing the same array.
+   */
+  @Override
+  public Utf8Line
+  subSequence(int start, int end)
+  {
+    if (start < 0 || end > length_ || start > end)
+      throw new IndexOutOfBoundsException
+        ("start " + start + ", end " + end + ", length " + length_);
+    return new Utf8Line(bytes_, offset_ + start, end - start);
+  }
+
+  /**
+   * Decode the UTF-8 bytes.
+   */
+  @Override
+  public String
+  toString() { return new String(bytes_, offset_, length_, StandardCharsets.UTF_8); }
+
+  private byte[] bytes_ = null;
+  private int offset_ = 0;
+  private int length_ = 0;
+}
@@ -0,0 +1,99 @@
+package com.articulate.calendar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A Utf8LineReader reads lines of bytes from an InputStream into a reusable
+ * buffer, without decoding them to Strings. The buffer grows to hold the
+ * longest line.
+ */
+public class Utf8LineReader implements Closeable {
+  public Utf8LineReader(InputStream in) { in_ = in; }
+
+  /**
+   * Read the next line. A line ends with '\n' or "\r\n", which is not included.
+   * @param line This is set to a view of the line in the internal buffer,
+   * which is only valid until the next call to readLine.
+   * @return False if there are no more lines.
+   * @throws IOException For an error reading the stream.
+   */
+  public boolean
+  readLine(Utf8Line line) throws IOException
+  {
+    int searchFrom = start_;
+    while (true) {
+      for (int i = searchFrom; i < end_; ++i) {
+        if (buffer_[i] == '\n') {
+          int lineEnd = (i > start_ && buffer_[i - 1] == '\r') ? i - 1 : i;
+          line.set(buffer_, start_, lineEnd - start_);
+          start_ = i + 1;
+          return true;
+        }
+      }
+
+      int nSearched = end_ - start_;
+      if (!fill()) {
+        if (start_ == end_)
+          return false;
+        // The last line has no end of line.
+        line.set(buffer_, start_, end_ - start_);
+        start_ = end_;
+        return true;
+      }
+      // fill() may move the line to the start of the buffer.
+      searchFrom = start_ + nSearched;
+    }
+  }
+
+  /**
+   * Get the total number of bytes read from the stream.
+   */
+  public long
+  getBytesRead() { return nBytesRead_; }
+
+  /**
+   * Get the position in the stream after the line from the last call to
+   * readLine, including the end of line.
+   */
+  public long
+  getPosition() { return nBytesRead_ - (end_ - start_); }
+
+  @Override
+  public void
+  close() throws IOException { in_.close(); }
+
+  /**
+   * Read more bytes after end_, first moving the partial line to the start of
+   * the buffer or growing the buffer if needed.
+   * @return False if at the end of the stream.
+   */
+  private boolean
+  fill() throws IOException
+  {
+    if (start_ > 0) {
+      System.arraycopy(buffer_, start_, buffer_, 0, end_ - start_);
+      end_ -= start_;
+      start_ = 0;
+    }
+    if (end_ == buffer_.length) {
+      byte[] newBuffer = new byte[buffer_.length * 2];
+      System.arraycopy(buffer_, 0, newBuffer, 0, end_);
+      buffer_ = newBuffer;
+    }
+
+    int nBytes = in_.read(buffer_, end_, buffer_.length - end_);
+    if (nBytes < 0)
+      return false;
+    end_ += nBytes;
+    nBytesRead_ += nBytes;
+    return true;
+  }
+
+  private final InputStream in_;
+  private byte[] buffer_ = new byte[1 << 20];
+  private int start_ = 0;
+  private int end_ = 0;
+  private long nBytesRead_ = 0;
+}
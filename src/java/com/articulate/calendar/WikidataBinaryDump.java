@@ -0,0 +1,776 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.Property;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * WikidataBinaryDump writes and loads a binary form of the dump files of
+ * WikidataJava, which loads much faster than the text files because there is
+ * nothing to split or decode. Each dump file has a table file with the same
+ * name and the extension .csr, which is a compressed sparse row array:
+ * <pre>
+ * header:  int magic, int version, int nRows, int 0, long idsOffset, long offsetsOffset
+ * rows:    the rows in the order they were written
+ * ids:     int[nRows], the entity IDs in ascending order
+ * offsets: long[nRows], the file offset of the row of each ID
+ * </pre>
+ * The ids and offsets are 8-byte aligned and big endian so that a mapped
+ * ByteBuffer can read them in place. Each number in a row is an unsigned LEB128
+ * varint. A row of values is the count followed by the sorted unique values,
+ * each after the first as the difference from the previous one. A string is
+ * the length of its UTF-8 bytes followed by the bytes. A row of qualifiers is
+ * the number of item values with qualifiers, then for each the value, the
+ * number of qualifier properties and for each the property ID and a row of
+ * values. A label or datatype row is one string.
+ * The marker file is written last, so a dump directory only has a binary dump
+ * if it was completely written.
+ */
+public class WikidataBinaryDump {
+  /**
+   * A Writer writes each item or property to all of the table files at once,
+   * so that the entities can come from a stream. The rows can be written in
+   * any ID order. The index of each table is held in the heap, 12 bytes per
+   * row, and sorted when it is closed.
+   */
+  public static class Writer implements Closeable {
+    /**
+     * Open the table files for writing. This deletes the marker file, so the
+     * binary dump isn't used until writeMarker is called after the Writer is
+     * closed.
+     */
+    public Writer(String dumpDir) throws IOException
+    {
+      delete(dumpDir);
+      try {
+        itemLabels_ = open(dumpDir, itemEnLabelsFileName_);
+        itemTables_ = openSpecTables(dumpDir, WikidataJava.itemPropertySpecs_);
+        propertyLabels_ = open(dumpDir, propertyEnLabelsFileName_);
+        propertyDatatypes_ = open(dumpDir, propertyDatatypeFileName_);
+        propertyTables_ = openSpecTables(dumpDir, WikidataJava.propertyPropertySpecs_);
+      } catch (IOException ex) {
+        close();
+        throw ex;
+      }
+    }
+
+    public void
+    writeItem(Item item) throws IOException
+    {
+      itemLabels_.startRow(item.Id);
+      itemLabels_.writeString(item.getEnLabel());
+      writeSpecs(WikidataJava.itemPropertySpecs_, itemTables_, item.Id, item);
+    }
+
+    public void
+    writeProperty(Property property) throws IOException
+    {
+      propertyLabels_.startRow(property.Id);
+      propertyLabels_.writeString(property.getEnLabel());
+      propertyDatatypes_.startRow(property.Id);
+      propertyDatatypes_.writeString
+        (WikidataJava.DatatypeString.get(property.datatype_));
+      writeSpecs
+        (WikidataJava.propertyPropertySpecs_, propertyTables_, property.Id,
+         property);
+    }
+
+    @Override
+    public void
+    close() throws IOException
+    {
+      IOException exception = null;
+      for (TableWriter table : tables_) {
+        try {
+          table.close();
+        } catch (IOException ex) {
+          if (exception == null)
+            exception = ex;
+        }
+      }
+      if (exception != null)
+        throw exception;
+    }
+
+    /**
+     * Write the values of each spec to tables[2*i] and the qualifiers to
+     * tables[2*i + 1]. Like the text dump files, a table has no row if the
+     * values are null.
+     */
+    private static <T> void
+    writeSpecs(List<PropertySpec<T>> specs, TableWriter[] tables, int id, T obj)
+      throws IOException
+    {
+      for (int i = 0; i < specs.size(); ++i) {
+        PropertySpec<T> spec = specs.get(i);
+        if (spec.valueType == WikidataEntityScanner.ValueType.String) {
+          String[] values = spec.getStringValues.getStringArray(obj);
+          if (values != null) {
+            tables[2 * i].startRow(id);
+            tables[2 * i].writeStrings(values);
+          }
+        }
+        else {
+          int[] values = spec.getValues.getIntArray(obj);
+          if (values != null) {
+            tables[2 * i].startRow(id);
+            tables[2 * i].writeValues(values);
+          }
+        }
+
+        if (spec.hasQualifiers()) {
+          WikidataQualifiers qualifiers = spec.getQualifiers.getQualifiers(obj);
+          if (qualifiers != null) {
+            tables[2 * i + 1].startRow(id);
+            tables[2 * i + 1].writeQualifiers(qualifiers);
+          }
+        }
+      }
+    }
+
+    private <T> TableWriter[]
+    openSpecTables(String dumpDir, List<PropertySpec<T>> specs) throws IOException
+    {
+      TableWriter[] tables = new TableWriter[2 * specs.size()];
+      for (int i = 0; i < specs.size(); ++i) {
+        tables[2 * i] = open(dumpDir, getFileName(specs.get(i).fileName));
+        if (specs.get(i).hasQualifiers())
+          tables[2 * i + 1] = open
+            (dumpDir, getFileName(specs.get(i).qualifiersFileName));
+      }
+      return tables;
+    }
+
+    private TableWriter
+    open(String dumpDir, String fileName) throws IOException
+    {
+      TableWriter table = new TableWriter(new File(dumpDir, fileName));
+      tables_.add(table);
+      return table;
+    }
+
+    private final ArrayList<TableWriter> tables_ = new ArrayList<>();
+    private TableWriter itemLabels_;
+    private TableWriter[] itemTables_;
+    private TableWriter propertyLabels_;
+    private TableWriter propertyDatatypes_;
+    private TableWriter[] propertyTables_;
+  }
+
+  /**
+   * Write the binary dump of the items and properties, for example to add it
+   * to a dump directory which only has the text dump files.
+   */
+  public static void
+  write
+    (String dumpDir, IntObjectHashMap<Item> items,
+     IntObjectHashMap<Property> properties)
+    throws IOException
+  {
+    try (Writer writer = new Writer(dumpDir)) {
+      for (Item item : items.values())
+        writer.writeItem(item);
+      for (Property property : properties.values())
+        writer.writeProperty(property);
+    }
+    writeMarker(dumpDir);
+  }
+
+  /**
+   * Write the marker file which shows that all the table files in dumpDir
+   * are complete. Call this after closing the Writer.
+   */
+  public static void
+  writeMarker(String dumpDir) throws IOException
+  {
+    try (FileOutputStream out = new FileOutputStream(new File(dumpDir, markerFileName_))) {
+      out.write(("version=" + version_ + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Return true if dumpDir has a complete binary dump.
+   */
+  public static boolean
+  exists(String dumpDir) { return new File(dumpDir, markerFileName_).exists(); }
+
+  /**
+   * Delete the binary dump in dumpDir, for example because the text dump
+   * files were changed.
+   */
+  public static void
+  delete(String dumpDir)
+  {
+    // Delete the marker first so that a partly deleted dump isn't used.
+    new File(dumpDir, markerFileName_).delete();
+    for (String fileName : getFileNames())
+      new File(dumpDir, fileName).delete();
+  }
+
+  /**
+   * Get the names of all the table files.
+   */
+  public static List<String>
+  getFileNames()
+  {
+    List<String> result = new ArrayList<>();
+    result.add(itemEnLabelsFileName_);
+    result.add(propertyEnLabelsFileName_);
+    result.add(propertyDatatypeFileName_);
+    addSpecFileNames(WikidataJava.itemPropertySpecs_, result);
+    addSpecFileNames(WikidataJava.propertyPropertySpecs_, result);
+    return result;
+  }
+
+  /**
+   * Get the name of the table file for a text dump file name.
+   */
+  public static String
+  getFileName(String textFileName)
+  {
+    int dotIndex = textFileName.lastIndexOf('.');
+    return (dotIndex >= 0 ? textFileName.substring(0, dotIndex) : textFileName) +
+      fileExtension_;
+  }
+
+  /**
+   * Create the items with their labels added to the arena.
+   */
+  static void
+  loadItemEnLabels
+    (String dumpDir, IntObjectHashMap<Item> items, LabelArena labels,
+     WikidataIngestMetrics metrics) throws IOException
+  {
+    try (TableReader table = open(dumpDir, itemEnLabelsFileName_, metrics)) {
+      Cursor cursor = new Cursor(table, 0);
+      for (int row = 0; row < table.getNRows(); ++row) {
+        int id = table.getId(row);
+        cursor.seekRow(row);
+        items.put(id, new Item(id, labels, cursor.readStringTo(labels)));
+      }
+    }
+    labels.trimToSize();
+  }
+
+  static void
+  loadPropertyEnLabels
+    (String dumpDir, IntObjectHashMap<Property> properties, LabelArena labels,
+     WikidataIngestMetrics metrics) throws IOException
+  {
+    try (TableReader table = open(dumpDir, propertyEnLabelsFileName_, metrics)) {
+      Cursor cursor = new Cursor(table, 0);
+      for (int row = 0; row < table.getNRows(); ++row) {
+        int id = table.getId(row);
+        cursor.seekRow(row);
+        properties.put
+          (id, new Property(id, labels, cursor.readStringTo(labels)));
+      }
+    }
+    labels.trimToSize();
+  }
+
+  /**
+   * Set the datatype of the loaded properties.
+   */
+  static void
+  loadPropertyDatatypes
+    (String dumpDir, IntObjectHashMap<Property> properties,
+     WikidataIngestMetrics metrics) throws IOException
+  {
+    try (TableReader table = open(dumpDir, propertyDatatypeFileName_, metrics)) {
+      Cursor cursor = new Cursor(table, 0);
+      for (int row = 0; row < table.getNRows(); ++row) {
+        cursor.seekRow(row);
+        properties.get(table.getId(row)).datatype_ =
+          WikidataJava.getDatatypeFromString(cursor.readString());
+      }
+    }
+  }
+
+  /**
+   * Set the values and qualifiers of the registered property of the loaded
+   * items or properties.
+   */
+  static <T> void
+  loadSpec
+    (String dumpDir, IntObjectHashMap<T> dictionary, PropertySpec<T> spec,
+     WikidataIngestMetrics metrics) throws IOException
+  {
+    try (TableReader table = open(dumpDir, getFileName(spec.fileName), metrics)) {
+      Cursor cursor = new Cursor(table, 0);
+      for (int row = 0; row < table.getNRows(); ++row) {
+        T obj = dictionary.get(table.getId(row));
+        cursor.seekRow(row);
+        if (spec.valueType == WikidataEntityScanner.ValueType.String)
+          spec.setStringValues.setStringArray(obj, cursor.readStrings());
+        else
+          spec.setValues.setIntArray(obj, cursor.readValues());
+      }
+    }
+
+    if (spec.hasQualifiers()) {
+      try (TableReader table = open
+            (dumpDir, getFileName(spec.qualifiersFileName), metrics)) {
+        Cursor cursor = new Cursor(table, 0);
+        WikidataQualifiers.Interner interner = new WikidataQualifiers.Interner();
+        for (int row = 0; row < table.getNRows(); ++row) {
+          T obj = dictionary.get(table.getId(row));
+          cursor.seekRow(row);
+          spec.setQualifiers.setQualifiers(obj, cursor.readQualifiers(interner));
+        }
+      }
+    }
+  }
+
+  private static TableReader
+  open(String dumpDir, String fileName, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    metrics.setStage("load " + fileName);
+    TableReader table = new TableReader(new File(dumpDir, fileName));
+    metrics.addDecompressedBytes(table.getFileSize());
+    return table;
+  }
+
+  private static <T> void
+  addSpecFileNames(List<PropertySpec<T>> specs, List<String> fileNames)
+  {
+    for (PropertySpec<T> spec : specs) {
+      fileNames.add(getFileName(spec.fileName));
+      if (spec.hasQualifiers())
+        fileNames.add(getFileName(spec.qualifiersFileName));
+    }
+  }
+
+  /**
+   * A TableWriter writes one table file. Call startRow, then write the row.
+   */
+  static class TableWriter implements Closeable {
+    public TableWriter(File file) throws IOException
+    {
+      file_ = file;
+      out_ = new DataOutputStream
+        (new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      // The header is written when closing.
+      out_.write(new byte[headerBytes_]);
+      position_ = headerBytes_;
+    }
+
+    public void
+    startRow(int id)
+    {
+      if (nRows_ >= ids_.length) {
+        ids_ = Arrays.copyOf(ids_, ids_.length * 2);
+        offsets_ = Arrays.copyOf(offsets_, offsets_.length * 2);
+      }
+      if (nRows_ > 0 && id <= ids_[nRows_ - 1])
+        isSorted_ = false;
+      ids_[nRows_] = id;
+      offsets_[nRows_] = position_;
+      ++nRows_;
+    }
+
+    public void
+    writeVarint(int value) throws IOException
+    {
+      while ((value & ~0x7f) != 0) {
+        out_.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+        ++position_;
+      }
+      out_.write(value);
+      ++position_;
+    }
+
+    public void
+    writeString(String value) throws IOException
+    {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      out_.write(bytes);
+      position_ += bytes.length;
+    }
+
+    /**
+     * Write the unique values in ascending order.
+     */
+    public void
+    writeValues(int[] values) throws IOException
+    {
+      int[] sorted = values.clone();
+      Arrays.sort(sorted);
+      int nUnique = 0;
+      for (int i = 0; i < sorted.length; ++i) {
+        if (i == 0 || sorted[i] != sorted[nUnique - 1])
+          sorted[nUnique++] = sorted[i];
+      }
+
+      writeVarint(nUnique);
+      int previous = 0;
+      for (int i = 0; i < nUnique; ++i) {
+        writeVarint(sorted[i] - previous);
+        previous = sorted[i];
+      }
+    }
+
+    /**
+     * Write the unique values in their first order.
+     */
+    public void
+    writeStrings(String[] values) throws IOException
+    {
+      Set<String> unique = new LinkedHashSet<>(Arrays.asList(values));
+      writeVarint(unique.size());
+      for (String value : unique)
+        writeString(value);
+    }
+
+    public void
+    writeQualifiers(WikidataQualifiers qualifiers) throws IOException
+    {
+      writeVarint(qualifiers.size());
+      for (int i = 0; i < qualifiers.size(); ++i) {
+        WikidataQualifiers.QualifierSet qualifierSet = qualifiers.getQualifierSet(i);
+        writeVarint(qualifiers.getValue(i));
+        writeVarint(qualifierSet.size());
+        for (int j = 0; j < qualifierSet.size(); ++j) {
+          writeVarint(qualifierSet.getPropertyId(j));
+          writeValues(qualifierSet.getValues(j));
+        }
+      }
+    }
+
+    /**
+     * Write the index sorted by ID and the header.
+     */
+    @Override
+    public void
+    close() throws IOException
+    {
+      if (out_ == null)
+        return;
+
+      try {
+        if (!isSorted_)
+          sortIndex();
+
+        writePadding();
+        long idsOffset = position_;
+        for (int i = 0; i < nRows_; ++i)
+          out_.writeInt(ids_[i]);
+        position_ += 4L * nRows_;
+
+        writePadding();
+        long offsetsOffset = position_;
+        for (int i = 0; i < nRows_; ++i)
+          out_.writeLong(offsets_[i]);
+        position_ += 8L * nRows_;
+        out_.close();
+        out_ = null;
+
+        try (RandomAccessFile file = new RandomAccessFile(file_, "rw")) {
+          file.writeInt(magic_);
+          file.writeInt(version_);
+          file.writeInt(nRows_);
+          file.writeInt(0);
+          file.writeLong(idsOffset);
+          file.writeLong(offsetsOffset);
+        }
+      }
+      finally {
+        if (out_ != null) {
+          out_.close();
+          out_ = null;
+        }
+        ids_ = null;
+        offsets_ = null;
+      }
+    }
+
+    private void
+    sortIndex()
+    {
+      // Sort the row indexes by ID, then permute the offsets.
+      long[] keys = new long[nRows_];
+      for (int i = 0; i < nRows_; ++i)
+        keys[i] = ((long)ids_[i] << 32) | i;
+      Arrays.parallelSort(keys);
+
+      long[] offsets = new long[nRows_];
+      for (int i = 0; i < nRows_; ++i) {
+        ids_[i] = (int)(keys[i] >>> 32);
+        offsets[i] = offsets_[(int)keys[i]];
+        if (i > 0 && ids_[i] == ids_[i - 1])
+          throw new Error("Duplicate ID " + ids_[i] + " in " + file_);
+      }
+      offsets_ = offsets;
+    }
+
+    private void
+    writePadding() throws IOException
+    {
+      while (position_ % 8 != 0) {
+        out_.write(0);
+        ++position_;
+      }
+    }
+
+    private final File file_;
+    private DataOutputStream out_;
+    private long position_;
+    private int[] ids_ = new int[1024];
+    private long[] offsets_ = new long[1024];
+    private int nRows_ = 0;
+    private boolean isSorted_ = true;
+  }
+
+  /**
+   * A TableReader maps a table file in segments of at most segmentBytes_. Use
+   * a Cursor to read the rows. A TableReader is thread safe.
+   */
+  static class TableReader implements Closeable {
+    public TableReader(File file) throws IOException
+    {
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+           FileChannel channel = randomAccessFile.getChannel()) {
+        fileSize_ = channel.size();
+        segments_ = new MappedByteBuffer
+          [(int)((fileSize_ + segmentBytes_ - 1) / segmentBytes_)];
+        for (int i = 0; i < segments_.length; ++i) {
+          long start = (long)i * segmentBytes_;
+          segments_[i] = channel.map
+            (FileChannel.MapMode.READ_ONLY, start,
+             Math.min(segmentBytes_, fileSize_ - start));
+        }
+      }
+
+      if (fileSize_ < headerBytes_ || getInt(0) != magic_)
+        throw new Error("Not a binary dump table file: " + file);
+      if (getInt(4) != version_)
+        throw new Error("Unsupported binary dump version " + getInt(4) + ": " + file);
+      nRows_ = getInt(8);
+      idsOffset_ = getLong(16);
+      offsetsOffset_ = getLong(24);
+    }
+
+    public int getNRows() { return nRows_; }
+
+    public long getFileSize() { return fileSize_; }
+
+    /**
+     * Get the ID of the row. The rows are in ascending ID order.
+     */
+    public int getId(int row) { return getInt(idsOffset_ + 4L * row); }
+
+    public long getRowOffset(int row) { return getLong(offsetsOffset_ + 8L * row); }
+
+    /**
+     * Return the row with the ID, or -1 if there is none.
+     */
+    public int
+    findRow(int id)
+    {
+      int low = 0;
+      int high = nRows_ - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midId = getId(mid);
+        if (midId < id)
+          low = mid + 1;
+        else if (midId > id)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -1;
+    }
+
+    /**
+     * Get a new Cursor at the start of the row.
+     */
+    public Cursor getCursor(int row) { return new Cursor(this, getRowOffset(row)); }
+
+    public byte
+    getByte(long position)
+    {
+      return segments_[(int)(position / segmentBytes_)].get
+        ((int)(position % segmentBytes_));
+    }
+
+    /**
+     * Get the int at the position, which must be 4-byte aligned so that it
+     * doesn't cross a segment.
+     */
+    public int
+    getInt(long position)
+    {
+      return segments_[(int)(position / segmentBytes_)].getInt
+        ((int)(position % segmentBytes_));
+    }
+
+    /**
+     * Get the long at the position, which must be 8-byte aligned.
+     */
+    public long
+    getLong(long position)
+    {
+      return segments_[(int)(position / segmentBytes_)].getLong
+        ((int)(position % segmentBytes_));
+    }
+
+    /**
+     * Release the mappings. They are unmapped when garbage collected.
+     */
+    @Override
+    public void
+    close() { Arrays.fill(segments_, null); }
+
+    private final long fileSize_;
+    private final MappedByteBuffer[] segments_;
+    private final int nRows_;
+    private final long idsOffset_;
+    private final long offsetsOffset_;
+  }
+
+  /**
+   * A Cursor reads the varints and strings of rows from a TableReader. The
+   * mapped table can be read by many threads, each with its own Cursor.
+   */
+  static class Cursor {
+    public Cursor(TableReader table, long position)
+    {
+      table_ = table;
+      position_ = position;
+    }
+
+    /**
+     * Move to the start of the row.
+     */
+    public void seekRow(int row) { position_ = table_.getRowOffset(row); }
+
+    public int
+    readVarint()
+    {
+      int result = 0;
+      int shift = 0;
+      while (true) {
+        byte b = table_.getByte(position_++);
+        result |= (b & 0x7f) << shift;
+        if (b >= 0)
+          return result;
+        shift += 7;
+      }
+    }
+
+    public String
+    readString()
+    {
+      int length = readStringBytes();
+      return new String(buffer_, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a string and add its UTF-8 bytes to the arena without decoding.
+     * @return The index of the string in the arena.
+     */
+    public int
+    readStringTo(LabelArena arena)
+    {
+      int length = readStringBytes();
+      return arena.add(buffer_, 0, length);
+    }
+
+    public int[]
+    readValues()
+    {
+      int[] result = new int[readVarint()];
+      int value = 0;
+      for (int i = 0; i < result.length; ++i) {
+        value += readVarint();
+        result[i] = value;
+      }
+      return result;
+    }
+
+    public String[]
+    readStrings()
+    {
+      String[] result = new String[readVarint()];
+      for (int i = 0; i < result.length; ++i)
+        result[i] = readString();
+      return result;
+    }
+
+    public WikidataQualifiers readQualifiers() { return readQualifiers(null); }
+
+    /**
+     * Read a row of qualifiers.
+     * @param interner If not null, share equal QualifierSets through this.
+     * @return The qualifiers, or null if the row has none.
+     */
+    public WikidataQualifiers
+    readQualifiers(WikidataQualifiers.Interner interner)
+    {
+      int nValues = readVarint();
+      WikidataQualifiers.Builder builder = new WikidataQualifiers.Builder();
+      for (int i = 0; i < nValues; ++i) {
+        int value = readVarint();
+        int nQualifiers = readVarint();
+        for (int j = 0; j < nQualifiers; ++j) {
+          int qualifierPropertyId = readVarint();
+          builder.add(value, qualifierPropertyId, readValues());
+        }
+      }
+      return builder.build(interner);
+    }
+
+    /**
+     * Read the varint length and the bytes of a string into buffer_.
+     * @return The length.
+     */
+    private int
+    readStringBytes()
+    {
+      int length = readVarint();
+      if (buffer_.length < length)
+        buffer_ = new byte[Math.max(length, buffer_.length * 2)];
+      for (int i = 0; i < length; ++i)
+        buffer_[i] = table_.getByte(position_ + i);
+      position_ += length;
+      return length;
+    }
+
+    private final TableReader table_;
+    private long position_;
+    private byte[] buffer_ = new byte[256];
+  }
+
+  public static final String fileExtension_ = ".csr";
+  public static final String markerFileName_ = "binaryDump.properties";
+  public static final String itemEnLabelsFileName_ = "itemEnLabels" + fileExtension_;
+  public static final String propertyEnLabelsFileName_ =
+    "propertyEnLabels" + fileExtension_;
+  public static final String propertyDatatypeFileName_ =
+    "propertyDatatype" + fileExtension_;
+  /** The magic number "WCSR" at the start of each table file. */
+  static final int magic_ = 0x57435352;
+  static final int version_ = 1;
+  static final int headerBytes_ = 32;
+  /** The maximum bytes of a mapped segment, a multiple of 8. */
+  static final long segmentBytes_ = 1L << 30;
+}
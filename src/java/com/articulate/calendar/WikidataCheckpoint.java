@@ -0,0 +1,439 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.Datatype;
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.Property;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.LongFunction;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A WikidataCheckpoint periodically saves the progress of dumpFromJson in the
+ * dump directory so that a restarted run can resume instead of starting from
+ * the first line. Each checkpoint appends a segment file with the items,
+ * properties and messages which were added since the previous checkpoint, and
+ * then rewrites a small manifest with the number of lines done and where to
+ * restart reading the compressed input. The manifest is replaced atomically,
+ * so a crash while writing a checkpoint leaves the previous one usable.
+ */
+public class WikidataCheckpoint {
+  /**
+   * Create a WikidataCheckpoint for the dump directory.
+   * @param dumpDir The directory for the dump files and checkpoint files.
+   * @param dumpFilePath The Wikidata JSON dump which is being read. A
+   * checkpoint is only loaded if it was made for the same file.
+   * @param intervalLines Write a checkpoint after every intervalLines lines.
+   */
+  public WikidataCheckpoint(String dumpDir, String dumpFilePath, int intervalLines)
+  {
+    dumpDir_ = dumpDir;
+    dumpFile_ = new File(dumpFilePath).getAbsoluteFile();
+    intervalLines_ = intervalLines;
+    nextCheckpointLine_ = intervalLines;
+  }
+
+  /**
+   * Load the checkpoint from the dump directory if there is one for the same
+   * dump file.
+   * @param items The saved items are put in this.
+   * @param properties The saved properties are put in this.
+   * @param messages The saved messages are added to this.
+   * @return True if a checkpoint was loaded, false if starting from the
+   * beginning.
+   * @throws IOException For an error reading the checkpoint.
+   */
+  public boolean
+  load
+    (IntObjectHashMap<Item> items, IntObjectHashMap<Property> properties,
+     List<String> messages) throws IOException
+  {
+    File manifestFile = new File(dumpDir_, manifestFileName_);
+    if (!manifestFile.exists())
+      return false;
+
+    Properties manifest = new Properties();
+    try (FileReader reader = new FileReader(manifestFile)) {
+      manifest.load(reader);
+    }
+    if (!(Integer.parseInt(manifest.getProperty("version", "0")) == version_ &&
+          dumpFile_.getPath().equals(manifest.getProperty("dumpFile")) &&
+          dumpFile_.length() == Long.parseLong(manifest.getProperty("dumpFileLength")) &&
+          dumpFile_.lastModified() == Long.parseLong(manifest.getProperty("dumpFileLastModified")))) {
+      System.out.println("Ignoring a checkpoint for a different dump file");
+      return false;
+    }
+    if (!getPropertySpecIds().equals(manifest.getProperty("propertySpecs"))) {
+      // The segments have the fields of different registered properties.
+      System.out.println("Ignoring a checkpoint for different registered properties");
+      return false;
+    }
+
+    nSegments_ = Integer.parseInt(manifest.getProperty("nSegments"));
+    nLines_ = Integer.parseInt(manifest.getProperty("nLines"));
+    lineOffset_ = Long.parseLong(manifest.getProperty("lineOffset"));
+    restartCompressedOffset_ = Long.parseLong(manifest.getProperty("restartCompressedOffset"));
+    restartDecompressedOffset_ = Long.parseLong(manifest.getProperty("restartDecompressedOffset"));
+    nextCheckpointLine_ = nLines_ + intervalLines_;
+
+    for (int i = 0; i < nSegments_; ++i)
+      readSegment(getSegmentFile(i), items, properties, messages);
+    nMessagesSaved_ = messages.size();
+    return true;
+  }
+
+  /** The number of lines done at the loaded checkpoint, or 0. */
+  public int getNLines() { return nLines_; }
+
+  /** The decompressed offset after the last line done at the loaded checkpoint. */
+  public long getLineOffset() { return lineOffset_; }
+
+  /** The compressed offset to restart reading for the loaded checkpoint. */
+  public long getRestartCompressedOffset() { return restartCompressedOffset_; }
+
+  /** The decompressed offset of getRestartCompressedOffset(). */
+  public long getRestartDecompressedOffset() { return restartDecompressedOffset_; }
+
+  /**
+   * Add an Item or Property which was merged into the result maps since the
+   * last checkpoint.
+   */
+  public void
+  addMerged(Object entity) { pendingEntities_.add(entity); }
+
+  /**
+   * Write a checkpoint if intervalLines have been done since the last one.
+   * @param nLines The number of lines done, where all items and properties
+   * have been passed to addMerged.
+   * @param lineOffset The decompressed offset after the last line done.
+   * @param getRestartPoint A function which takes a decompressed offset and
+   * returns the compressed offset and decompressed offset of the latest
+   * restart point which is not after it.
+   * @param messages All messages so far. Messages after the ones in the last
+   * checkpoint are saved.
+   * @throws IOException For an error writing the checkpoint.
+   */
+  public void
+  update
+    (int nLines, long lineOffset, LongFunction<long[]> getRestartPoint,
+     List<String> messages) throws IOException
+  {
+    if (nLines < nextCheckpointLine_)
+      return;
+
+    writeSegment(getSegmentFile(nSegments_), messages.subList(nMessagesSaved_, messages.size()));
+    ++nSegments_;
+    pendingEntities_.clear();
+    nMessagesSaved_ = messages.size();
+
+    long[] restartPoint = getRestartPoint.apply(lineOffset);
+    Properties manifest = new Properties();
+    manifest.setProperty("version", "" + version_);
+    manifest.setProperty("dumpFile", dumpFile_.getPath());
+    manifest.setProperty("dumpFileLength", "" + dumpFile_.length());
+    manifest.setProperty("dumpFileLastModified", "" + dumpFile_.lastModified());
+    manifest.setProperty("propertySpecs", getPropertySpecIds());
+    manifest.setProperty("nSegments", "" + nSegments_);
+    manifest.setProperty("nLines", "" + nLines);
+    manifest.setProperty("lineOffset", "" + lineOffset);
+    manifest.setProperty("restartCompressedOffset", "" + restartPoint[0]);
+    manifest.setProperty("restartDecompressedOffset", "" + restartPoint[1]);
+
+    File manifestFile = new File(dumpDir_, manifestFileName_);
+    File tempFile = new File(dumpDir_, manifestFileName_ + ".tmp");
+    try (FileWriter writer = new FileWriter(tempFile)) {
+      manifest.store(writer, "dumpFromJson checkpoint");
+    }
+    Files.move
+      (tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+       StandardCopyOption.ATOMIC_MOVE);
+
+    System.out.println("Wrote checkpoint at line " + nLines);
+    while (nextCheckpointLine_ <= nLines)
+      nextCheckpointLine_ += intervalLines_;
+  }
+
+  /**
+   * Delete the checkpoint files, after the dump files are written.
+   */
+  public void
+  delete() throws IOException
+  {
+    Files.deleteIfExists(new File(dumpDir_, manifestFileName_).toPath());
+    for (int i = 0; ; ++i) {
+      if (!Files.deleteIfExists(getSegmentFile(i).toPath()))
+        break;
+    }
+  }
+
+  private File
+  getSegmentFile(int index)
+  {
+    return new File(dumpDir_, String.format("checkpoint-%05d.bin.gz", index));
+  }
+
+  private void
+  writeSegment(File file, List<String> messages) throws IOException
+  {
+    List<Item> items = new ArrayList<>();
+    List<Property> properties = new ArrayList<>();
+    for (Object entity : pendingEntities_) {
+      if (entity instanceof Item)
+        items.add((Item)entity);
+      else
+        properties.add((Property)entity);
+    }
+
+    try (DataOutputStream out = new DataOutputStream
+          (new BufferedOutputStream(new GZIPOutputStream
+            (new FileOutputStream(file), 1 << 16)))) {
+      out.writeInt(items.size());
+      for (Item item : items)
+        writeItem(out, item);
+
+      out.writeInt(properties.size());
+      for (Property property : properties) {
+        out.writeInt(property.Id);
+        writeString(out, property.getEnLabel());
+        out.writeInt(property.datatype_.ordinal());
+        writeSpecs(out, WikidataJava.propertyPropertySpecs_, property);
+      }
+
+      out.writeInt(messages.size());
+      for (String message : messages)
+        writeString(out, message);
+    }
+  }
+
+  /**
+   * Read the segment and put its entities in the maps in the same order as
+   * they were merged, so that a later entity replaces an earlier one.
+   */
+  private static void
+  readSegment
+    (File file, IntObjectHashMap<Item> items,
+     IntObjectHashMap<Property> properties, List<String> messages)
+    throws IOException
+  {
+    try (DataInputStream in = new DataInputStream
+          (new BufferedInputStream(new GZIPInputStream
+            (new FileInputStream(file), 1 << 16)))) {
+      int nItems = in.readInt();
+      for (int i = 0; i < nItems; ++i) {
+        Item item = readItem(in);
+        items.put(item.Id, item);
+      }
+
+      int nProperties = in.readInt();
+      for (int i = 0; i < nProperties; ++i) {
+        Property property = new Property(in.readInt(), readString(in));
+        property.datatype_ = Datatype.values()[in.readInt()];
+        readSpecs(in, WikidataJava.propertyPropertySpecs_, property);
+        properties.put(property.Id, property);
+      }
+
+      int nMessages = in.readInt();
+      for (int i = 0; i < nMessages; ++i)
+        messages.add(readString(in));
+    }
+  }
+
+  /**
+   * Get the IDs of the registered properties, which say what is in a segment.
+   */
+  private static String
+  getPropertySpecIds()
+  {
+    StringBuilder result = new StringBuilder();
+    for (PropertySpec<Item> spec : WikidataJava.itemPropertySpecs_)
+      result.append("P" + spec.propertyId + " ");
+    for (PropertySpec<Property> spec : WikidataJava.propertyPropertySpecs_)
+      result.append("P" + spec.propertyId + " ");
+    return result.toString().trim();
+  }
+
+  /**
+   * Write all the fields of the item which dumpFromJson sets. This is also
+   * used by WikidataSpill.
+   */
+  static void
+  writeItem(DataOutputStream out, Item item) throws IOException
+  {
+    out.writeInt(item.Id);
+    writeString(out, item.getEnLabel());
+    writeSpecs(out, WikidataJava.itemPropertySpecs_, item);
+  }
+
+  static Item
+  readItem(DataInputStream in) throws IOException
+  {
+    Item item = new Item(in.readInt(), readString(in));
+    readSpecs(in, WikidataJava.itemPropertySpecs_, item);
+    return item;
+  }
+
+  /**
+   * Write the values and qualifiers of each registered property of obj.
+   */
+  private static <T> void
+  writeSpecs(DataOutputStream out, List<PropertySpec<T>> specs, T obj)
+    throws IOException
+  {
+    for (PropertySpec<T> spec : specs) {
+      if (spec.valueType == WikidataEntityScanner.ValueType.String)
+        writeStringArray(out, spec.getStringValues.getStringArray(obj));
+      else
+        writeIntArray(out, spec.getValues.getIntArray(obj));
+      if (spec.hasQualifiers())
+        writeQualifiers(out, spec.getQualifiers.getQualifiers(obj));
+    }
+  }
+
+  private static <T> void
+  readSpecs(DataInputStream in, List<PropertySpec<T>> specs, T obj)
+    throws IOException
+  {
+    for (PropertySpec<T> spec : specs) {
+      if (spec.valueType == WikidataEntityScanner.ValueType.String)
+        spec.setStringValues.setStringArray(obj, readStringArray(in));
+      else
+        spec.setValues.setIntArray(obj, readIntArray(in));
+      if (spec.hasQualifiers())
+        spec.setQualifiers.setQualifiers(obj, readQualifiers(in));
+    }
+  }
+
+  private static void
+  writeString(DataOutputStream out, String value) throws IOException
+  {
+    // Don't use writeUTF which is limited to 64K bytes.
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String
+  readString(DataInputStream in) throws IOException
+  {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void
+  writeIntArray(DataOutputStream out, int[] values) throws IOException
+  {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.length);
+    for (int value : values)
+      out.writeInt(value);
+  }
+
+  private static int[]
+  readIntArray(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0)
+      return null;
+    int[] result = new int[length];
+    for (int i = 0; i < length; ++i)
+      result[i] = in.readInt();
+    return result;
+  }
+
+  private static void
+  writeStringArray(DataOutputStream out, String[] values) throws IOException
+  {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.length);
+    for (String value : values)
+      writeString(out, value);
+  }
+
+  private static String[]
+  readStringArray(DataInputStream in) throws IOException
+  {
+    int length = in.readInt();
+    if (length < 0)
+      return null;
+    String[] result = new String[length];
+    for (int i = 0; i < length; ++i)
+      result[i] = readString(in);
+    return result;
+  }
+
+  private static void
+  writeQualifiers
+    (DataOutputStream out, WikidataQualifiers qualifiers) throws IOException
+  {
+    if (qualifiers == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(qualifiers.size());
+    for (int i = 0; i < qualifiers.size(); ++i) {
+      WikidataQualifiers.QualifierSet qualifierSet = qualifiers.getQualifierSet(i);
+      out.writeInt(qualifiers.getValue(i));
+      out.writeInt(qualifierSet.size());
+      for (int j = 0; j < qualifierSet.size(); ++j) {
+        out.writeInt(qualifierSet.getPropertyId(j));
+        writeIntArray(out, qualifierSet.getValues(j));
+      }
+    }
+  }
+
+  private static WikidataQualifiers
+  readQualifiers(DataInputStream in) throws IOException
+  {
+    int size = in.readInt();
+    if (size < 0)
+      return null;
+    WikidataQualifiers.Builder builder = new WikidataQualifiers.Builder();
+    for (int i = 0; i < size; ++i) {
+      int value = in.readInt();
+      int setSize = in.readInt();
+      for (int j = 0; j < setSize; ++j) {
+        int propertyId = in.readInt();
+        builder.add(value, propertyId, readIntArray(in));
+      }
+    }
+    return builder.build(null);
+  }
+
+  private final String dumpDir_;
+  private final File dumpFile_;
+  private final int intervalLines_;
+  private int nextCheckpointLine_;
+  private int nSegments_ = 0;
+  private int nLines_ = 0;
+  private long lineOffset_ = 0;
+  private long restartCompressedOffset_ = 0;
+  private long restartDecompressedOffset_ = 0;
+  private int nMessagesSaved_ = 0;
+  private final ArrayList<Object> pendingEntities_ = new ArrayList<>();
+
+  private static final int version_ = 1;
+  private static final String manifestFileName_ = "checkpoint.properties";
+}
@@ -0,0 +1,340 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import com.google.gson.Gson;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * WikidataDerivedFiles writes the KIF files which CalendarKB reads and which
+ * are derived from the dump files written by dumpFromJson, like
+ * locationIanaTimeZone.kif. The manifest file in the dump directory has the
+ * size, modified time and checksum of the input dump files of each derived
+ * file and the version of the code which derived it. update only rebuilds a
+ * derived file if one of these changed. The checksum of an input is only
+ * computed if its size or modified time changed, so a refresh with nothing to
+ * do is quick.
+ */
+public class WikidataDerivedFiles {
+  /**
+   * Rebuild each derived file in dumpDir whose inputs changed.
+   * @param dumpDir The directory of the dump files, where the derived files
+   * and the manifest are written.
+   * @param messages Messages for data exceptions are added to this.
+   * @return The names of the derived files which were rebuilt.
+   */
+  public static List<String>
+  update(String dumpDir, List<String> messages) throws IOException
+  {
+    Properties manifest = new Properties();
+    File manifestFile = new File(dumpDir, manifestFileName_);
+    if (manifestFile.exists()) {
+      try (InputStream in = new FileInputStream(manifestFile)) {
+        manifest.load(in);
+      }
+    }
+
+    List<String> result = new ArrayList<>();
+    for (DerivedFile derivedFile : derivedFiles_) {
+      if (isUpToDate(dumpDir, derivedFile, manifest)) {
+        System.out.println(derivedFile.fileName + " is up to date.");
+        continue;
+      }
+
+      // The deriver may print progress, so print this on its own line.
+      System.out.println("Deriving " + derivedFile.fileName);
+      // Don't use the old entries while the file is rewritten.
+      removeEntries(manifest, derivedFile.fileName);
+      writeManifest(manifestFile, manifest);
+
+      File file = new File(dumpDir, derivedFile.fileName);
+      File newFile = new File(dumpDir, derivedFile.fileName + ".new");
+      try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter
+            (new FileOutputStream(newFile), StandardCharsets.UTF_8))) {
+        derivedFile.deriver.derive(dumpDir, writer, messages);
+      }
+      Files.move
+        (newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      manifest.setProperty
+        (derivedFile.fileName + ".version", "" + derivedFile.version);
+      for (String inputName : derivedFile.inputFileNames)
+        setFileEntry
+          (manifest, derivedFile.fileName + ".input." + inputName,
+           DumpCompression.find(dumpDir, inputName), null);
+      setFileEntry(manifest, derivedFile.fileName + ".output", file, null);
+      writeManifest(manifestFile, manifest);
+      result.add(derivedFile.fileName);
+    }
+
+    // Save the modified times updated by isUpToDate.
+    writeManifest(manifestFile, manifest);
+    return result;
+  }
+
+  /**
+   * A Deriver writes the lines of a derived file.
+   */
+  public interface Deriver {
+    void derive(String dumpDir, BufferedWriter writer, List<String> messages)
+      throws IOException;
+  }
+
+  /**
+   * A DerivedFile has the inputs and the Deriver of a derived file.
+   */
+  public static class DerivedFile {
+    /**
+     * Create a DerivedFile.
+     * @param fileName The name of the derived file in the dump directory.
+     * @param version The version of the deriver. Increase this when it
+     * changes so that the file is rebuilt.
+     * @param inputFileNames The names of the text dump files which the deriver
+     * reads, without a DumpCompression extension.
+     * @param deriver The Deriver.
+     */
+    public DerivedFile
+      (String fileName, int version, List<String> inputFileNames,
+       Deriver deriver)
+    {
+      this.fileName = fileName;
+      this.version = version;
+      this.inputFileNames = inputFileNames;
+      this.deriver = deriver;
+    }
+
+    public final String fileName;
+    public final int version;
+    public final List<String> inputFileNames;
+    public final Deriver deriver;
+  }
+
+  /**
+   * Write (locationIanaTimeZone Q123 Q456) for each location with an IANA time
+   * zone from WikidataJava.getLocationIanaTimeZones, in location ID order.
+   */
+  private static void
+  deriveLocationIanaTimeZone
+    (String dumpDir, BufferedWriter writer, List<String> messages)
+    throws IOException
+  {
+    WikidataJava.LoadOptions options = new WikidataJava.LoadOptions();
+    options.propertyIds = locationIanaTimeZoneProperties_;
+    // The manifest has the text dump files as the inputs, so don't load a
+    // binary dump which could differ from them.
+    options.useBinaryDump = false;
+    WikidataJava wikidata = new WikidataJava(dumpDir, options);
+    // This finds the located in the administrative territorial entity loops
+    // which getLocationIanaTimeZones needs. Both use the same column copy of
+    // the items.
+    wikidata.getStatistics(messages);
+
+    Set<String> timeZoneMessages = new HashSet<>();
+    Map<Integer, Integer> timeZones = new TreeMap<>
+      (wikidata.getLocationIanaTimeZones(timeZoneMessages));
+    for (Map.Entry<Integer, Integer> entry : timeZones.entrySet()) {
+      writer.write
+        ("(locationIanaTimeZone Q" + entry.getKey() + " Q" + entry.getValue() +
+         ")");
+      writer.newLine();
+    }
+    messages.addAll(timeZoneMessages);
+  }
+
+  /**
+   * Write (abbreviation "ABC" Q123) for each item with exactly one IATA airport
+   * code. This reads the dump file directly since it doesn't need the labels.
+   */
+  private static void
+  deriveIataAbbreviation
+    (String dumpDir, BufferedWriter writer, List<String> messages)
+    throws IOException
+  {
+    TreeMap<Integer, String> codes = new TreeMap<>();
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(dumpDir, iataAirportCodeFileName_))) {
+      ArrayList<String> values = new ArrayList<>();
+      while (reader.next()) {
+        int id = reader.nextInt();
+        values.clear();
+        while (reader.hasNextField()) {
+          String value = reader.nextString();
+          if (!values.contains(value))
+            values.add(value);
+        }
+        if (values.size() == 1)
+          codes.put(id, values.get(0));
+      }
+    }
+
+    for (Map.Entry<Integer, String> entry : codes.entrySet()) {
+      writer.write
+        ("(abbreviation " + gson_.toJson(entry.getValue()) + " Q" +
+         entry.getKey() + ")");
+      writer.newLine();
+    }
+  }
+
+  /**
+   * Check the version, the output file and the input files of the derived
+   * file against the manifest. If only the modified time of a file changed
+   * but not its checksum, update its manifest entry.
+   */
+  private static boolean
+  isUpToDate(String dumpDir, DerivedFile derivedFile, Properties manifest)
+    throws IOException
+  {
+    if (!("" + derivedFile.version).equals
+          (manifest.getProperty(derivedFile.fileName + ".version")))
+      return false;
+    if (!isUnchanged
+          (manifest, derivedFile.fileName + ".output",
+           new File(dumpDir, derivedFile.fileName)))
+      return false;
+    for (String inputName : derivedFile.inputFileNames) {
+      if (!isUnchanged
+            (manifest, derivedFile.fileName + ".input." + inputName,
+             DumpCompression.find(dumpDir, inputName)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Check if the file matches the manifest entry
+   * "fileName,size,modifiedTime,checksum". The file name has the extension of
+   * the DumpCompression of an input.
+   * If the size matches but not the modified time, compare the checksum. If it
+   * matches, update the modified time in the entry.
+   */
+  private static boolean
+  isUnchanged(Properties manifest, String key, File file) throws IOException
+  {
+    String entry = manifest.getProperty(key);
+    if (entry == null || !file.exists())
+      return false;
+    String[] fields = entry.split(",");
+    if (fields.length != 4 || !fields[0].equals(file.getName()) ||
+        Long.parseLong(fields[1]) != file.length())
+      return false;
+    if (Long.parseLong(fields[2]) == file.lastModified())
+      return true;
+
+    long checksum = getChecksum(file);
+    if (Long.parseLong(fields[3]) != checksum)
+      return false;
+    setFileEntry(manifest, key, file, checksum);
+    return true;
+  }
+
+  /**
+   * Set the manifest entry "fileName,size,modifiedTime,checksum" for the file.
+   * @param checksum The checksum of the file, or null to compute it.
+   */
+  private static void
+  setFileEntry(Properties manifest, String key, File file, Long checksum)
+    throws IOException
+  {
+    if (checksum == null)
+      checksum = getChecksum(file);
+    manifest.setProperty
+      (key, file.getName() + "," + file.length() + "," + file.lastModified() +
+       "," + checksum);
+  }
+
+  /**
+   * Get the CRC-32 of the bytes of the file.
+   */
+  private static long
+  getChecksum(File file) throws IOException
+  {
+    CRC32 crc = new CRC32();
+    try (FileChannel channel = FileChannel.open
+           (file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        crc.update(buffer);
+        buffer.clear();
+      }
+    }
+    return crc.getValue();
+  }
+
+  private static void
+  removeEntries(Properties manifest, String derivedFileName)
+  {
+    manifest.keySet().removeIf
+      (key -> ((String)key).startsWith(derivedFileName + "."));
+  }
+
+  /**
+   * Write the manifest to a new file and replace the old one, so that a
+   * crash doesn't leave a partial manifest.
+   */
+  private static void
+  writeManifest(File manifestFile, Properties manifest) throws IOException
+  {
+    File newFile = new File(manifestFile.getPath() + ".new");
+    try (OutputStream out = new FileOutputStream(newFile)) {
+      manifest.store(out, "Inputs of the files derived by WikidataDerivedFiles");
+    }
+    Files.move
+      (newFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static PropertySpec<Item>
+  findItemSpec(int propertyId)
+  {
+    for (PropertySpec<Item> spec : WikidataJava.itemPropertySpecs_) {
+      if (spec.propertyId == propertyId)
+        return spec;
+    }
+    throw new Error("Not a registered property: P" + propertyId);
+  }
+
+  public static final String manifestFileName_ = "derived.properties";
+  public static final String locationIanaTimeZoneFileName_ = "locationIanaTimeZone.kif";
+  public static final String iataAbbreviationFileName_ = "iataAbbreviation.kif";
+
+  private static final Gson gson_ = new Gson();
+  private static final Set<Integer> locationIanaTimeZoneProperties_ = new HashSet<>
+    (Arrays.asList
+     (WikidataJava.PinstanceOf,
+      WikidataJava.PlocatedInTheAdministrativeTerritorialEntity,
+      WikidataJava.PlocatedInTimeZone));
+  private static final String iataAirportCodeFileName_ =
+    findItemSpec(WikidataJava.PiataAirportCode).fileName;
+
+  /** The derived files in the order that update writes them. */
+  public static final List<DerivedFile> derivedFiles_ = Arrays.asList
+    (new DerivedFile
+       (locationIanaTimeZoneFileName_, 2,
+        WikidataJava.getItemDumpFileNames(locationIanaTimeZoneProperties_),
+        WikidataDerivedFiles::deriveLocationIanaTimeZone),
+     new DerivedFile
+       (iataAbbreviationFileName_, 1, Arrays.asList(iataAirportCodeFileName_),
+        WikidataDerivedFiles::deriveIataAbbreviation));
+}
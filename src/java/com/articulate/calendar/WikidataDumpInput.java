@@ -0,0 +1,828 @@
+package com.articulate.calendar;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * WikidataDumpInput opens a compressed Wikidata dump file as a stream of the
+ * decompressed bytes. Decompression runs on background threads so that the
+ * thread which parses lines is never waiting on it.
+ * A compressed file which is a concatenation of independent members (a
+ * multi-member gzip file or a multi-stream bzip2 file, as written by pigz or
+ * pbzip2) is split into chunks of the file which are decompressed in parallel.
+ * A file with one member is decompressed on one read-ahead thread. The start
+ * of each member is a restart point, also when there is one thread.
+ * The Format is chosen by the file extension. Other formats can be added with
+ * registerFormat.
+ */
+public class WikidataDumpInput {
+  /**
+   * A Format decodes the members of a compressed file which is a
+   * concatenation of independently compressed members.
+   */
+  public interface Format {
+    /** The number of bytes that isMemberStart needs to check. */
+    int getMagicLength();
+
+    /**
+     * Check if a member can start at bytes[offset]. This is a quick check of
+     * the header, which may be a false match inside compressed data.
+     */
+    boolean isMemberStart(byte[] bytes, int offset);
+
+    /**
+     * Check more carefully if a member starts at the position, after
+     * isMemberStart matched.
+     */
+    boolean verifyMemberStart(FileChannel channel, long position) throws IOException;
+
+    /**
+     * Decode the member starting at the position.
+     * @param channel The compressed file.
+     * @param position The position of the start of the member.
+     * @param out The decompressed bytes are written to this.
+     * @return The position of the end of the member.
+     * @throws IOException For an error reading or if the member is corrupt.
+     */
+    long decodeMember(FileChannel channel, long position, OutputStream out)
+      throws IOException;
+  }
+
+  /**
+   * A Restartable stream from open can say where a reader of the file can
+   * restart decompressing to get to a position in the decompressed stream.
+   */
+  public interface Restartable {
+    /**
+     * Get the latest point where decompression can restart, which is not after
+     * the decompressed offset. The offset must not be before the offset given
+     * in a previous call.
+     * @param decompressedOffset The offset in the decompressed stream, from the
+     * start of this stream.
+     * @return An array of the compressed file offset of the restart point and
+     * its offset in the decompressed stream, from the start of this stream.
+     */
+    long[] getRestartPoint(long decompressedOffset);
+  }
+
+  /**
+   * Register a Format for files with the extension.
+   * @param extension The file extension, such as ".gz".
+   * @param format The Format.
+   */
+  public static synchronized void
+  registerFormat(String extension, Format format)
+  {
+    formats_.put(extension, format);
+  }
+
+  /**
+   * Get the registered Format for the file extension.
+   * @param filePath The file path.
+   * @return The Format, or null if the file is not compressed.
+   */
+  public static synchronized Format
+  getFormat(String filePath)
+  {
+    for (Map.Entry<String, Format> entry : formats_.entrySet()) {
+      if (filePath.endsWith(entry.getKey()))
+        return entry.getValue();
+    }
+    return null;
+  }
+
+  /**
+   * Open the dump file for reading the decompressed bytes.
+   * @param filePath The dump file. If the extension does not have a
+   * registered Format, the file is read without decompression.
+   * @param nThreads The number of decompression threads. If 1, decompress the
+   * whole file on one read-ahead thread.
+   * @param chunkSize The number of compressed bytes in each chunk which is
+   * decompressed in parallel.
+   * @param startOffset The offset in the file to start reading, which must be
+   * the start of a compressed member, such as a restart point from a previous
+   * stream. Use 0 to read the whole file.
+   * @return The stream of decompressed bytes, which is Restartable.
+   * @throws IOException For an error opening the file.
+   */
+  public static InputStream
+  open(String filePath, int nThreads, long chunkSize, long startOffset)
+    throws IOException
+  {
+    Format format = getFormat(filePath);
+    if (format == null)
+      return new PlainInputStream(filePath, startOffset);
+
+    FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+    return new ChunkedInputStream
+      (channel, format, Math.max(nThreads, 1), chunkSize, startOffset);
+  }
+
+  public static InputStream
+  open(String filePath, int nThreads, long chunkSize) throws IOException
+  {
+    return open(filePath, nThreads, chunkSize, 0);
+  }
+
+  public static InputStream
+  open(String filePath, int nThreads) throws IOException
+  {
+    return open(filePath, nThreads, defaultChunkSize_, 0);
+  }
+
+  /**
+   * Get the total bytes read from dump files by all streams, including the
+   * bytes read to find member starts. This is for progress metrics.
+   */
+  public static long getBytesRead() { return bytesRead_.sum(); }
+
+  /**
+   * A ChannelInputStream reads a FileChannel from a position with positional
+   * reads, so that it can share the channel with other threads.
+   */
+  public static class ChannelInputStream extends InputStream {
+    public ChannelInputStream(FileChannel channel, long position)
+    {
+      channel_ = channel;
+      channelPosition_ = position;
+    }
+
+    @Override
+    public int
+    read() throws IOException
+    {
+      if (bufferPos_ >= bufferLength_ && !fill())
+        return -1;
+      return buffer_[bufferPos_++] & 0xff;
+    }
+
+    @Override
+    public int
+    read(byte[] bytes, int offset, int length) throws IOException
+    {
+      if (length == 0)
+        return 0;
+      if (bufferPos_ >= bufferLength_ && !fill())
+        return -1;
+      int n = Math.min(length, bufferLength_ - bufferPos_);
+      System.arraycopy(buffer_, bufferPos_, bytes, offset, n);
+      bufferPos_ += n;
+      return n;
+    }
+
+    /**
+     * Get the channel position of the next byte to be read.
+     */
+    public long
+    position() { return channelPosition_ - (bufferLength_ - bufferPos_); }
+
+    /**
+     * Set the channel position of the next byte to be read.
+     */
+    public void
+    seek(long position)
+    {
+      channelPosition_ = position;
+      bufferPos_ = bufferLength_ = 0;
+    }
+
+    private boolean
+    fill() throws IOException
+    {
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer_);
+      int n = channel_.read(byteBuffer, channelPosition_);
+      if (n <= 0)
+        return false;
+      bytesRead_.add(n);
+      channelPosition_ += n;
+      bufferPos_ = 0;
+      bufferLength_ = n;
+      return true;
+    }
+
+    private final FileChannel channel_;
+    private long channelPosition_;
+    private final byte[] buffer_ = new byte[1 << 16];
+    private int bufferPos_ = 0;
+    private int bufferLength_ = 0;
+  }
+
+  /**
+   * A PlainInputStream reads an uncompressed file, where any offset is a
+   * restart point.
+   */
+  private static class PlainInputStream extends BufferedInputStream
+    implements Restartable {
+    public PlainInputStream(String filePath, long startOffset) throws IOException
+    {
+      this(FileChannel.open(Paths.get(filePath), StandardOpenOption.READ),
+           startOffset);
+    }
+
+    private PlainInputStream(FileChannel channel, long startOffset)
+    {
+      super(new ChannelInputStream(channel, startOffset), 1 << 16);
+      channel_ = channel;
+      startOffset_ = startOffset;
+    }
+
+    @Override
+    public void
+    close() throws IOException
+    {
+      try {
+        super.close();
+      } finally {
+        channel_.close();
+      }
+    }
+
+    @Override
+    public long[]
+    getRestartPoint(long decompressedOffset)
+    {
+      return new long[] { startOffset_ + decompressedOffset, decompressedOffset };
+    }
+
+    private final FileChannel channel_;
+    private final long startOffset_;
+  }
+
+  /**
+   * The gzip Format, where each member has its own header and trailer.
+   */
+  public static class GzipFormat implements Format {
+    @Override
+    public int getMagicLength() { return 10; }
+
+    @Override
+    public boolean
+    isMemberStart(byte[] bytes, int offset)
+    {
+      int flags = bytes[offset + 3] & 0xff;
+      int extraFlags = bytes[offset + 8] & 0xff;
+      int os = bytes[offset + 9] & 0xff;
+      return bytes[offset] == (byte)0x1f && bytes[offset + 1] == (byte)0x8b &&
+             // The compression method is deflate and reserved flags are zero.
+             bytes[offset + 2] == 8 && (flags & 0xe0) == 0 &&
+             (extraFlags == 0 || extraFlags == 2 || extraFlags == 4) &&
+             (os <= 13 || os == 255);
+    }
+
+    @Override
+    public boolean
+    verifyMemberStart(FileChannel channel, long position) throws IOException
+    {
+      // Try to inflate the start of the member.
+      try {
+        inflateMember(channel, position, null, verifyOutputLength_);
+        return true;
+      } catch (IOException ex) {
+        return false;
+      }
+    }
+
+    @Override
+    public long
+    decodeMember(FileChannel channel, long position, OutputStream out)
+      throws IOException
+    {
+      return inflateMember(channel, position, out, Long.MAX_VALUE);
+    }
+
+    /**
+     * Inflate the member at the position.
+     * @param out The output stream, or null to discard the output.
+     * @param maxOutputLength Stop after this many bytes of output.
+     * @return The end position of the member, or -1 if stopped after
+     * maxOutputLength bytes.
+     */
+    private static long
+    inflateMember
+      (FileChannel channel, long position, OutputStream out, long maxOutputLength)
+      throws IOException
+    {
+      ChannelInputStream in = new ChannelInputStream(channel, position);
+      if (readByte(in) != 0x1f || readByte(in) != 0x8b || readByte(in) != 8)
+        throw new ZipException("No gzip member at offset " + position);
+      int flags = readByte(in);
+      // Skip the modification time, extra flags and OS.
+      skipBytes(in, 6);
+      if ((flags & FEXTRA) != 0)
+        skipBytes(in, readByte(in) | (readByte(in) << 8));
+      if ((flags & FNAME) != 0) {
+        while (readByte(in) != 0) {}
+      }
+      if ((flags & FCOMMENT) != 0) {
+        while (readByte(in) != 0) {}
+      }
+      if ((flags & FHCRC) != 0)
+        skipBytes(in, 2);
+
+      Inflater inflater = new Inflater(true);
+      CRC32 crc = new CRC32();
+      byte[] input = new byte[1 << 16];
+      byte[] output = new byte[1 << 16];
+      long outputLength = 0;
+      try {
+        while (!inflater.finished()) {
+          if (inflater.needsInput()) {
+            int n = in.read(input, 0, input.length);
+            if (n < 0)
+              throw new EOFException("Unexpected end of gzip member at offset " + position);
+            inflater.setInput(input, 0, n);
+          }
+
+          int n;
+          try {
+            n = inflater.inflate(output);
+          } catch (DataFormatException ex) {
+            throw new ZipException
+              ("Corrupt gzip member at offset " + position + ": " + ex.getMessage());
+          }
+          if (n > 0) {
+            crc.update(output, 0, n);
+            if (out != null)
+              out.write(output, 0, n);
+            outputLength += n;
+            if (outputLength >= maxOutputLength)
+              return -1;
+          }
+          else if (inflater.needsDictionary())
+            throw new ZipException("Unexpected gzip dictionary at offset " + position);
+        }
+
+        // Read the trailer which follows the deflate data.
+        long trailerPosition = in.position() - inflater.getRemaining();
+        in.seek(trailerPosition);
+        long trailerCrc = readIntLE(in);
+        long trailerLength = readIntLE(in);
+        if (trailerCrc != crc.getValue() || trailerLength != (outputLength & 0xffffffffL))
+          throw new ZipException("Bad gzip trailer at offset " + trailerPosition);
+        return trailerPosition + 8;
+      }
+      finally {
+        inflater.end();
+      }
+    }
+
+    private static int
+    readByte(InputStream in) throws IOException
+    {
+      int b = in.read();
+      if (b < 0)
+        throw new EOFException("Unexpected end of gzip header");
+      return b;
+    }
+
+    private static void
+    skipBytes(InputStream in, int n) throws IOException
+    {
+      for (int i = 0; i < n; ++i)
+        readByte(in);
+    }
+
+    private static long
+    readIntLE(InputStream in) throws IOException
+    {
+      return ((long)readByte(in) | ((long)readByte(in) << 8) |
+              ((long)readByte(in) << 16) | ((long)readByte(in) << 24));
+    }
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int verifyOutputLength_ = 1 << 16;
+  }
+
+  /**
+   * The bzip2 Format, where each member is a bzip2 stream. A stream starts with
+   * "BZh", the block size digit and the magic of the first block (or of the
+   * end of stream), which is long enough that a false match is not a concern.
+   */
+  public static class Bzip2Format implements Format {
+    @Override
+    public int getMagicLength() { return 10; }
+
+    @Override
+    public boolean
+    isMemberStart(byte[] bytes, int offset)
+    {
+      if (!(bytes[offset] == 'B' && bytes[offset + 1] == 'Z' &&
+            bytes[offset + 2] == 'h' && bytes[offset + 3] >= '1' &&
+            bytes[offset + 3] <= '9'))
+        return false;
+      return matches(bytes, offset + 4, blockMagic_) ||
+             matches(bytes, offset + 4, endOfStreamMagic_);
+    }
+
+    @Override
+    public boolean
+    verifyMemberStart(FileChannel channel, long position) { return true; }
+
+    @Override
+    public long
+    decodeMember(FileChannel channel, long position, OutputStream out)
+      throws IOException
+    {
+      ChannelInputStream in = new ChannelInputStream(channel, position);
+      // The decoder reads the compressed bytes one at a time as it needs them,
+      // so afterwards the position of in is the end of the stream.
+      BZip2CompressorInputStream bzip2In = new BZip2CompressorInputStream(in, false);
+      byte[] output = new byte[1 << 16];
+      int n;
+      while ((n = bzip2In.read(output, 0, output.length)) >= 0)
+        out.write(output, 0, n);
+      return in.position();
+    }
+
+    private static boolean
+    matches(byte[] bytes, int offset, byte[] magic)
+    {
+      for (int i = 0; i < magic.length; ++i) {
+        if (bytes[offset + i] != magic[i])
+          return false;
+      }
+      return true;
+    }
+
+    private static final byte[] blockMagic_ = { 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+    private static final byte[] endOfStreamMagic_ =
+      { 0x17, 0x72, 0x45, 0x38, 0x50, (byte)0x90 };
+  }
+
+  /**
+   * A ChunkedInputStream splits the compressed file into chunks. Each chunk is
+   * decompressed on a thread pool by decoding the members which start in the
+   * chunk. The stream returns the output of the chunks in order. Only a window
+   * of chunks is in progress at a time, and each chunk's output is a bounded
+   * queue of blocks, so a file with one large member streams through the
+   * first chunk while the rest of the chunks are empty.
+   */
+  private static class ChunkedInputStream extends InputStream
+    implements Restartable {
+    public ChunkedInputStream
+      (FileChannel channel, Format format, int nThreads, long chunkSize,
+       long startOffset)
+      throws IOException
+    {
+      channel_ = channel;
+      format_ = format;
+      fileLength_ = channel.size();
+      startOffset_ = startOffset;
+      nextChunkStart_ = startOffset;
+      // With one thread, use one chunk for the whole file.
+      chunkSize_ = nThreads == 1 ? Math.max(fileLength_ - startOffset, 1) : chunkSize;
+      maxChunksInProgress_ = nThreads * 2;
+      executor_ = Executors.newFixedThreadPool(nThreads, (Runnable runnable) -> {
+        Thread thread = new Thread(runnable, "WikidataDumpInput");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      restartPoints_.add(new long[] { startOffset, 0 });
+      while (chunks_.size() < maxChunksInProgress_ && submitNextChunk()) {}
+    }
+
+    @Override
+    public int
+    read() throws IOException
+    {
+      if (!ensureBlock())
+        return -1;
+      ++decompressedOffset_;
+      return block_[blockPos_++] & 0xff;
+    }
+
+    @Override
+    public int
+    read(byte[] bytes, int offset, int length) throws IOException
+    {
+      if (length == 0)
+        return 0;
+      if (!ensureBlock())
+        return -1;
+      int n = Math.min(length, block_.length - blockPos_);
+      System.arraycopy(block_, blockPos_, bytes, offset, n);
+      blockPos_ += n;
+      decompressedOffset_ += n;
+      return n;
+    }
+
+    @Override
+    public long[]
+    getRestartPoint(long decompressedOffset)
+    {
+      // Drop the restart points which a later call can't use.
+      while (restartPoints_.size() > 1) {
+        Iterator<long[]> iterator = restartPoints_.iterator();
+        iterator.next();
+        if (iterator.next()[1] > decompressedOffset)
+          break;
+        restartPoints_.remove();
+      }
+
+      long[] restartPoint = restartPoints_.peek();
+      return new long[] { restartPoint[0], restartPoint[1] };
+    }
+
+    @Override
+    public void
+    close() throws IOException
+    {
+      executor_.shutdownNow();
+      channel_.close();
+    }
+
+    /**
+     * Make sure that block_ has bytes to read, going to the next chunk if
+     * needed.
+     * @return False if at the end of the file.
+     */
+    private boolean
+    ensureBlock() throws IOException
+    {
+      while (block_ == null || blockPos_ >= block_.length) {
+        Chunk chunk = chunks_.peek();
+        if (chunk == null) {
+          if (previousMemberEnd_ >= 0 && previousMemberEnd_ < fileLength_)
+            throw new ZipException
+              ("No compressed member found at offset " + previousMemberEnd_);
+          return false;
+        }
+
+        try {
+          block_ = chunk.blocks_.take();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while decompressing");
+        }
+        blockPos_ = 0;
+
+        if (block_ == memberStart_) {
+          // The output of the member starts at the next block.
+          restartPoints_.add
+            (new long[] { chunk.memberStarts_.remove(), decompressedOffset_ });
+          block_ = null;
+          continue;
+        }
+
+        if (block_ != endOfChunk_ && !chunk.isStarted_) {
+          // The start of the chunk's first member is a restart point.
+          chunk.isStarted_ = true;
+          if (chunk.firstMemberStart_ > startOffset_)
+            restartPoints_.add(new long[] { chunk.firstMemberStart_, decompressedOffset_ });
+        }
+
+        if (block_ == endOfChunk_) {
+          block_ = null;
+          chunks_.remove();
+          if (chunk.error_ != null) {
+            if (chunk.error_ instanceof IOException)
+              throw (IOException)chunk.error_;
+            throw new IOException(chunk.error_);
+          }
+          if (chunk.firstMemberStart_ >= 0) {
+            // The chunk's first member must follow the previous chunk's last.
+            if (previousMemberEnd_ >= 0 && chunk.firstMemberStart_ != previousMemberEnd_)
+              throw new ZipException
+                ("Compressed member boundary mismatch: expected offset " +
+                 previousMemberEnd_ + " but found " + chunk.firstMemberStart_);
+            previousMemberEnd_ = chunk.end_;
+          }
+
+          submitNextChunk();
+        }
+      }
+
+      return true;
+    }
+
+    private boolean
+    submitNextChunk()
+    {
+      if (nextChunkStart_ >= fileLength_)
+        return false;
+
+      long rangeEnd = Math.min(nextChunkStart_ + chunkSize_, fileLength_);
+      Chunk chunk = new Chunk(nextChunkStart_, rangeEnd);
+      nextChunkStart_ = rangeEnd;
+      chunks_.add(chunk);
+      executor_.execute(chunk);
+      return true;
+    }
+
+    /**
+     * A Chunk decodes the members which start in its range of the file.
+     */
+    private class Chunk implements Runnable {
+      public Chunk(long rangeStart, long rangeEnd)
+      {
+        rangeStart_ = rangeStart;
+        rangeEnd_ = rangeEnd;
+      }
+
+      @Override
+      public void
+      run()
+      {
+        try {
+          long position;
+          if (rangeStart_ == startOffset_) {
+            // The file must start with a member.
+            byte[] magic = readBytes(rangeStart_, format_.getMagicLength());
+            if (magic.length < format_.getMagicLength() || !format_.isMemberStart(magic, 0))
+              throw new ZipException("The file does not start with a compressed member");
+            position = rangeStart_;
+          }
+          else
+            position = findMemberStart();
+          if (position < 0)
+            return;
+
+          firstMemberStart_ = position;
+          BlockOutputStream out = new BlockOutputStream(blocks_);
+          while (position < rangeEnd_) {
+            if (position != firstMemberStart_) {
+              // Mark the start of the member in the output, so that the
+              // reader makes it a restart point also with one chunk.
+              out.flush();
+              memberStarts_.add(position);
+              blocks_.put(memberStart_);
+            }
+            position = format_.decodeMember(channel_, position, out);
+          }
+          out.flush();
+          end_ = position;
+        } catch (Throwable ex) {
+          error_ = ex;
+        } finally {
+          try {
+            blocks_.put(endOfChunk_);
+          } catch (InterruptedException ex) {
+            // The stream was closed.
+          }
+        }
+      }
+
+      /**
+       * Find the first verified member start in the range.
+       * @return The position, or -1 if not found.
+       */
+      private long
+      findMemberStart() throws IOException
+      {
+        int magicLength = format_.getMagicLength();
+        long searchStart = rangeStart_;
+        while (searchStart < rangeEnd_) {
+          // Include the magic length of overlap so that the check can see a
+          // member header which starts at the end of the search window.
+          int length = (int)Math.min(searchWindow_, rangeEnd_ - searchStart);
+          byte[] bytes = readBytes(searchStart, length + magicLength - 1);
+          for (int i = 0; i < length && i + magicLength <= bytes.length; ++i) {
+            if (format_.isMemberStart(bytes, i) &&
+                format_.verifyMemberStart(channel_, searchStart + i))
+              return searchStart + i;
+          }
+          searchStart += length;
+        }
+
+        return -1;
+      }
+
+      private byte[]
+      readBytes(long position, int length) throws IOException
+      {
+        length = (int)Math.max(0, Math.min(length, fileLength_ - position));
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+          if (channel_.read(buffer, position + buffer.position()) < 0)
+            break;
+        }
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+      }
+
+      private final long rangeStart_;
+      private final long rangeEnd_;
+      public final BlockingQueue<byte[]> blocks_ = new ArrayBlockingQueue<>(maxBlocksPerChunk_);
+      /** The position of the member for each memberStart_ in blocks_. */
+      public final Queue<Long> memberStarts_ = new ConcurrentLinkedQueue<>();
+      public volatile long firstMemberStart_ = -1;
+      public volatile long end_ = -1;
+      public volatile Throwable error_ = null;
+      /** Only used by the reading thread. */
+      public boolean isStarted_ = false;
+    }
+
+    private final FileChannel channel_;
+    private final Format format_;
+    private final long fileLength_;
+    private final long chunkSize_;
+    private final int maxChunksInProgress_;
+    private final ExecutorService executor_;
+    private final long startOffset_;
+    private final ArrayDeque<Chunk> chunks_ = new ArrayDeque<>();
+    /** Each is the compressed offset and decompressed offset of a member start. */
+    private final ArrayDeque<long[]> restartPoints_ = new ArrayDeque<>();
+    private long nextChunkStart_;
+    private long decompressedOffset_ = 0;
+    private long previousMemberEnd_ = -1;
+    private byte[] block_ = null;
+    private int blockPos_ = 0;
+  }
+
+  /**
+   * A BlockOutputStream collects bytes into blocks and puts them into a queue,
+   * waiting while the queue is full.
+   */
+  private static class BlockOutputStream extends OutputStream {
+    public BlockOutputStream(BlockingQueue<byte[]> blocks) { blocks_ = blocks; }
+
+    @Override
+    public void
+    write(int b) throws IOException
+    {
+      if (length_ == block_.length)
+        flush();
+      block_[length_++] = (byte)b;
+    }
+
+    @Override
+    public void
+    write(byte[] bytes, int offset, int length) throws IOException
+    {
+      while (length > 0) {
+        if (length_ == block_.length)
+          flush();
+        int n = Math.min(length, block_.length - length_);
+        System.arraycopy(bytes, offset, block_, length_, n);
+        length_ += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    @Override
+    public void
+    flush() throws IOException
+    {
+      if (length_ == 0)
+        return;
+      byte[] block = new byte[length_];
+      System.arraycopy(block_, 0, block, 0, length_);
+      length_ = 0;
+      try {
+        blocks_.put(block);
+      } catch (InterruptedException ex) {
+        throw new InterruptedIOException("The stream was closed");
+      }
+    }
+
+    private final BlockingQueue<byte[]> blocks_;
+    private final byte[] block_ = new byte[blockSize_];
+    private int length_ = 0;
+  }
+
+  private static final Map<String, Format> formats_ = new HashMap<>();
+  private static final LongAdder bytesRead_ = new LongAdder();
+  static {
+    formats_.put(".gz", new GzipFormat());
+    formats_.put(".bz2", new Bzip2Format());
+  }
+
+  private static final long defaultChunkSize_ = 4L << 20;
+  private static final int blockSize_ = 1 << 20;
+  private static final int maxBlocksPerChunk_ = 64;
+  private static final int searchWindow_ = 1 << 20;
+  /** A unique block which marks the end of a chunk's output. */
+  private static final byte[] endOfChunk_ = new byte[0];
+  /** A unique block which marks the start of a member after the first in a chunk. */
+  private static final byte[] memberStart_ = new byte[0];
+}
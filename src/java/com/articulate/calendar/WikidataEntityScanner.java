@@ -0,0 +1,577 @@
+package com.articulate.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A WikidataEntityScanner makes one forward pass over the JSON line of a
+ * Wikidata entity and collects the values of the claims for a fixed set of
+ * tracked properties, plus their qualifiers. This replaces a regex search of
+ * the whole line for each property. The results are the same as matching
+ * each property's mainsnak pattern in turn.
+ * A scanner is not thread safe, but it is cheap to create one per line.
+ */
+public class WikidataEntityScanner {
+  /**
+   * Create a scanner for the given claims.
+   * @param claims The tracked claims. The property IDs must be distinct.
+   */
+  public WikidataEntityScanner(ClaimSpec[] claims)
+  {
+    claims_ = claims;
+    values_ = new ArrayList<>(Collections.nCopies(claims.length, null));
+    stringValues_ = new ArrayList<>(Collections.nCopies(claims.length, null));
+    qualifiers_ = new ArrayList<>(Collections.nCopies(claims.length, null));
+    selfReferenceCounts_ = new int[claims.length];
+  }
+
+  public enum ValueType { Item, Property, String }
+
+  /**
+   * A ClaimSpec says which mainsnak values to collect for a property.
+   */
+  public static class ClaimSpec {
+    public ClaimSpec(int propertyId, ValueType valueType, boolean readQualifiers)
+    {
+      this.propertyId = propertyId;
+      this.valueType = valueType;
+      this.readQualifiers = readQualifiers;
+    }
+
+    public final int propertyId;
+    public final ValueType valueType;
+    /** If true, also read the qualifiers of an Item value. */
+    public final boolean readQualifiers;
+  }
+
+  /**
+   * Scan the line and collect the values of the tracked claims, replacing the
+   * results of a previous scan.
+   * @param line The JSON of the entity.
+   * @param entityId The ID of the entity, used to skip an Item value which is
+   * the entity itself.
+   */
+  public void
+  scan(CharSequence line, int entityId)
+  {
+    for (int i = 0; i < claims_.length; ++i) {
+      values_.set(i, null);
+      stringValues_.set(i, null);
+      qualifiers_.set(i, null);
+      selfReferenceCounts_[i] = 0;
+    }
+    qualifierNanos_ = 0;
+    line_ = line;
+
+    int pos = 0;
+    while (true) {
+      int iMainsnak = indexOf(line, mainsnakStart_, pos);
+      if (iMainsnak < 0)
+        break;
+      int iPropertyId = iMainsnak + mainsnakStart_.length();
+      int iPropertyIdEnd = skipDigits(line, iPropertyId);
+      pos = iPropertyIdEnd;
+      if (iPropertyIdEnd == iPropertyId || iPropertyIdEnd >= line.length() ||
+          line.charAt(iPropertyIdEnd) != '\"')
+        continue;
+
+      int iClaim = findClaim(parseInt(line, iPropertyId, iPropertyIdEnd));
+      if (iClaim < 0)
+        continue;
+
+      // Position after the closing quote of the property ID.
+      int iValue = iPropertyIdEnd + 1;
+      ValueType valueType = claims_[iClaim].valueType;
+      int matchEnd;
+      if (valueType == ValueType.Item)
+        matchEnd = scanItemValue(iClaim, iValue, entityId);
+      else if (valueType == ValueType.Property)
+        matchEnd = scanPropertyValue(iClaim, iValue);
+      else
+        matchEnd = scanStringValue(iClaim, iValue);
+
+      if (matchEnd >= 0)
+        pos = matchEnd;
+    }
+
+    line_ = null;
+  }
+
+  /**
+   * Get the distinct Item or Property values of the property from the last
+   * scan.
+   * @param propertyId The tracked property ID.
+   * @return The values, or null if none.
+   */
+  public int[]
+  getValues(int propertyId) { return setToArray(values_.get(getClaim(propertyId))); }
+
+  /**
+   * Get the distinct string values of the property from the last scan. The
+   * strings are as they appear in the JSON, without decoding escapes.
+   * @param propertyId The tracked property ID.
+   * @return The values, or null if none.
+   */
+  public String[]
+  getStringValues(int propertyId)
+  {
+    Set<String> set = stringValues_.get(getClaim(propertyId));
+    return set == null ? null : set.toArray(new String[set.size()]);
+  }
+
+  /**
+   * Get the qualifiers of the property from the last scan.
+   * @param propertyId The tracked property ID.
+   * @return A map where the key is the Item value and the value is a map where
+   * the key is the qualifier property ID and the value is an array of item ID
+   * values, or null if none.
+   */
+  public Map<Integer, Map<Integer, int[]>>
+  getQualifiers(int propertyId) { return qualifiers_.get(getClaim(propertyId)); }
+
+  /**
+   * Get the number of Item values of the property from the last scan which
+   * were the entity itself and were skipped.
+   */
+  public int
+  getSelfReferenceCount(int propertyId)
+  {
+    return selfReferenceCounts_[getClaim(propertyId)];
+  }
+
+  /**
+   * Get the nanoseconds of the last scan which were spent reading qualifiers.
+   */
+  public long getQualifierNanos() { return qualifierNanos_; }
+
+  /**
+   * Match the rest of the mainsnak for an Item value.
+   * @return The end of the match, or -1 if it doesn't match.
+   */
+  private int
+  scanItemValue(int iClaim, int pos, int entityId)
+  {
+    if (!regionMatches(line_, pos, itemValueStart_))
+      return -1;
+    int iValue = pos + itemValueStart_.length();
+    int iValueEnd = skipDigits(line_, iValue);
+    if (iValueEnd == iValue)
+      return -1;
+
+    // Match the rest up to the beginning of possible qualifiers.
+    if (!regionMatches(line_, iValueEnd, itemIdStart_))
+      return -1;
+    int iId = iValueEnd + itemIdStart_.length();
+    int iIdEnd = skipDigits(line_, iId);
+    if (iIdEnd == iId || !regionMatches(line_, iIdEnd, itemValueEnd_))
+      return -1;
+    int matchEnd = iIdEnd + itemValueEnd_.length();
+
+    int value = parseInt(line_, iValue, iValueEnd);
+    if (value == entityId) {
+      ++selfReferenceCounts_[iClaim];
+      return matchEnd;
+    }
+
+    int iQualifiersStartEnd = matchEnd + qualifiersStart_.length();
+    if (claims_[iClaim].readQualifiers && iQualifiersStartEnd < line_.length() &&
+        regionMatches(line_, matchEnd, qualifiersStart_)) {
+      long startNanos = System.nanoTime();
+      Map<Integer, int[]> qualifiersValues = readQualifiers(iQualifiersStartEnd);
+      qualifierNanos_ += System.nanoTime() - startNanos;
+      if (qualifiersValues.size() > 0) {
+        if (qualifiers_.get(iClaim) == null)
+          qualifiers_.set(iClaim, new HashMap<>());
+        qualifiers_.get(iClaim).put(value, qualifiersValues);
+      }
+    }
+
+    if (values_.get(iClaim) == null)
+      values_.set(iClaim, new HashSet<>());
+    values_.get(iClaim).add(value);
+    return matchEnd;
+  }
+
+  /**
+   * Match the rest of the mainsnak for a Property value.
+   * @return The end of the match, or -1 if it doesn't match.
+   */
+  private int
+  scanPropertyValue(int iClaim, int pos)
+  {
+    if (!regionMatches(line_, pos, propertyValueStart_))
+      return -1;
+    int iValue = pos + propertyValueStart_.length();
+    int iValueEnd = skipDigits(line_, iValue);
+    if (iValueEnd == iValue)
+      return -1;
+
+    // TODO: Check for property self reference.
+    if (values_.get(iClaim) == null)
+      values_.set(iClaim, new HashSet<>());
+    values_.get(iClaim).add(parseInt(line_, iValue, iValueEnd));
+    return iValueEnd;
+  }
+
+  /**
+   * Match the rest of the mainsnak for a string value.
+   * @return The end of the match, or -1 if it doesn't match.
+   */
+  private int
+  scanStringValue(int iClaim, int pos)
+  {
+    if (!regionMatches(line_, pos, stringValueStart_))
+      return -1;
+    int iValue = pos + stringValueStart_.length();
+    // Debug: This will not match a string with escaped quotes.
+    int iValueEnd = indexOf(line_, "\"", iValue);
+    if (iValueEnd < 0 || !regionMatches(line_, iValueEnd, stringValueEnd_))
+      return -1;
+
+    if (stringValues_.get(iClaim) == null)
+      stringValues_.set(iClaim, new HashSet<>());
+    stringValues_.get(iClaim).add(line_.subSequence(iValue, iValueEnd).toString());
+    return iValueEnd + stringValueEnd_.length();
+  }
+
+  /**
+   * Read the JSON object which has multiple qualifiers.
+   * @param iStart The starting index in line_ of the qualifiers.
+   * @return A Map where the key is the qualifier property ID and the value is
+   * an array of item ID values.
+   */
+  private Map<Integer, int[]>
+  readQualifiers(int iStart)
+  {
+    Map<Integer, int[]> result = new HashMap<>();
+    pos_ = iStart;
+
+    beginObject();
+    while (hasNext()) {
+      // Ignore the name like "P518". We'll get the propertyId below.
+      nextName();
+
+      int previousPropertyId = -1;
+      Set<Integer> valueItemIdSet = new HashSet<>();
+
+      // Read the array of values.
+      beginArray();
+      while (hasNext()) {
+        int propertyId = -1;
+        int valueItemId = -1;
+
+        // Read the value object.
+        beginObject();
+        while (hasNext()) {
+          nextName();
+
+          if (nameEquals("property")) {
+            int iValue = pos_;
+            skipValue();
+            if (line_.charAt(iValue) == '\"' && line_.charAt(iValue + 1) == 'P') {
+              propertyId = parseInt(line_, iValue + 2, pos_ - 1);
+
+              if (previousPropertyId < 0)
+                previousPropertyId = propertyId;
+              else {
+                if (propertyId != previousPropertyId)
+                  // We don't expect this to happen.
+                  throw new Error("Unexpected change in qualifier property ID");
+              }
+            }
+          }
+          else if (nameEquals("datavalue")) {
+            // Read the datavalue object.
+            beginObject();
+            while (hasNext()) {
+              nextName();
+
+              if (nameEquals("value") && peek() == '{') {
+                // Read the datavalue value object.
+                beginObject();
+                while (hasNext()) {
+                  nextName();
+
+                  if (nameEquals("id")) {
+                    int iValue = pos_;
+                    skipValue();
+                    if (line_.charAt(iValue) == '\"' && line_.charAt(iValue + 1) == 'Q')
+                      valueItemId = parseInt(line_, iValue + 2, pos_ - 1);
+                  }
+                  else
+                    skipValue();
+                }
+
+                endObject();
+                if (valueItemId < 0)
+                  valueItemId = WikidataJava.QNull; // debug
+              }
+              else
+                skipValue();
+            }
+
+            endObject();
+          }
+          else
+            skipValue();
+        }
+
+        endObject();
+
+        if (propertyId >= 0 && valueItemId >= 0)
+          valueItemIdSet.add(valueItemId);
+      }
+
+      endArray();
+
+      if (previousPropertyId >= 0 && valueItemIdSet.size() > 0)
+        result.put(previousPropertyId, setToArray(valueItemIdSet));
+    }
+
+    endObject();
+    return result;
+  }
+
+  private void beginObject() { expect('{'); first_ = true; }
+  private void endObject() { expect('}'); first_ = false; }
+  private void beginArray() { expect('['); first_ = true; }
+  private void endArray() { expect(']'); first_ = false; }
+
+  /**
+   * Check if there is another member or element in the current object or
+   * array, and skip the separating comma.
+   */
+  private boolean
+  hasNext()
+  {
+    char c = peek();
+    if (c == '}' || c == ']')
+      return false;
+    if (!first_)
+      expect(',');
+    first_ = false;
+    return true;
+  }
+
+  private char
+  peek()
+  {
+    while (pos_ < line_.length() && isWhitespace(line_.charAt(pos_)))
+      ++pos_;
+    if (pos_ >= line_.length())
+      throw new Error("Unexpected end of JSON qualifiers");
+    return line_.charAt(pos_);
+  }
+
+  private void
+  expect(char c)
+  {
+    if (peek() != c)
+      throw new Error
+        ("Expected '" + c + "' in JSON qualifiers at index " + pos_);
+    ++pos_;
+  }
+
+  /**
+   * Skip the string at pos_, including quotes.
+   */
+  private void
+  skipString()
+  {
+    expect('\"');
+    while (true) {
+      if (pos_ >= line_.length())
+        throw new Error("Unterminated string in JSON qualifiers");
+      char c = line_.charAt(pos_++);
+      if (c == '\\')
+        ++pos_;
+      else if (c == '\"')
+        return;
+    }
+  }
+
+  /**
+   * Skip the value at pos_, which may be a nested object or array.
+   */
+  private void
+  skipValue()
+  {
+    char c = peek();
+    if (c == '\"')
+      skipString();
+    else if (c == '{' || c == '[') {
+      boolean saveFirst = first_;
+      if (c == '{') {
+        beginObject();
+        while (hasNext()) {
+          nextName();
+          skipValue();
+        }
+        endObject();
+      }
+      else {
+        beginArray();
+        while (hasNext())
+          skipValue();
+        endArray();
+      }
+      first_ = saveFirst;
+    }
+    else {
+      // A number, true, false or null.
+      while (pos_ < line_.length()) {
+        c = line_.charAt(pos_);
+        if (c == ',' || c == '}' || c == ']' || isWhitespace(c))
+          break;
+        ++pos_;
+      }
+    }
+  }
+
+  /**
+   * Skip the member name at pos_ and the following colon, and remember where
+   * the name is for nameEquals.
+   */
+  private void
+  nextName()
+  {
+    nameStart_ = pos_ + 1;
+    skipString();
+    nameEnd_ = pos_ - 1;
+    expect(':');
+  }
+
+  /**
+   * Check if the name from the last call to nextName is the given name.
+   */
+  private boolean
+  nameEquals(String name)
+  {
+    return nameEnd_ - nameStart_ == name.length() &&
+           regionMatches(line_, nameStart_, name);
+  }
+
+  private int
+  findClaim(int propertyId)
+  {
+    for (int i = 0; i < claims_.length; ++i) {
+      if (claims_[i].propertyId == propertyId)
+        return i;
+    }
+    return -1;
+  }
+
+  private int
+  getClaim(int propertyId)
+  {
+    int i = findClaim(propertyId);
+    if (i < 0)
+      throw new Error("Property P" + propertyId + " is not tracked by the scanner");
+    return i;
+  }
+
+  private static boolean
+  isWhitespace(char c) { return c == ' ' || c == '\t' || c == '\n' || c == '\r'; }
+
+  private static int
+  skipDigits(CharSequence s, int pos)
+  {
+    while (pos < s.length() && s.charAt(pos) >= '0' && s.charAt(pos) <= '9')
+      ++pos;
+    return pos;
+  }
+
+  /**
+   * Parse the decimal digits in s from start to end, like Integer.parseInt of
+   * the substring.
+   */
+  private static int
+  parseInt(CharSequence s, int start, int end)
+  {
+    if (start >= end)
+      throw new NumberFormatException("Empty number at index " + start);
+    int result = 0;
+    for (int i = start; i < end; ++i) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9')
+        throw new NumberFormatException
+          ("For input string: \"" + s.subSequence(start, end) + "\"");
+      result = result * 10 + (c - '0');
+    }
+    return result;
+  }
+
+  static int
+  indexOf(CharSequence s, String target, int fromIndex)
+  {
+    if (s instanceof String)
+      return ((String)s).indexOf(target, fromIndex);
+
+    char first = target.charAt(0);
+    int max = s.length() - target.length();
+    for (int i = Math.max(fromIndex, 0); i <= max; ++i) {
+      if (s.charAt(i) == first && regionMatches(s, i, target))
+        return i;
+    }
+    return -1;
+  }
+
+  static boolean
+  regionMatches(CharSequence s, int offset, String target)
+  {
+    if (s instanceof String)
+      return ((String)s).startsWith(target, offset);
+
+    if (offset < 0 || offset + target.length() > s.length())
+      return false;
+    for (int i = 0; i < target.length(); ++i) {
+      if (s.charAt(offset + i) != target.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  private static int[]
+  setToArray(Set<Integer> set)
+  {
+    if (set == null)
+      return null;
+
+    int[] result = new int[set.size()];
+    int i = 0;
+    for (int x : set)
+      result[i++] = x;
+    return result;
+  }
+
+  private final ClaimSpec[] claims_;
+  // Indexed like claims_. An entry is null if the claim has no values.
+  private final ArrayList<Set<Integer>> values_;
+  private final ArrayList<Set<String>> stringValues_;
+  private final ArrayList<Map<Integer, Map<Integer, int[]>>> qualifiers_;
+  private final int[] selfReferenceCounts_;
+  private long qualifierNanos_ = 0;
+  private CharSequence line_ = null;
+  private int pos_ = 0;
+  private boolean first_ = false;
+  private int nameStart_ = 0;
+  private int nameEnd_ = 0;
+
+  private static final String mainsnakStart_ =
+    "\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"P";
+  private static final String itemValueStart_ =
+    ",\"datavalue\":{\"value\":{\"entity-type\":\"item\",\"numeric-id\":";
+  private static final String itemIdStart_ = ",\"id\":\"Q";
+  private static final String itemValueEnd_ =
+    "\"},\"type\":\"wikibase-entityid\"},\"datatype\":\"wikibase-item\"},\"type\":\"statement\"";
+  private static final String propertyValueStart_ =
+    ",\"datavalue\":{\"value\":{\"entity-type\":\"property\",\"numeric-id\":";
+  private static final String stringValueStart_ = ",\"datavalue\":{\"value\":\"";
+  private static final String stringValueEnd_ =
+    "\",\"type\":\"string\"},\"datatype\":\"string\"},\"type\":\"statement\"";
+  private static final String qualifiersStart_ = ",\"qualifiers\":";
+}
@@ -0,0 +1,152 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataItemColumns.ItemRow;
+import com.articulate.calendar.WikidataJava.Datatype;
+import com.articulate.calendar.WikidataJava.Property;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A WikidataFrozenGraph is an immutable snapshot of the items and properties
+ * of a WikidataJava, made by WikidataJava.freeze. The items are copied into a
+ * WikidataItemColumns which shares nothing mutable with the Item objects, and
+ * each property into a FrozenProperty. All fields are final and the arrays
+ * returned by the accessors are copies, so after freeze returns any number of
+ * threads, or a parallel stream from getItems, can query it without locks.
+ * Later changes to the WikidataJava don't change it.
+ */
+public final class WikidataFrozenGraph {
+  WikidataFrozenGraph(WikidataJava wikidata)
+  {
+    items_ = new WikidataItemColumns(wikidata.items_, true);
+
+    IntObjectHashMap<FrozenProperty> properties =
+      new IntObjectHashMap<>(wikidata.properties_.size());
+    for (Property property : wikidata.properties_.values())
+      properties.put(property.Id, new FrozenProperty(property));
+    properties_ = properties;
+
+    // A WikidataReverseRelation is already immutable.
+    hasInstance_ = wikidata.hasInstance_;
+    hasSubclass_ = wikidata.hasSubclass_;
+    hasPart_ = wikidata.hasPart_;
+  }
+
+  public int getNItems() { return items_.getNItems(); }
+
+  public int getNProperties() { return properties_.size(); }
+
+  /**
+   * Get the item with the ID, or null if there is none.
+   */
+  public ItemRow getItem(int id) { return items_.getItem(id); }
+
+  /**
+   * Get the item at the row, from 0 to getNItems() - 1, in ascending ID order.
+   */
+  public ItemRow getItemAt(int row) { return items_.getItemAt(row); }
+
+  /**
+   * Get a stream of the items in ascending ID order. Call parallel() on it to
+   * query the items from several threads.
+   */
+  public Stream<ItemRow>
+  getItems() { return IntStream.range(0, getNItems()).mapToObj(items_::getItemAt); }
+
+  /**
+   * Get the property with the ID, or null if there is none.
+   */
+  public FrozenProperty getProperty(int id) { return properties_.get(id); }
+
+  /**
+   * Get the IDs of the items which are an instance of the item, in ascending
+   * order.
+   * @return A new array, or null if there are none or the reverse relations
+   * weren't set when the WikidataJava was frozen.
+   */
+  public int[]
+  getHasInstance(int id) { return hasInstance_ == null ? null : hasInstance_.get(id); }
+
+  /**
+   * Get the IDs of the items which are a subclass of the item, like
+   * getHasInstance.
+   */
+  public int[]
+  getHasSubclass(int id) { return hasSubclass_ == null ? null : hasSubclass_.get(id); }
+
+  /**
+   * Get the IDs of the items which are a part of the item, like
+   * getHasInstance.
+   */
+  public int[] getHasPart(int id) { return hasPart_ == null ? null : hasPart_.get(id); }
+
+  /**
+   * A FrozenProperty is an immutable copy of a Property.
+   */
+  public static final class FrozenProperty {
+    FrozenProperty(Property property)
+    {
+      Id = property.Id;
+      enLabel_ = property.getEnLabel();
+      datatype_ = property.datatype_;
+      List<PropertySpec<Property>> specs = WikidataJava.propertyPropertySpecs_;
+      values_ = new int[specs.size()][];
+      for (int i = 0; i < specs.size(); ++i) {
+        int[] values = specs.get(i).getValues.getIntArray(property);
+        values_[i] = values == null ? null : values.clone();
+      }
+    }
+
+    public String getEnLabel() { return enLabel_; }
+
+    public String
+    getEnLabelOrId() { return enLabel_.isEmpty() ? "P" + Id : enLabel_; }
+
+    public Datatype getDatatype() { return datatype_; }
+
+    /**
+     * Get the values of the registered property as in the Property.
+     * @return A new array of the values, or null if there are none.
+     */
+    public int[]
+    getValues(PropertySpec<Property> spec)
+    {
+      int index = WikidataJava.propertyPropertySpecs_.indexOf(spec);
+      if (index < 0)
+        throw new Error("Not a registered property: " + spec.label);
+      return values_[index] == null ? null : values_[index].clone();
+    }
+
+    public int[] getSubpropertyOf() { return getValues(subpropertyOfSpec_); }
+
+    @Override
+    public String
+    toString() { return getEnLabelOrId(); }
+
+    public final int Id;
+    private final String enLabel_;
+    private final Datatype datatype_;
+    // Indexed like WikidataJava.propertyPropertySpecs_.
+    private final int[][] values_;
+  }
+
+  private static PropertySpec<Property>
+  findSpec(int propertyId)
+  {
+    for (PropertySpec<Property> spec : WikidataJava.propertyPropertySpecs_) {
+      if (spec.propertyId == propertyId)
+        return spec;
+    }
+    throw new Error("Not a registered property: P" + propertyId);
+  }
+
+  private static final PropertySpec<Property> subpropertyOfSpec_ =
+    findSpec(WikidataJava.PsubpropertyOf);
+  private final WikidataItemColumns items_;
+  private final IntObjectHashMap<FrozenProperty> properties_;
+  private final WikidataReverseRelation hasInstance_;
+  private final WikidataReverseRelation hasSubclass_;
+  private final WikidataReverseRelation hasPart_;
+}
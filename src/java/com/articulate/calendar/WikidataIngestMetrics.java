@@ -0,0 +1,284 @@
+package com.articulate.calendar;
+
+import com.google.gson.Gson;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * WikidataIngestMetrics has the per-stage counters of dumpFromJson and
+ * loadFromDump. Pass one in DumpOptions.metrics or to the WikidataJava
+ * constructor. Call startReporting to append a JSON report line
+ * periodically, and registerMBean to expose the metrics over JMX.
+ * The counters are thread safe.
+ */
+public class WikidataIngestMetrics implements WikidataIngestMetricsMBean, Closeable {
+  public WikidataIngestMetrics()
+  {
+    startNanos_ = System.nanoTime();
+    startCompressedBytes_ = WikidataDumpInput.getBytesRead();
+    startGcMillis_ = getTotalGcMillis();
+  }
+
+  public void setStage(String stage) { stage_ = stage; }
+
+  public void addLines(long nLines) { lines_.add(nLines); }
+
+  public void addDecompressedBytes(long nBytes) { decompressedBytes_.add(nBytes); }
+
+  public void addLabelDecodeNanos(long nanos) { labelDecodeNanos_.add(nanos); }
+
+  public void addEntityMatchNanos(long nanos) { entityMatchNanos_.add(nanos); }
+
+  public void addClaimScanNanos(long nanos) { claimScanNanos_.add(nanos); }
+
+  public void addQualifierParseNanos(long nanos) { qualifierParseNanos_.add(nanos); }
+
+  public void
+  setMapSizes(int itemCount, int propertyCount)
+  {
+    itemCount_ = itemCount;
+    propertyCount_ = propertyCount;
+  }
+
+  @Override
+  public String getStage() { return stage_; }
+
+  @Override
+  public double
+  getElapsedSeconds() { return (System.nanoTime() - startNanos_) / 1e9; }
+
+  @Override
+  public long getLines() { return lines_.sum(); }
+
+  @Override
+  public double getLinesPerSecond() { return perSecond(getLines()); }
+
+  @Override
+  public long
+  getCompressedBytes()
+  {
+    return WikidataDumpInput.getBytesRead() - startCompressedBytes_;
+  }
+
+  @Override
+  public double getCompressedBytesPerSecond() { return perSecond(getCompressedBytes()); }
+
+  @Override
+  public long getDecompressedBytes() { return decompressedBytes_.sum(); }
+
+  @Override
+  public double
+  getDecompressedBytesPerSecond() { return perSecond(getDecompressedBytes()); }
+
+  @Override
+  public double getLabelDecodeSeconds() { return labelDecodeNanos_.sum() / 1e9; }
+
+  @Override
+  public double getEntityMatchSeconds() { return entityMatchNanos_.sum() / 1e9; }
+
+  @Override
+  public double getClaimScanSeconds() { return claimScanNanos_.sum() / 1e9; }
+
+  @Override
+  public double getQualifierParseSeconds() { return qualifierParseNanos_.sum() / 1e9; }
+
+  @Override
+  public double
+  getGcSeconds() { return (getTotalGcMillis() - startGcMillis_) / 1000.0; }
+
+  @Override
+  public long
+  getHeapUsedBytes()
+  {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /**
+   * Get the heap bytes in use after the last collection of each heap pool,
+   * which approximates the live heap.
+   */
+  @Override
+  public long
+  getLiveHeapBytes()
+  {
+    long result = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP)
+        continue;
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (usage != null)
+        result += usage.getUsed();
+    }
+    return result;
+  }
+
+  @Override
+  public int getItemCount() { return itemCount_; }
+
+  @Override
+  public int getPropertyCount() { return propertyCount_; }
+
+  /**
+   * Get a snapshot of all the metrics.
+   */
+  public Map<String, Object>
+  getReport()
+  {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("timeMs", System.currentTimeMillis());
+    report.put("stage", getStage());
+    report.put("elapsedSeconds", getElapsedSeconds());
+    report.put("lines", getLines());
+    report.put("linesPerSecond", getLinesPerSecond());
+    report.put("compressedBytes", getCompressedBytes());
+    report.put("compressedBytesPerSecond", getCompressedBytesPerSecond());
+    report.put("decompressedBytes", getDecompressedBytes());
+    report.put("decompressedBytesPerSecond", getDecompressedBytesPerSecond());
+    report.put("labelDecodeSeconds", getLabelDecodeSeconds());
+    report.put("entityMatchSeconds", getEntityMatchSeconds());
+    report.put("claimScanSeconds", getClaimScanSeconds());
+    report.put("qualifierParseSeconds", getQualifierParseSeconds());
+    report.put("gcSeconds", getGcSeconds());
+    report.put("heapUsedBytes", getHeapUsedBytes());
+    report.put("liveHeapBytes", getLiveHeapBytes());
+    report.put("itemCount", getItemCount());
+    report.put("propertyCount", getPropertyCount());
+    return report;
+  }
+
+  /**
+   * Start a daemon thread which appends the report as a line of JSON every
+   * intervalSeconds. close() stops it after a final report.
+   * @param reportFilePath The file to append to. If null, print to System.out.
+   * @param intervalSeconds The seconds between reports.
+   */
+  public synchronized void
+  startReporting(String reportFilePath, long intervalSeconds)
+  {
+    if (reporter_ != null)
+      throw new Error("Already reporting");
+    reportFilePath_ = reportFilePath;
+    reporter_ = Executors.newSingleThreadScheduledExecutor((Runnable runnable) -> {
+      Thread thread = new Thread(runnable, "WikidataIngestMetrics");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reporter_.scheduleAtFixedRate
+      (this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Register this with the platform MBean server as mBeanName_. close()
+   * unregisters it.
+   */
+  public synchronized void
+  registerMBean()
+  {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(mBeanName_);
+      if (server.isRegistered(name))
+        // Replace the metrics of a previous run.
+        server.unregisterMBean(name);
+      server.registerMBean(this, name);
+      isRegistered_ = true;
+    } catch (JMException ex) {
+      throw new Error(ex);
+    }
+  }
+
+  /**
+   * Stop reporting after a final report, and unregister the MBean.
+   */
+  @Override
+  public synchronized void
+  close()
+  {
+    if (reporter_ != null) {
+      reporter_.shutdownNow();
+      reporter_ = null;
+      report();
+    }
+
+    if (isRegistered_) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean
+          (new ObjectName(mBeanName_));
+      } catch (JMException ex) {
+        // Already unregistered.
+      }
+      isRegistered_ = false;
+    }
+  }
+
+  private void
+  report()
+  {
+    String json = gson_.toJson(getReport());
+    if (reportFilePath_ == null) {
+      System.out.println(json);
+      return;
+    }
+
+    try (FileWriter file = new FileWriter(reportFilePath_, true);
+         BufferedWriter writer = new BufferedWriter(file)) {
+      writer.write(json);
+      writer.newLine();
+    } catch (IOException ex) {
+      // Don't stop the ingest for a metrics error.
+      System.out.println("Can't write metrics report: " + ex);
+    }
+  }
+
+  private double
+  perSecond(long count)
+  {
+    double seconds = getElapsedSeconds();
+    return seconds > 0 ? count / seconds : 0;
+  }
+
+  private static long
+  getTotalGcMillis()
+  {
+    long result = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      result += Math.max(gc.getCollectionTime(), 0);
+    return result;
+  }
+
+  private final long startNanos_;
+  private final long startCompressedBytes_;
+  private final long startGcMillis_;
+  private volatile String stage_ = "";
+  private final LongAdder lines_ = new LongAdder();
+  private final LongAdder decompressedBytes_ = new LongAdder();
+  private final LongAdder labelDecodeNanos_ = new LongAdder();
+  private final LongAdder entityMatchNanos_ = new LongAdder();
+  private final LongAdder claimScanNanos_ = new LongAdder();
+  private final LongAdder qualifierParseNanos_ = new LongAdder();
+  private volatile int itemCount_ = 0;
+  private volatile int propertyCount_ = 0;
+  private ScheduledExecutorService reporter_ = null;
+  private String reportFilePath_ = null;
+  private boolean isRegistered_ = false;
+
+  public static final String mBeanName_ =
+    "com.articulate.calendar:type=WikidataIngestMetrics";
+  private static final Gson gson_ = new Gson();
+}
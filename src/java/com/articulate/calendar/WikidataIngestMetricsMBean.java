@@ -0,0 +1,25 @@
+package com.articulate.calendar;
+
+/**
+ * The JMX interface of WikidataIngestMetrics. Rates are averages since the
+ * metrics were created. Stage times are summed over all parsing threads.
+ */
+public interface WikidataIngestMetricsMBean {
+  String getStage();
+  double getElapsedSeconds();
+  long getLines();
+  double getLinesPerSecond();
+  long getCompressedBytes();
+  double getCompressedBytesPerSecond();
+  long getDecompressedBytes();
+  double getDecompressedBytesPerSecond();
+  double getLabelDecodeSeconds();
+  double getEntityMatchSeconds();
+  double getClaimScanSeconds();
+  double getQualifierParseSeconds();
+  double getGcSeconds();
+  long getHeapUsedBytes();
+  long getLiveHeapBytes();
+  int getItemCount();
+  int getPropertyCount();
+}
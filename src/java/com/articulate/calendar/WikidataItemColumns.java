@@ -0,0 +1,1129 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A WikidataItemColumns has the items of a WikidataJava in parallel column
+ * arrays instead of an Item object for each. Each item is a row, in ascending
+ * ID order. The values of each registered property with Item values are in one
+ * array for all rows, with the offset of the values of each row. A value is
+ * the row of the item, so that a graph pass like getStatistics follows it
+ * without a map lookup, or ~ID if there is no item with the ID. The loop flags
+ * are a byte for each row. The String values are kept only for the rows which
+ * have them. The qualifiers of a value are in a QualifierSet array parallel to
+ * the values, with null for a value without qualifiers. An ItemRow is a
+ * flyweight with accessors like the fields of Item.
+ */
+public class WikidataItemColumns {
+  /**
+   * Copy the items into columns. If the items were loaded with their labels
+   * in one LabelArena, the columns use it, else the labels are copied. The
+   * loop flags and debugRootClasses_ are copied from the items, so that
+   * getStatistics continues from them like the Item version did.
+   */
+  public WikidataItemColumns(IntObjectHashMap<Item> items) { this(items, false); }
+
+  /**
+   * Copy the items into columns.
+   * @param isSnapshot If true, also copy the labels, String values and
+   * debugRootClasses so that the columns share nothing mutable with the items.
+   * See WikidataFrozenGraph.
+   */
+  WikidataItemColumns(IntObjectHashMap<Item> items, boolean isSnapshot)
+  {
+    int nItems = items.size();
+    ids_ = new int[nItems];
+    int iItem = 0;
+    for (Item item : items.values())
+      ids_[iItem++] = item.Id;
+    Arrays.sort(ids_);
+    Item[] rowItems = new Item[nItems];
+    for (int row = 0; row < nItems; ++row)
+      rowItems[row] = items.get(ids_[row]);
+
+    labelIndexes_ = new int[nItems];
+    LabelArena labels = isSnapshot ? null : getSharedLabelArena(rowItems);
+    if (labels != null) {
+      for (int row = 0; row < nItems; ++row)
+        labelIndexes_[row] = rowItems[row].getLabelIndex();
+    }
+    else {
+      labels = new LabelArena();
+      for (int row = 0; row < nItems; ++row)
+        labelIndexes_[row] = labels.add(rowItems[row].getEnLabel());
+      labels.trimToSize();
+    }
+    labels_ = labels;
+
+    flags_ = new byte[nItems];
+    for (int row = 0; row < nItems; ++row) {
+      Item item = rowItems[row];
+      if (item.hasSubclassOfLoop_)
+        flags_[row] |= subclassOfLoopFlag_;
+      if (item.hasPartOfLoop_)
+        flags_[row] |= partOfLoopFlag_;
+      if (item.hasLocatedInTheAdministrativeTerritorialEntityLoop_)
+        flags_[row] |= locatedInLoopFlag_;
+      if (item.debugRootClasses_ != null)
+        debugRootClasses_.put
+          (row, isSnapshot ? copy(item.debugRootClasses_) : item.debugRootClasses_);
+    }
+
+    List<PropertySpec<Item>> specs = WikidataJava.itemPropertySpecs_;
+    relations_ = new Relation[specs.size()];
+    for (int iSpec = 0; iSpec < specs.size(); ++iSpec) {
+      PropertySpec<Item> spec = specs.get(iSpec);
+      IntObjectHashMap<String[]> stringValues = null;
+      if (spec.valueType == WikidataEntityScanner.ValueType.String) {
+        stringValues = new IntObjectHashMap<>();
+        for (int row = 0; row < nItems; ++row) {
+          String[] values = spec.getStringValues.getStringArray(rowItems[row]);
+          if (values != null)
+            stringValues.put(row, isSnapshot ? values.clone() : values);
+        }
+      }
+      else
+        relations_[iSpec] = newRelation(rowItems, spec);
+      stringValues_.add(stringValues);
+    }
+  }
+
+  public int getNItems() { return ids_.length; }
+
+  /**
+   * Get the row of the item with the ID, or -1 if there is none.
+   */
+  public int
+  getRow(int id)
+  {
+    int row = Arrays.binarySearch(ids_, id);
+    return row < 0 ? -1 : row;
+  }
+
+  public int getId(int row) { return ids_[row]; }
+
+  /**
+   * Get the item with the ID, or null if there is none.
+   */
+  public ItemRow
+  getItem(int id)
+  {
+    int row = getRow(id);
+    return row < 0 ? null : new ItemRow(this, row);
+  }
+
+  /**
+   * Get the item at the row, from 0 to getNItems() - 1.
+   */
+  public ItemRow getItemAt(int row) { return new ItemRow(this, row); }
+
+  /**
+   * Check the items and add the counts and data exceptions to messages, the
+   * same as the Item version did, on this thread. This sets the loop flags and
+   * debugRootClasses.
+   */
+  public void getStatistics(List<String> messages) { getStatistics(messages, 1); }
+
+  /**
+   * Check the items like getStatistics(messages), with the rows split among
+   * nThreads fork/join threads. First findComponents finds the loops and root
+   * classes of each relation, with the relations at once. Then each range of
+   * rows gets its own counts and messages, which are merged in row order, so
+   * the counts and messages are the same for any nThreads. There is a loop
+   * message for each loop, in ascending order of the ID of its first item.
+   * @param nThreads If 1, check the rows on this thread and print progress
+   * every 5M rows. Otherwise, there is no progress output since the ranges
+   * finish in any order.
+   */
+  public void
+  getStatistics(List<String> messages, int nThreads)
+  {
+    Relation subclassOf = relations_[subclassOfIndex_];
+    Relation partOf = relations_[partOfIndex_];
+    Relation locatedIn = relations_[locatedInIndex_];
+    RelationComponents[] components;
+    Statistics statistics;
+    if (nThreads <= 1) {
+      components = new RelationComponents[] {
+        findComponents(subclassOf, true), findComponents(partOf, false),
+        findComponents(locatedIn, false) };
+      statistics = getStatistics(0, ids_.length, components, true);
+    }
+    else {
+      ForkJoinPool pool = new ForkJoinPool(nThreads);
+      try {
+        List<ForkJoinTask<RelationComponents>> tasks = Arrays.asList
+          (ForkJoinTask.adapt(() -> findComponents(subclassOf, true)),
+           ForkJoinTask.adapt(() -> findComponents(partOf, false)),
+           ForkJoinTask.adapt(() -> findComponents(locatedIn, false)));
+        for (ForkJoinTask<RelationComponents> task : tasks)
+          pool.execute(task);
+        components = new RelationComponents[tasks.size()];
+        for (int i = 0; i < components.length; ++i)
+          components[i] = tasks.get(i).join();
+        statistics = pool.invoke
+          (new StatisticsTask(this, 0, ids_.length, components));
+      }
+      finally {
+        pool.shutdown();
+      }
+    }
+
+    statistics.rootClasses_.forEachEntry(debugRootClasses_::put);
+    messages.addAll(statistics.messages_);
+    addLoopMessages(components[0].loopItems_, "subclassOf loop", messages);
+    addLoopMessages(components[1].loopItems_, "partOf loop", messages);
+    addLoopMessages
+      (components[2].loopItems_,
+       "locatedInTheAdministrativeTerritorialEntity loop", messages);
+
+    // Add entity since it does not have a subclass of property.
+    int nClasses = statistics.nClasses_ + 1;
+    messages.add("nItems " + ids_.length + ", nClasses " + nClasses +
+      ", nPartOf " + statistics.nPartOf_ + ", nItemsWithoutEnLabel " +
+      statistics.nItemsWithoutEnLabel_ + ", nClassesWithoutEnLabel " +
+      statistics.nClassesWithoutEnLabel_);
+    messages.add("nMultiSubclassOf " + statistics.nMultiSubclassOf_ +
+      ", nSubclassOfAndInstanceOf " + statistics.nSubclassOfAndInstanceOf_ +
+      ", nNoInstanceOf " + statistics.nNoInstanceOf_ +
+      ", nEnClassWithNonEntityRoot " + statistics.nEnClassWithNonEntityRoot_);
+    messages.add("nHasSubclassOfLoop " + statistics.nHasSubclassOfLoop_ +
+      ", nHasPartOfLoop " + statistics.nHasPartOfLoop_ +
+      ", nHasLocatedInTheAdministrativeTerritorialEntityLoop " +
+      statistics.nHasLocatedInTheAdministrativeTerritorialEntityLoop_);
+  }
+
+  /**
+   * Check the rows from start to end - 1. This only sets the loop flags of
+   * these rows and reads debugRootClasses_, so ranges can be checked at once.
+   * @param components The components of subclass of, part of and located in.
+   * @param printProgress If true, print each multiple of 5M rows checked.
+   */
+  private Statistics
+  getStatistics
+    (int start, int end, RelationComponents[] components, boolean printProgress)
+  {
+    Statistics statistics = new Statistics();
+    List<String> messages = statistics.messages_;
+    IntHashSet entitySet = new IntHashSet();
+    entitySet.add(WikidataJava.QEntity);
+
+    Relation instanceOf = relations_[instanceOfIndex_];
+    Relation subclassOf = relations_[subclassOfIndex_];
+    Relation partOf = relations_[partOfIndex_];
+    Relation locatedIn = relations_[locatedInIndex_];
+    for (int row = start; row < end; ++row) {
+      if (printProgress && row > 0 && row % 5000000 == 0)
+        System.out.println("Processing item " + row + " of " + ids_.length);
+
+      boolean hasEnLabel = !labels_.isEmpty(labelIndexes_[row]);
+      if (!hasEnLabel)
+        ++statistics.nItemsWithoutEnLabel_;
+
+      if (subclassOf.hasValues(row)) {
+        ++statistics.nClasses_;
+
+        if (!hasEnLabel)
+          ++statistics.nClassesWithoutEnLabel_;
+        if (subclassOf.getNValues(row) > 1)
+          ++statistics.nMultiSubclassOf_;
+        if (instanceOf.hasValues(row))
+          ++statistics.nSubclassOfAndInstanceOf_;
+      }
+
+      if (instanceOf.hasValues(row))
+        addNonExistingMessages(row, instanceOf, "instance of", messages);
+      else
+        ++statistics.nNoInstanceOf_;
+
+      if (partOf.hasValues(row))
+        ++statistics.nPartOf_;
+
+      // Get subclass of loops.
+      if (subclassOf.hasValues(row)) {
+        addNonExistingMessages(row, subclassOf, "subclass of", messages);
+        IntHashSet rootClasses = debugRootClasses_.get(row);
+        if (rootClasses == null) {
+          rootClasses = new IntHashSet();
+          statistics.rootClasses_.put(row, rootClasses);
+        }
+        int component = components[0].components_[row];
+        for (int id : components[0].rootItems_[component])
+          rootClasses.add(id);
+        if (components[0].hasLoop_[component])
+          flags_[row] |= subclassOfLoopFlag_;
+
+        if ((flags_[row] & subclassOfLoopFlag_) != 0)
+          ++statistics.nHasSubclassOfLoop_;
+        else {
+          if (hasEnLabel && !rootClasses.equals(entitySet))
+            ++statistics.nEnClassWithNonEntityRoot_;
+        }
+      }
+
+      // Get part of loops.
+      if (partOf.hasValues(row)) {
+        addNonExistingMessages(row, partOf, "part of", messages);
+        if (components[1].hasLoop_[components[1].components_[row]])
+          flags_[row] |= partOfLoopFlag_;
+
+        if ((flags_[row] & partOfLoopFlag_) != 0)
+          ++statistics.nHasPartOfLoop_;
+      }
+
+      // Get located in the administrative territorial entity loops.
+      if (locatedIn.hasValues(row)) {
+        addNonExistingMessages
+          (row, locatedIn, "located in the administrative territorial entity",
+           messages);
+        if (components[2].hasLoop_[components[2].components_[row]])
+          flags_[row] |= locatedInLoopFlag_;
+
+        if ((flags_[row] & locatedInLoopFlag_) != 0)
+          ++statistics.nHasLocatedInTheAdministrativeTerritorialEntityLoop_;
+      }
+    }
+
+    return statistics;
+  }
+
+  /**
+   * Get the valid IANA time zone for each location, like
+   * WikidataJava.getLocationIanaTimeZones. This uses the loops found by
+   * getStatistics.
+   * @param messages Messages for data exceptions are added to this, which is a
+   * set because the messages repeat.
+   * @return A map where the key is the Item ID of a location and the value
+   * is the ID of its IANA time zone.
+   */
+  public Map<Integer, Integer>
+  getLocationIanaTimeZones(Set<String> messages)
+  {
+    Map<Integer, Integer> result = new HashMap<>();
+    for (int row = 0; row < ids_.length; ++row) {
+      int timeZoneId = getIanaTimeZoneWithParentLocation(row, messages);
+      if (timeZoneId >= 0)
+        result.put(ids_[row], timeZoneId);
+    }
+
+    return result;
+  }
+
+  /**
+   * Set the loop flags and debugRootClasses_ of each item in items from the
+   * rows, after getStatistics.
+   */
+  public void
+  copyLoopsTo(IntObjectHashMap<Item> items)
+  {
+    for (int row = 0; row < ids_.length; ++row) {
+      Item item = items.get(ids_[row]);
+      if (item == null)
+        continue;
+      item.hasSubclassOfLoop_ = (flags_[row] & subclassOfLoopFlag_) != 0;
+      item.hasPartOfLoop_ = (flags_[row] & partOfLoopFlag_) != 0;
+      item.hasLocatedInTheAdministrativeTerritorialEntityLoop_ =
+        (flags_[row] & locatedInLoopFlag_) != 0;
+      item.debugRootClasses_ = debugRootClasses_.get(row);
+    }
+  }
+
+  public String getEnLabel(int row) { return labels_.get(labelIndexes_[row]); }
+
+  /**
+   * Get the label with the ID like the getEnLabelWithId of Item.
+   */
+  public String
+  getEnLabelWithId(int row)
+  {
+    String label = getEnLabel(row);
+    return label.isEmpty() ? "Q" + ids_[row] : label + " (Q" + ids_[row] + ")";
+  }
+
+  /**
+   * An ItemRow is a flyweight for the item at a row.
+   */
+  public static class ItemRow {
+    ItemRow(WikidataItemColumns columns, int row)
+    {
+      columns_ = columns;
+      row_ = row;
+      Id = columns.ids_[row];
+    }
+
+    public int getRow() { return row_; }
+
+    public String getEnLabel() { return columns_.getEnLabel(row_); }
+
+    public String getEnLabelWithId() { return columns_.getEnLabelWithId(row_); }
+
+    /**
+     * Get the values of the registered property as in the Item.
+     * @return The values, or null if there are none.
+     */
+    public int[]
+    getValues(PropertySpec<Item> spec)
+    {
+      Relation relation = columns_.relations_[getSpecIndex(spec)];
+      if (relation == null)
+        throw new Error("Not a property with Item values: " + spec.label);
+      if (!relation.hasValues(row_))
+        return null;
+
+      int[] result = new int[relation.getNValues(row_)];
+      for (int i = 0; i < result.length; ++i)
+        result[i] = columns_.getValueId(relation.values_[relation.offsets_[row_] + i]);
+      return result;
+    }
+
+    /**
+     * Get the values of the registered property with String values.
+     * @return A new array of the values, or null if there are none.
+     */
+    public String[]
+    getStringValues(PropertySpec<Item> spec)
+    {
+      IntObjectHashMap<String[]> values = columns_.stringValues_.get(getSpecIndex(spec));
+      if (values == null)
+        throw new Error("Not a property with String values: " + spec.label);
+      String[] result = values.get(row_);
+      return result == null ? null : result.clone();
+    }
+
+    /**
+     * Get the qualifiers of the registered property.
+     * @return The qualifiers, or null if there are none.
+     */
+    public WikidataQualifiers
+    getQualifiers(PropertySpec<Item> spec)
+    {
+      Relation relation = columns_.relations_[getSpecIndex(spec)];
+      if (relation == null || relation.qualifierSets_ == null)
+        return null;
+
+      WikidataQualifiers.Builder builder = new WikidataQualifiers.Builder();
+      for (int i = relation.offsets_[row_]; i < relation.offsets_[row_ + 1]; ++i) {
+        WikidataQualifiers.QualifierSet qualifierSet = relation.qualifierSets_[i];
+        if (qualifierSet == null)
+          continue;
+        int value = columns_.getValueId(relation.values_[i]);
+        for (int j = 0; j < qualifierSet.size(); ++j)
+          builder.add(value, qualifierSet.getPropertyId(j), qualifierSet.getValues(j));
+      }
+      return builder.build(null);
+    }
+
+    public int[] getInstanceOf() { return getValues(instanceOfSpec_); }
+
+    public int[] getSubclassOf() { return getValues(subclassOfSpec_); }
+
+    public int[] getPartOf() { return getValues(partOfSpec_); }
+
+    public int[]
+    getLocatedInTheAdministrativeTerritorialEntity()
+    {
+      return getValues(locatedInSpec_);
+    }
+
+    public int[] getLocatedInTimeZone() { return getValues(locatedInTimeZoneSpec_); }
+
+    public boolean
+    hasSubclassOfLoop() { return (columns_.flags_[row_] & subclassOfLoopFlag_) != 0; }
+
+    public boolean
+    hasPartOfLoop() { return (columns_.flags_[row_] & partOfLoopFlag_) != 0; }
+
+    public boolean
+    hasLocatedInTheAdministrativeTerritorialEntityLoop()
+    {
+      return (columns_.flags_[row_] & locatedInLoopFlag_) != 0;
+    }
+
+    /**
+     * Get the root classes found by getStatistics, or null if not a class.
+     * @return A new set.
+     */
+    public IntHashSet
+    getDebugRootClasses()
+    {
+      IntHashSet result = columns_.debugRootClasses_.get(row_);
+      return result == null ? null : copy(result);
+    }
+
+    /**
+     * Copy the columns of the row into a new Item.
+     */
+    public Item
+    toItem()
+    {
+      Item item = new Item(Id, getEnLabel());
+      for (PropertySpec<Item> spec : WikidataJava.itemPropertySpecs_) {
+        if (spec.valueType == WikidataEntityScanner.ValueType.String)
+          spec.setStringValues.setStringArray(item, getStringValues(spec));
+        else
+          spec.setValues.setIntArray(item, getValues(spec));
+        if (spec.hasQualifiers())
+          spec.setQualifiers.setQualifiers(item, getQualifiers(spec));
+      }
+      item.hasSubclassOfLoop_ = hasSubclassOfLoop();
+      item.hasPartOfLoop_ = hasPartOfLoop();
+      item.hasLocatedInTheAdministrativeTerritorialEntityLoop_ =
+        hasLocatedInTheAdministrativeTerritorialEntityLoop();
+      item.debugRootClasses_ = getDebugRootClasses();
+      return item;
+    }
+
+    @Override
+    public String
+    toString() { return getEnLabelWithId(); }
+
+    public final int Id;
+    private final WikidataItemColumns columns_;
+    private final int row_;
+  }
+
+  /**
+   * A Relation has the values of a property with Item values for all rows.
+   * The values of a row are from offsets_[row] to offsets_[row + 1]. A row
+   * whose Item had an empty array instead of null is in emptyRows_. If the
+   * property has qualifiers, qualifierSets_[i] has the qualifiers of values_[i]
+   * or null, else qualifierSets_ is null.
+   */
+  private static class Relation {
+    public Relation
+      (int[] offsets, int[] values, IntHashSet emptyRows,
+       WikidataQualifiers.QualifierSet[] qualifierSets)
+    {
+      offsets_ = offsets;
+      values_ = values;
+      emptyRows_ = emptyRows;
+      qualifierSets_ = qualifierSets;
+    }
+
+    public int getNValues(int row) { return offsets_[row + 1] - offsets_[row]; }
+
+    /**
+     * Check if the Item had values, which is false if they were null.
+     */
+    public boolean
+    hasValues(int row)
+    {
+      return offsets_[row + 1] > offsets_[row] || emptyRows_.contains(row);
+    }
+
+    public final int[] offsets_;
+    public final int[] values_;
+    public final IntHashSet emptyRows_;
+    public final WikidataQualifiers.QualifierSet[] qualifierSets_;
+  }
+
+  /**
+   * A Statistics has the counts and messages of a range of rows from
+   * getStatistics. rootClasses_ has the new debugRootClasses of the range.
+   */
+  private static class Statistics {
+    /**
+     * Add the counts and messages of the next range of rows.
+     */
+    public void
+    add(Statistics other)
+    {
+      nMultiSubclassOf_ += other.nMultiSubclassOf_;
+      nSubclassOfAndInstanceOf_ += other.nSubclassOfAndInstanceOf_;
+      nNoInstanceOf_ += other.nNoInstanceOf_;
+      nEnClassWithNonEntityRoot_ += other.nEnClassWithNonEntityRoot_;
+      nHasSubclassOfLoop_ += other.nHasSubclassOfLoop_;
+      nHasPartOfLoop_ += other.nHasPartOfLoop_;
+      nHasLocatedInTheAdministrativeTerritorialEntityLoop_ +=
+        other.nHasLocatedInTheAdministrativeTerritorialEntityLoop_;
+      nItemsWithoutEnLabel_ += other.nItemsWithoutEnLabel_;
+      nClasses_ += other.nClasses_;
+      nClassesWithoutEnLabel_ += other.nClassesWithoutEnLabel_;
+      nPartOf_ += other.nPartOf_;
+      messages_.addAll(other.messages_);
+      other.rootClasses_.forEachEntry(rootClasses_::put);
+    }
+
+    public int nMultiSubclassOf_ = 0;
+    public int nSubclassOfAndInstanceOf_ = 0;
+    public int nNoInstanceOf_ = 0;
+    public int nEnClassWithNonEntityRoot_ = 0;
+    public int nHasSubclassOfLoop_ = 0;
+    public int nHasPartOfLoop_ = 0;
+    public int nHasLocatedInTheAdministrativeTerritorialEntityLoop_ = 0;
+    public int nItemsWithoutEnLabel_ = 0;
+    public int nClasses_ = 0;
+    public int nClassesWithoutEnLabel_ = 0;
+    public int nPartOf_ = 0;
+    public final ArrayList<String> messages_ = new ArrayList<>();
+    // The key is the row.
+    public final IntObjectHashMap<IntHashSet> rootClasses_ = new IntObjectHashMap<>();
+  }
+
+  /**
+   * A StatisticsTask checks a range of rows. It splits a large range in two
+   * halves to check at once, then adds the second to the first.
+   */
+  private static class StatisticsTask extends RecursiveTask<Statistics> {
+    public StatisticsTask
+      (WikidataItemColumns columns, int start, int end,
+       RelationComponents[] components)
+    {
+      columns_ = columns;
+      start_ = start;
+      end_ = end;
+      components_ = components;
+    }
+
+    @Override
+    protected Statistics
+    compute()
+    {
+      if (end_ - start_ <= maxTaskRows_)
+        return columns_.getStatistics(start_, end_, components_, false);
+
+      int middle = (start_ + end_) >>> 1;
+      StatisticsTask first =
+        new StatisticsTask(columns_, start_, middle, components_);
+      first.fork();
+      Statistics second =
+        new StatisticsTask(columns_, middle, end_, components_).compute();
+      Statistics result = first.join();
+      result.add(second);
+      return result;
+    }
+
+    private static final long serialVersionUID = 1L;
+    private final WikidataItemColumns columns_;
+    private final int start_;
+    private final int end_;
+    private final RelationComponents[] components_;
+  }
+
+  /**
+   * A RelationComponents has the strongly connected components of a Relation
+   * from findComponents, where an edge goes from a row to each value which is
+   * another existing item. A component with more than one row is a loop. The
+   * components are numbered so that each edge goes to the same or a lower
+   * component.
+   */
+  private static class RelationComponents {
+    // The component of each row.
+    public int[] components_;
+    // For each component, true if it is a loop or has an edge to a component
+    // with hasLoop_.
+    public boolean[] hasLoop_;
+    // For each component, the IDs of the root items that its rows lead to, in
+    // ascending order, or null if not asked for. A root item has no values or
+    // has itself as a value. Components with the same root items often share
+    // the array. The entry is null for the component of a row with no values,
+    // whose only root item is itself.
+    public int[][] rootItems_;
+    // For each loop, the key is the ID of the item with the lowest ID and the
+    // value is the chain of IDs from it around the loop back to it.
+    public final IntObjectHashMap<int[]> loopItems_ = new IntObjectHashMap<>();
+  }
+
+  /**
+   * An IntStack is a stack of ints which grows as needed.
+   */
+  private static class IntStack {
+    public void
+    push(int value)
+    {
+      if (size_ >= values_.length)
+        values_ = Arrays.copyOf(values_, values_.length * 2);
+      values_[size_++] = value;
+    }
+
+    public int pop() { return values_[--size_]; }
+
+    public int peek() { return values_[size_ - 1]; }
+
+    public int get(int index) { return values_[index]; }
+
+    public void set(int index, int value) { values_[index] = value; }
+
+    public int size() { return size_; }
+
+    public void setSize(int size) { size_ = size; }
+
+    private int[] values_ = new int[16];
+    private int size_ = 0;
+  }
+
+  /**
+   * Copy the values of the spec of each row into a Relation, with each value
+   * changed to its row or ~ID. The qualifiers of a value which isn't in the
+   * values are dropped.
+   */
+  private Relation
+  newRelation(Item[] rowItems, PropertySpec<Item> spec)
+  {
+    int[] offsets = new int[rowItems.length + 1];
+    IntHashSet emptyRows = new IntHashSet();
+    for (int row = 0; row < rowItems.length; ++row) {
+      int[] values = spec.getValues.getIntArray(rowItems[row]);
+      int nValues = values == null ? 0 : values.length;
+      if (values != null && nValues == 0)
+        emptyRows.add(row);
+      offsets[row + 1] = offsets[row] + nValues;
+    }
+
+    int[] relationValues = new int[offsets[rowItems.length]];
+    WikidataQualifiers.QualifierSet[] qualifierSets = spec.hasQualifiers() ?
+      new WikidataQualifiers.QualifierSet[relationValues.length] : null;
+    for (int row = 0; row < rowItems.length; ++row) {
+      int[] values = spec.getValues.getIntArray(rowItems[row]);
+      if (values == null)
+        continue;
+      WikidataQualifiers qualifiers = spec.hasQualifiers() ?
+        spec.getQualifiers.getQualifiers(rowItems[row]) : null;
+      for (int i = 0; i < values.length; ++i) {
+        int valueRow = getRow(values[i]);
+        relationValues[offsets[row] + i] = valueRow >= 0 ? valueRow : ~values[i];
+        if (qualifiers != null)
+          qualifierSets[offsets[row] + i] = qualifiers.get(values[i]);
+      }
+    }
+
+    return new Relation(offsets, relationValues, emptyRows, qualifierSets);
+  }
+
+  /**
+   * Get the item ID of a Relation value, which is a row or ~ID.
+   */
+  private int getValueId(int value) { return value >= 0 ? ids_[value] : ~value; }
+
+  /**
+   * Find the strongly connected components of the relation with Tarjan's
+   * algorithm, with explicit stacks instead of recursion since a chain can be
+   * long. This is linear in the number of rows and values, and replaces
+   * following the chain of values from each row. Tarjan's algorithm finds a
+   * component after all the components that its edges go to, so its loop flag
+   * and root items are made from theirs when it is found.
+   * @param getRootItems If true, set rootItems_ of the result.
+   */
+  private RelationComponents
+  findComponents(Relation relation, boolean getRootItems)
+  {
+    int nRows = ids_.length;
+    // While a row is on the stack, order[row] is its 1-based visit order.
+    // When its component is found, it is changed to -1 - component.
+    int[] order = new int[nRows];
+    int[] lowLinks = new int[nRows];
+    IntStack stack = new IntStack();
+    // The rows being visited and the index of the next value of each.
+    IntStack callRows = new IntStack();
+    IntStack callValues = new IntStack();
+    int nVisited = 0;
+    int nComponents = 0;
+    boolean[] hasLoop = new boolean[16];
+    int[][] rootItems = getRootItems ? new int[16][] : null;
+    IntHashSet componentRootItems = new IntHashSet();
+    RelationComponents result = new RelationComponents();
+
+    for (int startRow = 0; startRow < nRows; ++startRow) {
+      if (order[startRow] != 0)
+        continue;
+
+      order[startRow] = lowLinks[startRow] = ++nVisited;
+      stack.push(startRow);
+      callRows.push(startRow);
+      callValues.push(relation.offsets_[startRow]);
+      while (callRows.size() > 0) {
+        int row = callRows.peek();
+        int i = callValues.peek();
+        if (i < relation.offsets_[row + 1]) {
+          callValues.set(callValues.size() - 1, i + 1);
+          int value = relation.values_[i];
+          if (value < 0 || value == row)
+            // Not an edge.
+            continue;
+          if (order[value] == 0) {
+            // Visit the value.
+            order[value] = lowLinks[value] = ++nVisited;
+            stack.push(value);
+            callRows.push(value);
+            callValues.push(relation.offsets_[value]);
+          }
+          else if (order[value] > 0)
+            // The value is on the stack.
+            lowLinks[row] = Math.min(lowLinks[row], order[value]);
+          continue;
+        }
+
+        // Finished the values of row.
+        callRows.pop();
+        callValues.pop();
+        if (callRows.size() > 0) {
+          int parentRow = callRows.peek();
+          lowLinks[parentRow] = Math.min(lowLinks[parentRow], lowLinks[row]);
+        }
+        if (lowLinks[row] != order[row])
+          continue;
+
+        // row is the first row of a component, which is row and the rows
+        // above it on the stack.
+        int component = nComponents++;
+        if (component >= hasLoop.length) {
+          hasLoop = Arrays.copyOf(hasLoop, hasLoop.length * 2);
+          if (rootItems != null)
+            rootItems = Arrays.copyOf(rootItems, rootItems.length * 2);
+        }
+        int componentStart = stack.size() - 1;
+        while (stack.get(componentStart) != row)
+          --componentStart;
+        for (int j = componentStart; j < stack.size(); ++j)
+          order[stack.get(j)] = -1 - component;
+
+        boolean isLoop = stack.size() - componentStart > 1;
+        hasLoop[component] = isLoop;
+        if (!isLoop && !relation.hasValues(row)) {
+          // The row has no edges and is its own root item. Leave its
+          // rootItems null so that there isn't an array for each item which
+          // isn't a class.
+          stack.setSize(componentStart);
+          continue;
+        }
+
+        componentRootItems.clear();
+        // If the root items are the same as those of a component it leads to,
+        // share that array.
+        int[] sharedRootItems = null;
+        for (int j = componentStart; j < stack.size(); ++j) {
+          int memberRow = stack.get(j);
+          for (int k = relation.offsets_[memberRow];
+               k < relation.offsets_[memberRow + 1]; ++k) {
+            int value = relation.values_[k];
+            if (value < 0)
+              continue;
+            if (value == memberRow) {
+              if (getRootItems)
+                componentRootItems.add(ids_[memberRow]);
+              continue;
+            }
+            int valueComponent = -1 - order[value];
+            if (valueComponent == component)
+              continue;
+            if (hasLoop[valueComponent])
+              hasLoop[component] = true;
+            if (getRootItems) {
+              int[] valueRootItems = rootItems[valueComponent];
+              if (valueRootItems == null)
+                // The value has no values, so it is its own root item.
+                componentRootItems.add(ids_[value]);
+              else {
+                if (sharedRootItems == null)
+                  sharedRootItems = valueRootItems;
+                for (int id : valueRootItems)
+                  componentRootItems.add(id);
+              }
+            }
+          }
+        }
+        if (getRootItems) {
+          rootItems[component] =
+            sharedRootItems != null &&
+            sharedRootItems.length == componentRootItems.size()
+            ? sharedRootItems : componentRootItems.toSortedArray();
+        }
+
+        if (isLoop)
+          addLoopChain(relation, stack, componentStart, order, result.loopItems_);
+        stack.setSize(componentStart);
+      }
+    }
+
+    // Change order to the component of each row.
+    for (int row = 0; row < nRows; ++row)
+      order[row] = -1 - order[row];
+    result.components_ = order;
+    result.hasLoop_ = Arrays.copyOf(hasLoop, nComponents);
+    if (rootItems != null)
+      result.rootItems_ = Arrays.copyOf(rootItems, nComponents);
+    return result;
+  }
+
+  /**
+   * Find a chain from the row with the lowest ID in the loop which is on the
+   * stack from componentStart around the loop back to it, and put it in
+   * loopItems. This is a breadth-first search within the component, so it is
+   * a shortest chain.
+   * @param order -1 - the component of each row in the loop.
+   */
+  private void
+  addLoopChain
+    (Relation relation, IntStack stack, int componentStart, int[] order,
+     IntObjectHashMap<int[]> loopItems)
+  {
+    int firstRow = stack.get(componentStart);
+    for (int j = componentStart + 1; j < stack.size(); ++j) {
+      // Rows are in ID order.
+      firstRow = Math.min(firstRow, stack.get(j));
+    }
+    int componentOrder = order[firstRow];
+
+    // The rows found by the search, and the index in queue of the row before
+    // each.
+    IntStack queue = new IntStack();
+    IntStack previousIndexes = new IntStack();
+    IntHashSet found = new IntHashSet();
+    queue.push(firstRow);
+    previousIndexes.push(-1);
+    found.add(firstRow);
+    int lastIndex = -1;
+    for (int iQueue = 0; iQueue < queue.size() && lastIndex < 0; ++iQueue) {
+      int row = queue.get(iQueue);
+      for (int i = relation.offsets_[row]; i < relation.offsets_[row + 1]; ++i) {
+        int value = relation.values_[i];
+        if (value < 0 || value == row || order[value] != componentOrder)
+          continue;
+        if (value == firstRow) {
+          lastIndex = iQueue;
+          break;
+        }
+        if (found.add(value)) {
+          queue.push(value);
+          previousIndexes.push(iQueue);
+        }
+      }
+    }
+
+    // Follow the search back from the last row to the first.
+    IntStack chain = new IntStack();
+    chain.push(ids_[firstRow]);
+    for (int index = lastIndex; index > 0; index = previousIndexes.get(index))
+      chain.push(ids_[queue.get(index)]);
+    chain.push(ids_[firstRow]);
+    int[] ids = new int[chain.size()];
+    for (int i = 0; i < ids.length; ++i)
+      ids[i] = chain.get(ids.length - 1 - i);
+    loopItems.put(ids_[firstRow], ids);
+  }
+
+  /**
+   * Add a message for each value of the row which isn't an existing item.
+   */
+  private void
+  addNonExistingMessages
+    (int row, Relation relation, String propertyLabel, List<String> messages)
+  {
+    for (int i = relation.offsets_[row]; i < relation.offsets_[row + 1]; ++i) {
+      int value = relation.values_[i];
+      if (value < 0)
+        messages.add
+          (getEnLabelWithId(row) + " " + propertyLabel + " non-existing Q" + ~value);
+    }
+  }
+
+  private void
+  addLoopMessages
+    (IntObjectHashMap<int[]> loopItems, String label, List<String> messages)
+  {
+    int[] loopItemIds = new int[loopItems.size()];
+    int iLoopItem = 0;
+    for (int id : loopItems.keySet())
+      loopItemIds[iLoopItem++] = id;
+    Arrays.sort(loopItemIds);
+    for (int loopItemId : loopItemIds) {
+      int[] chain = loopItems.get(loopItemId);
+      StringBuilder message = new StringBuilder(label);
+      for (int id : chain)
+        message.append(", ").append(getEnLabelWithId(getRow(id)));
+      messages.add(message.toString());
+    }
+  }
+
+  /**
+   * Get the IANA time zone ID of the item at row or one of its parent
+   * locations. This fails if multiple parent locations have a different time
+   * zone.
+   * @return The time zone's Item ID, or -1 if not found.
+   */
+  private int
+  getIanaTimeZoneWithParentLocation(int row, Set<String> messages)
+  {
+    int timeZoneId = getIanaTimeZone(row, messages);
+    if (timeZoneId >= 0)
+      return timeZoneId;
+
+    if ((flags_[row] & locatedInLoopFlag_) != 0)
+      return -1;
+
+    Relation locatedIn = relations_[locatedInIndex_];
+    for (int i = locatedIn.offsets_[row]; i < locatedIn.offsets_[row + 1]; ++i) {
+      int parentRow = locatedIn.values_[i];
+      if (!WikidataJava.locationQualifiersAreOk
+            (getItemAt(row), locatedIn.qualifierSets_[i]))
+        // Try the next parent location.
+        continue;
+
+      // Recurse.
+      if (parentRow < 0)
+        continue;
+      int parentTimeZoneId = getIanaTimeZoneWithParentLocation(parentRow, messages);
+      if (parentTimeZoneId < 0)
+        continue;
+      if (timeZoneId >= 0 && parentTimeZoneId != timeZoneId) {
+        messages.add("Item " + getEnLabelWithId(row) +
+          " has a parent location with IANA time zone " +
+          getEnLabelWithId(getRow(timeZoneId)) + " but has another parent " +
+          getEnLabelWithId(parentRow) + " with a different IANA time zone " +
+          getEnLabelWithId(getRow(parentTimeZoneId)));
+        // Different time zones, so fail.
+        return -1;
+      }
+
+      timeZoneId = parentTimeZoneId;
+    }
+
+    return timeZoneId;
+  }
+
+  /**
+   * Get the unique IANA time zone ID of the item at row. This does not check
+   * "parent" items that this may be located in.
+   * @return The time zone's Item ID, or -1 if not found.
+   */
+  private int
+  getIanaTimeZone(int row, Set<String> messages)
+  {
+    Relation locatedInTimeZone = relations_[locatedInTimeZoneIndex_];
+    Relation instanceOf = relations_[instanceOfIndex_];
+    int result = -1;
+    for (int i = locatedInTimeZone.offsets_[row];
+         i < locatedInTimeZone.offsets_[row + 1]; ++i) {
+      int timeZoneRow = locatedInTimeZone.values_[i];
+      int timeZoneId = getValueId(timeZoneRow);
+      if (timeZoneRow < 0)
+        throw new Error
+          ("Item " + getEnLabelWithId(row) +
+           " has non-existing located in time zone " + timeZoneId);
+      if (!hasValue(instanceOf, timeZoneRow, WikidataJava.QIanaTimeZone))
+        // Not an IANA time zone.
+        continue;
+
+      // Try to disqualify based on qualifiers.
+      WikidataQualifiers.QualifierSet qualifiers = locatedInTimeZone.qualifierSets_[i];
+      if (qualifiers != null &&
+          !WikidataJava.timeZoneQualifiersAreOk(getItemAt(row), qualifiers))
+        // Try the next time zone.
+        continue;
+
+      if (result >= 0 && result != timeZoneId) {
+        messages.add("Item " + getEnLabelWithId(row) +
+          " has multiple valid IANA time zones " + result + " and " + timeZoneId);
+        // Ignore multiple valid results.
+        return -1;
+      }
+      result = timeZoneId;
+    }
+
+    return result;
+  }
+
+  /**
+   * Check if the values of the row in the relation have the item ID.
+   */
+  private boolean
+  hasValue(Relation relation, int row, int id)
+  {
+    for (int i = relation.offsets_[row]; i < relation.offsets_[row + 1]; ++i) {
+      if (getValueId(relation.values_[i]) == id)
+        return true;
+    }
+    return false;
+  }
+
+  private static IntHashSet
+  copy(IntHashSet set)
+  {
+    IntHashSet result = new IntHashSet(set.size());
+    set.forEachInt(result::add);
+    return result;
+  }
+
+  /**
+   * If all the items have their label in the same LabelArena, return it, else
+   * null.
+   */
+  private static LabelArena
+  getSharedLabelArena(Item[] rowItems)
+  {
+    LabelArena result = null;
+    for (Item item : rowItems) {
+      LabelArena labels = item.getLabelArena();
+      if (labels == null || (result != null && labels != result))
+        return null;
+      result = labels;
+    }
+    return result;
+  }
+
+  private static int
+  getSpecIndex(PropertySpec<Item> spec)
+  {
+    int index = WikidataJava.itemPropertySpecs_.indexOf(spec);
+    if (index < 0)
+      throw new Error("Not a registered property: " + spec.label);
+    return index;
+  }
+
+  private static int
+  findSpecIndex(int propertyId)
+  {
+    List<PropertySpec<Item>> specs = WikidataJava.itemPropertySpecs_;
+    for (int i = 0; i < specs.size(); ++i) {
+      if (specs.get(i).propertyId == propertyId)
+        return i;
+    }
+    throw new Error("Not a registered property: P" + propertyId);
+  }
+
+  private final int[] ids_;
+  private final LabelArena labels_;
+  private final int[] labelIndexes_;
+  private final byte[] flags_;
+  // Indexed like WikidataJava.itemPropertySpecs_. A Relation is null for a
+  // property with String values, and the other way around for stringValues_.
+  private final Relation[] relations_;
+  // The key is the row.
+  private final List<IntObjectHashMap<String[]>> stringValues_ = new ArrayList<>();
+  private final IntObjectHashMap<IntHashSet> debugRootClasses_ = new IntObjectHashMap<>();
+
+  // The most rows that a StatisticsTask checks without splitting.
+  private static final int maxTaskRows_ = 1 << 14;
+  private static final byte subclassOfLoopFlag_ = 1;
+  private static final byte partOfLoopFlag_ = 2;
+  private static final byte locatedInLoopFlag_ = 4;
+
+  private static final int instanceOfIndex_ = findSpecIndex(WikidataJava.PinstanceOf);
+  private static final int subclassOfIndex_ = findSpecIndex(WikidataJava.PsubclassOf);
+  private static final int partOfIndex_ = findSpecIndex(WikidataJava.PpartOf);
+  private static final int locatedInIndex_ =
+    findSpecIndex(WikidataJava.PlocatedInTheAdministrativeTerritorialEntity);
+  private static final int locatedInTimeZoneIndex_ =
+    findSpecIndex(WikidataJava.PlocatedInTimeZone);
+
+  private static final PropertySpec<Item> instanceOfSpec_ =
+    WikidataJava.itemPropertySpecs_.get(instanceOfIndex_);
+  private static final PropertySpec<Item> subclassOfSpec_ =
+    WikidataJava.itemPropertySpecs_.get(subclassOfIndex_);
+  private static final PropertySpec<Item> partOfSpec_ =
+    WikidataJava.itemPropertySpecs_.get(partOfIndex_);
+  private static final PropertySpec<Item> locatedInSpec_ =
+    WikidataJava.itemPropertySpecs_.get(locatedInIndex_);
+  private static final PropertySpec<Item> locatedInTimeZoneSpec_ =
+    WikidataJava.itemPropertySpecs_.get(locatedInTimeZoneIndex_);
+}
@@ -1,33 +1,161 @@
 package com.articulate.calendar;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import com.google.gson.Gson;
-import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonToken;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
 public class WikidataJava {
   public WikidataJava(String dumpDir) throws IOException
+  {
+    this(dumpDir, new LoadOptions());
+  }
+
+  /**
+   * Load the dump files written by dumpFromJson.
+   * @param dumpDir The directory of the dump files. If null, don't load.
+   * @param propertyIds Only load the registered properties with these IDs
+   * (see itemPropertySpecs_ and propertyPropertySpecs_). The item and property
+   * labels are always loaded. If null, load all registered properties.
+   */
+  public WikidataJava(String dumpDir, Set<Integer> propertyIds) throws IOException
+  {
+    this(dumpDir, propertyIds, null);
+  }
+
+  /**
+   * Load the dump files written by dumpFromJson.
+   * @param dumpDir The directory of the dump files. If null, don't load.
+   * @param propertyIds See WikidataJava(dumpDir, propertyIds).
+   * @param metrics If not null, update these metrics while loading.
+   */
+  public WikidataJava
+    (String dumpDir, Set<Integer> propertyIds, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    this(dumpDir, new LoadOptions(propertyIds, metrics));
+  }
+
+  /**
+   * Load the dump files written by dumpFromJson.
+   * @param dumpDir The directory of the dump files. If null, don't load.
+   */
+  public WikidataJava(String dumpDir, LoadOptions options) throws IOException
   {
     if (dumpDir != null)
-      loadFromDump(dumpDir);
+      loadFromDump(dumpDir, options);
+  }
+
+  /**
+   * Options for loading the dump files.
+   */
+  public static class LoadOptions {
+    public LoadOptions() {}
+
+    public LoadOptions(Set<Integer> propertyIds, WikidataIngestMetrics metrics)
+    {
+      this.propertyIds = propertyIds;
+      this.metrics = metrics;
+    }
+
+    /**
+     * Only load the registered properties with these IDs. The item and
+     * property labels are always loaded. If null, load all registered
+     * properties.
+     */
+    public Set<Integer> propertyIds = null;
+    /** If not null, update these metrics while loading. */
+    public WikidataIngestMetrics metrics = null;
+    /**
+     * The number of threads which load dump files at once. The labels are
+     * loaded first, then each property and its qualifiers is loaded by one
+     * thread. If 1, load the files one after another.
+     */
+    public int nThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * If true and dumpDir has a complete binary dump, load it instead of the
+     * text dump files. If false, always load the text dump files.
+     */
+    public boolean useBinaryDump = true;
+  }
+
+  /**
+   * Map the binary dump in dumpDir read-only instead of loading it into the
+   * heap. See WikidataMappedGraph.
+   */
+  public static WikidataMappedGraph
+  mapFromDump(String dumpDir) throws IOException
+  {
+    return new WikidataMappedGraph(dumpDir);
+  }
+
+  /**
+   * Make an immutable snapshot of the items and properties which any number of
+   * threads can query at once without locks. See WikidataFrozenGraph.
+   */
+  public WikidataFrozenGraph freeze() { return new WikidataFrozenGraph(this); }
+
+  /**
+   * Get the column copy of items_ for the graph passes, making it on the first
+   * call. The instance getStatistics and getLocationIanaTimeZones share it, so
+   * the items are only copied once. Later changes to items_ are not in it.
+   */
+  public WikidataItemColumns
+  getItemColumns()
+  {
+    if (itemColumns_ == null)
+      itemColumns_ = new WikidataItemColumns(items_);
+    return itemColumns_;
+  }
+
+  /**
+   * Check items_ like the static getStatistics, on getItemColumns.
+   */
+  public void
+  getStatistics(List<String> messages)
+  {
+    WikidataItemColumns columns = getItemColumns();
+    columns.getStatistics(messages, Runtime.getRuntime().availableProcessors());
+    columns.copyLoopsTo(items_);
+  }
+
+  /**
+   * Get the valid IANA time zone for each location in items_ like the static
+   * getLocationIanaTimeZones, on getItemColumns. This uses the loops found by
+   * getStatistics(messages).
+   */
+  public Map<Integer, Integer>
+  getLocationIanaTimeZones(Set<String> messages)
+  {
+    return getItemColumns().getLocationIanaTimeZones(messages);
   }
 
   public static class Item {
@@ -35,87 +163,69 @@ public class WikidataJava {
     {
      	Id = id;
      	label_ = enLabel;
+      labels_ = null;
+      labelIndex_ = -1;
     }
 
-    public void
-    addHasInstance(int id)
+    /**
+     * Create an Item whose label is kept in the arena at labelIndex, which
+     * saves a String for each item loaded.
+     */
+    public Item(int id, LabelArena labels, int labelIndex)
     {
-      if (hasInstance_ == null)
-        hasInstance_ = new HashSet<Integer>();
-      hasInstance_.add(id);
-    }
-    public void
-    addHasSubclass(int id)
-    {
-      if (hasSubclass_ == null)
-        hasSubclass_ = new HashSet<Integer>();
-      hasSubclass_.add(id);
-    }
-    public void
-    addHasPart(int id)
-    {
-      if (hasPart_ == null)
-        hasPart_ = new HashSet<Integer>();
-      hasPart_.add(id);
+      Id = id;
+      label_ = null;
+      labels_ = labels;
+      labelIndex_ = labelIndex;
     }
 
     public String
-    getEnLabel()
-    {
-      if (!labelHasId_)
-        return label_;
-      else {
-        // Need to strip the id.
-        if (label_.startsWith("Q") && !label_.contains(" "))
-          return "";
-        else
-          return label_.substring(0, label_.lastIndexOf(" ("));
-      }
-    }
+    getEnLabel() { return label_ != null ? label_ : labels_.get(labelIndex_); }
 
+    /**
+     * Get the label followed by the ID like "label (Q123)", or just "Q123" if
+     * the label is empty. This is made each time so that the item doesn't keep
+     * another copy of the label.
+     */
     public String
     getEnLabelWithId()
     {
-      if (!labelHasId_) {
-        if (label_.length() == 0)
-          // Don't use up memory with just the Q ID string.
-          return "Q" + Id;
-        else {
-          // Add the Id to label_.
-          labelHasId_ = true;
-          label_ = label_ + " (Q" + Id + ")";
-        }
-      }
-
-      return label_;
+      String label = getEnLabel();
+      return label.isEmpty() ? "Q" + Id : label + " (Q" + Id + ")";
     }
 
     @Override
     public String
     toString() { return getEnLabelWithId(); }
 
+    /**
+     * Get the arena which has the label, or null if the label is a String.
+     */
+    LabelArena getLabelArena() { return labels_; }
+
+    /**
+     * Get the index of the label in getLabelArena().
+     */
+    int getLabelIndex() { return labelIndex_; }
+
     public final int Id;
     public int[] instanceOf_ = null;
-    public Set<Integer> hasInstance_ = null;
     public int[] subclassOf_ = null;
-    public Set<Integer> hasSubclass_ = null;
     public int[] partOf_ = null;
-    public Set<Integer> hasPart_ = null;
     public int[] saidToBeTheSameAs_ = null;
     public int[] locatedInTheAdministrativeTerritorialEntity_ = null;
-    public Map<Integer, Map<Integer, int[]>> locatedInTheAdministrativeTerritorialEntityQualifiers_ = null;
+    public WikidataQualifiers locatedInTheAdministrativeTerritorialEntityQualifiers_ = null;
     public int[] locatedInTimeZone_ = null;
-    public Map<Integer, Map<Integer, int[]>> locatedInTimeZoneQualifiers_ = null;
+    public WikidataQualifiers locatedInTimeZoneQualifiers_ = null;
     public String[] iataAirportCode_ = null;
-    public Set<Integer> debugRootClasses_ = null;
+    public IntHashSet debugRootClasses_ = null;
     public boolean hasSubclassOfLoop_ = false;
     public boolean hasPartOfLoop_ = false;
     public boolean hasLocatedInTheAdministrativeTerritorialEntityLoop_ = false;
-    private String label_;
-    private boolean labelHasId_ = false;
-
-    public interface SetHasLoop { void setHasLoop(Item item, boolean hasLoop); }
-    public interface GetHasLoop { boolean getHasLoop(Item item); }
+    // Either label_ is set, or the label is in labels_ at labelIndex_.
+    private final String label_;
+    private final LabelArena labels_;
+    private final int labelIndex_;
   }
 
   public static class Property
@@ -124,18 +234,32 @@ public class WikidataJava {
     {
       Id = id;
       label_ = enLabel;
+      labels_ = null;
+      labelIndex_ = -1;
+    }
+
+    /**
+     * Create a Property whose label is kept in the arena at labelIndex.
+     */
+    public Property(int id, LabelArena labels, int labelIndex)
+    {
+      Id = id;
+      label_ = null;
+      labels_ = labels;
+      labelIndex_ = labelIndex;
     }
 
     public String
-    getEnLabel() { return label_; }
+    getEnLabel() { return label_ != null ? label_ : labels_.get(labelIndex_); }
 
     public String
     getEnLabelOrId()
     {
-      if (label_.length() == 0)
+      String label = getEnLabel();
+      if (label.length() == 0)
         return "P" + Id;
       else
-        return label_;
+        return label;
     }
 
     @Override
@@ -145,7 +269,10 @@ public class WikidataJava {
     public int[] subpropertyOf_ = null;
     public Datatype datatype_ = Datatype.WikibaseItem;
     public final int Id;
+    // Either label_ is set, or the label is in labels_ at labelIndex_.
     private final String label_;
+    private final LabelArena labels_;
+    private final int labelIndex_;
 
     public static int[] getSubpropertyOf(Property property) { return property.subpropertyOf_; }
     public static void setSubpropertyOf(Property property, int[] values) { property.subpropertyOf_ = values; }
@@ -184,414 +311,595 @@ public class WikidataJava {
     throw new Error("Unrecognized Datatype string: " + datatypeString);
   }
 
-  public static void
-  dumpFromJson(String gzipFilePath, String dumpDir, ArrayList<String> messages)
-    throws FileNotFoundException, IOException
-  {
-    HashMap<Integer, Item> items = new HashMap<>();
-    HashMap<Integer, Property> properties = new HashMap<>();
-    int nLines = 0;
-    long startMs = System.currentTimeMillis();
-
-    try (FileInputStream fileIn = new FileInputStream(gzipFilePath);
-         GZIPInputStream zipIn = new GZIPInputStream(fileIn);
-         InputStreamReader isReader = new InputStreamReader(zipIn);
-         BufferedReader reader = new BufferedReader(isReader)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        ++nLines;
-        if (nLines % 500000 == 0) {
-          System.out.println("nLines " + nLines + ", total memory GB " +
-            Runtime.getRuntime().totalMemory() / 1000000000.0);
-        }
+  /**
+   * A PropertySpec describes a Wikidata property which dumpFromJson extracts
+   * from each item or property in one scan, the dump file it is written to and
+   * how loadFromDump sets it. To extract another property, add a field to
+   * Item or Property and add a PropertySpec to itemPropertySpecs_ or
+   * propertyPropertySpecs_.
+   * @param <T> Item or Property.
+   */
+  public static class PropertySpec<T> {
+    /**
+     * Create a PropertySpec for a property with Item or Property values.
+     */
+    public PropertySpec
+      (int propertyId, String label, WikidataEntityScanner.ValueType valueType,
+       String fileName, GetIntArray<T> getValues, SetIntArray<T> setValues)
+    {
+      this(propertyId, label, valueType, fileName, getValues, setValues, null,
+           null, null, null, null);
+    }
 
-        processLine(line, nLines, items, properties, messages);
-      }
+    /**
+     * Create a PropertySpec for a property with Item values and qualifiers.
+     */
+    public PropertySpec
+      (int propertyId, String label, String fileName, GetIntArray<T> getValues,
+       SetIntArray<T> setValues, String qualifiersFileName,
+       GetQualifiers<T> getQualifiers, SetQualifiers<T> setQualifiers)
+    {
+      this(propertyId, label, WikidataEntityScanner.ValueType.Item, fileName,
+           getValues, setValues, null, null, qualifiersFileName, getQualifiers,
+           setQualifiers);
     }
 
-    System.out.println("nLines " + nLines + ", elapsed minutes " +
-      (System.currentTimeMillis() - startMs) / 60000.0);
+    /**
+     * Create a PropertySpec for a property with String values.
+     */
+    public PropertySpec
+      (int propertyId, String label, String fileName,
+       GetStringArray<T> getStringValues, SetStringArray<T> setStringValues)
+    {
+      this(propertyId, label, WikidataEntityScanner.ValueType.String, fileName,
+           null, null, getStringValues, setStringValues, null, null, null);
+    }
 
-    System.out.print("Writing dump files ...");
-    try (FileWriter file = new FileWriter(new File(dumpDir, "itemTermFormatEnglishLanguage.kif"));
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, Item> entry : items.entrySet()) {
-        // Json-encode the value.
-        writer.write("(termFormat EnglishLanguage Q" + entry.getKey() + " " +
-          gson_.toJson(entry.getValue().getEnLabel()) + ")");
-        writer.newLine();
-      }
+    private PropertySpec
+      (int propertyId, String label, WikidataEntityScanner.ValueType valueType,
+       String fileName, GetIntArray<T> getValues, SetIntArray<T> setValues,
+       GetStringArray<T> getStringValues, SetStringArray<T> setStringValues,
+       String qualifiersFileName, GetQualifiers<T> getQualifiers,
+       SetQualifiers<T> setQualifiers)
+    {
+      this.propertyId = propertyId;
+      this.label = label;
+      this.valueType = valueType;
+      this.fileName = fileName;
+      this.getValues = getValues;
+      this.setValues = setValues;
+      this.getStringValues = getStringValues;
+      this.setStringValues = setStringValues;
+      this.qualifiersFileName = qualifiersFileName;
+      this.getQualifiers = getQualifiers;
+      this.setQualifiers = setQualifiers;
     }
 
-    dumpProperty
-      (items, (Item obj) -> obj.instanceOf_,
-       new File(dumpDir, "instanceOf.tsv").getAbsolutePath());
-    dumpProperty
-      (items, (Item obj) -> obj.subclassOf_,
-       new File(dumpDir, "subclassOf.tsv").getAbsolutePath());
-    dumpProperty
-      (items, (Item obj) -> obj.partOf_,
-       new File(dumpDir, "partOf.tsv").getAbsolutePath());
-    dumpProperty
-      (items, (Item obj) -> obj.saidToBeTheSameAs_,
-       new File(dumpDir, "saidToBeTheSameAs.tsv").getAbsolutePath());
-    dumpProperty
-      (items, (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntity_,
-       new File(dumpDir, "locatedInTheAdministrativeTerritorialEntity.tsv").getAbsolutePath());
-    dumpQualifiers
-      (items, (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntityQualifiers_,
-       new File(dumpDir, "locatedInTheAdministrativeTerritorialEntityQualifiers.tsv").getAbsolutePath());
-    dumpProperty
-      (items, (Item obj) -> obj.locatedInTimeZone_,
-       new File(dumpDir, "locatedInTimeZone.tsv").getAbsolutePath());
-    dumpQualifiers
-      (items, (Item obj) -> obj.locatedInTimeZoneQualifiers_,
-       new File(dumpDir, "locatedInTimeZoneQualifiers.tsv").getAbsolutePath());
-    dumpStringProperty
-      (items, (Item obj) -> obj.iataAirportCode_,
-       new File(dumpDir, "iataAirportCode.tsv").getAbsolutePath());
-
-    try (FileWriter file = new FileWriter(new File(dumpDir, "propertyEnLabels.tsv"));
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, Property> entry : properties.entrySet()) {
-        // Json-encode the value, omitting surrounding quotes.
-        String jsonString = gson_.toJson(entry.getValue().getEnLabel());
-        writer.write(entry.getKey() + "\t" + jsonString.substring(1, jsonString.length() - 1));
-        writer.newLine();
-      }
+    public boolean hasQualifiers() { return qualifiersFileName != null; }
+
+    public WikidataEntityScanner.ClaimSpec
+    getClaimSpec()
+    {
+      return new WikidataEntityScanner.ClaimSpec
+        (propertyId, valueType, hasQualifiers());
     }
 
-    try (FileWriter file = new FileWriter(new File(dumpDir, "propertyDatatype.tsv"));
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, Property> entry : properties.entrySet()) {
-        writer.write(entry.getKey() + "\t" + DatatypeString.get(entry.getValue().datatype_));
-        writer.newLine();
-      }
+    /**
+     * Set the values and qualifiers of obj from the scanner.
+     */
+    public void
+    setFromScanner(T obj, WikidataEntityScanner scanner)
+    {
+      if (valueType == WikidataEntityScanner.ValueType.String)
+        setStringValues.setStringArray(obj, scanner.getStringValues(propertyId));
+      else
+        setValues.setIntArray(obj, scanner.getValues(propertyId));
+      if (hasQualifiers())
+        setQualifiers.setQualifiers
+          (obj, WikidataQualifiers.fromMap(scanner.getQualifiers(propertyId), null));
     }
 
-    dumpProperty
-      (properties, (Property obj) -> obj.subpropertyOf_,
-       new File(dumpDir, "propertySubpropertyOf.tsv").getAbsolutePath());
+    public final int propertyId;
+    /** The property label for messages. */
+    public final String label;
+    public final WikidataEntityScanner.ValueType valueType;
+    public final String fileName;
+    /** For Item or Property values, else null. */
+    public final GetIntArray<T> getValues;
+    public final SetIntArray<T> setValues;
+    /** For String values, else null. */
+    public final GetStringArray<T> getStringValues;
+    public final SetStringArray<T> setStringValues;
+    /** For values with qualifiers, else null. */
+    public final String qualifiersFileName;
+    public final GetQualifiers<T> getQualifiers;
+    public final SetQualifiers<T> setQualifiers;
+  }
 
-    System.out.println(" done.");
+  /**
+   * Options for dumpFromJson.
+   */
+  public static class DumpOptions {
+    /**
+     * The number of threads which parse lines. If 1, parse on the thread which
+     * reads the dump file.
+     */
+    public int nThreads = 1;
+    /** The number of lines which the reader passes to a parsing thread at once. */
+    public int batchSize = 2000;
+    /**
+     * The number of threads which decompress the dump file. With more than one,
+     * a multi-member gzip or multi-stream bzip2 file is decompressed in
+     * parallel chunks. See WikidataDumpInput.
+     */
+    public int nInputThreads = 1;
+    /** The number of compressed bytes in a chunk for nInputThreads. */
+    public long inputChunkSize = 4L << 20;
+    /**
+     * If greater than 0, write a checkpoint to the dump directory after this
+     * many lines, and resume from a checkpoint for the same dump file.
+     * See WikidataCheckpoint.
+     */
+    public int checkpointIntervalLines = 0;
+    /**
+     * If true, only dump the items which the calendar needs. See
+     * WikidataSubset. This reads the dump file twice: first to find the
+     * subset from the claims alone, then to fully parse only the lines of
+     * items in the subset. All properties are dumped.
+     */
+    public boolean subset = false;
+    /**
+     * If greater than 0, hold about this many bytes of parsed items in the
+     * heap, then sort them and write them to a run file in the dump directory.
+     * The runs are merged into the dump files, which are written in item ID
+     * order. Messages for replaced items are added at the end. This can't be
+     * used with checkpointIntervalLines. See WikidataSpill.
+     */
+    public long spillBufferBytes = 0;
+    /**
+     * If not null, update these metrics during dumpFromJson. The caller can
+     * start reporting and register the MBean. See WikidataIngestMetrics.
+     */
+    public WikidataIngestMetrics metrics = null;
+    /**
+     * If true, also write the binary dump, which loadFromDump loads instead of
+     * the text dump files. See WikidataBinaryDump.
+     */
+    public boolean writeBinary = true;
+    /**
+     * The compression of the text dump files, which adds an extension to the
+     * file names. loadFromDump reads them with any compression.
+     */
+    public DumpCompression compression = DumpCompression.None;
+    /**
+     * If greater than 1, write the text dump files concurrently on this many
+     * threads, each of which also does the compression. If 1, write and
+     * compress them on the thread which formats the lines.
+     */
+    public int nWriteThreads = 1;
   }
 
   public static void
-  getStatistics(Map<Integer, Item> items, List<String> messages)
+  dumpFromJson(String gzipFilePath, String dumpDir, ArrayList<String> messages)
+    throws FileNotFoundException, IOException
   {
-    int nMultiSubclassOf = 0;
-    int nSubclassOfAndInstanceOf = 0;
-    int nNoInstanceOf = 0;
-    int nEnClassWithNonEntityRoot = 0;
-    int nHasSubclassOfLoop = 0;
-    int nHasPartOfLoop = 0;
-    int nHasLocatedInTheAdministrativeTerritorialEntityLoop = 0;
-    int nItemsWithoutEnLabel = 0;
-    int nClasses = 0;
-    int nClassesWithoutEnLabel = 0;
-    int nPartOf = 0;
-
-    List<Integer> itemChain = new ArrayList<>();
-    Map<Integer, int[]> subclassOfLoopItems = new HashMap<>();
-    Map<Integer, int[]> partOfLoopItems = new HashMap<>();
-    Map<Integer, int[]> locatedInTheAdministrativeTerritorialEntityLoopItems = new HashMap<>();
-
-    Set<Integer> entitySet = new HashSet<>();
-    entitySet.add(QEntity);
-
-    // Add entity since it does not have a subclass of property.
-    ++nClasses;
-
-    int itemCount = 0;
-    for (Map.Entry<Integer, Item> entry : items.entrySet()) {
-      Item item = entry.getValue();
-
-      ++itemCount;
-      if (itemCount % 5000000 == 0)
-        System.out.println("Processing item " + itemCount + " of " + items.size());
-
-/*
-      if (item.hasInstance_ != null && item.hasInstance_.size() > 250000)
-        Console.Out.WriteLine("\rhasInstance count " + item.hasInstance_.Count + ": " + item);
-*/
-
-      if (item.getEnLabel().isEmpty())
-        ++nItemsWithoutEnLabel;
-
-      if (item.subclassOf_ != null) {
-        ++nClasses;
-
-        if (item.getEnLabel().isEmpty())
-          ++nClassesWithoutEnLabel;
-        if (item.subclassOf_.length > 1)
-          ++nMultiSubclassOf;
-        if (item.instanceOf_ != null)
-          ++nSubclassOfAndInstanceOf;
-      }
+    dumpFromJson(gzipFilePath, dumpDir, messages, new DumpOptions());
+  }
+
+  /**
+   * Read the Wikidata JSON dump and write the dump files which are read by
+   * loadFromDump.
+   * @param dumpFilePath The path of the wikidata-*-all.json.gz file. This can
+   * also be a .json.bz2 file or an uncompressed .json file.
+   * @param dumpDir The directory for the dump files.
+   * @param messages Messages for data exceptions are added to this. The order
+   * of the messages does not depend on options.nThreads.
+   * @param options The DumpOptions.
+   */
+  public static void
+  dumpFromJson
+    (String dumpFilePath, String dumpDir, ArrayList<String> messages,
+     DumpOptions options)
+    throws FileNotFoundException, IOException
+  {
+    // An old binary dump would be loaded instead of the new text files, also
+    // if this doesn't write a new one.
+    WikidataBinaryDump.delete(dumpDir);
+    WikidataIngestMetrics metrics = options.metrics != null
+      ? options.metrics : new WikidataIngestMetrics();
+    DumpState state = new DumpState(messages, metrics);
+    IntObjectHashMap<Item> items = state.items_;
+    IntObjectHashMap<Property> properties = state.properties_;
+    int nLines = 0;
+    long startMs = System.currentTimeMillis();
 
-      if (item.instanceOf_ != null) {
-        for (int value : item.instanceOf_) {
-          if (!items.containsKey(value))
-            messages.add(item + " instance of non-existing Q" + value);
+    WikidataSubset subset = null;
+    if (options.subset)
+      subset = findSubset(dumpFilePath, options, metrics);
+
+    // The decompressed offset after the last line done, and the point where
+    // decompression restarts to get there.
+    long lineOffset = 0;
+    long restartCompressedOffset = 0;
+    long restartDecompressedOffset = 0;
+    if (options.spillBufferBytes > 0) {
+      if (options.checkpointIntervalLines > 0)
+        throw new Error("Can't use both spillBufferBytes and checkpointIntervalLines");
+      state.spill_ = new WikidataSpill(dumpDir, options.spillBufferBytes);
+    }
+    try {
+      if (options.checkpointIntervalLines > 0) {
+        state.checkpoint_ = new WikidataCheckpoint
+          (dumpDir, dumpFilePath, options.checkpointIntervalLines);
+        if (state.checkpoint_.load(items, properties, messages)) {
+          nLines = state.checkpoint_.getNLines();
+          lineOffset = state.checkpoint_.getLineOffset();
+          restartCompressedOffset = state.checkpoint_.getRestartCompressedOffset();
+          restartDecompressedOffset = state.checkpoint_.getRestartDecompressedOffset();
+          System.out.println("Resuming from the checkpoint at line " + nLines);
         }
       }
-      else
-        ++nNoInstanceOf;
-
-      // TODO: Check for subproperty of non-existing property.
 
-      if (item.partOf_ != null)
-        ++nPartOf;
-
-      // Get subclass of loops.
-      if (item.subclassOf_ != null) {
-        if (item.debugRootClasses_ == null)
-          item.debugRootClasses_ = new HashSet<>();
-        itemChain.clear();
+      // Read the dump as UTF-8 bytes. Only the labels and string values which
+      // we keep are decoded to Strings.
+      try (InputStream dumpIn = WikidataDumpInput.open
+             (dumpFilePath, options.nInputThreads, options.inputChunkSize,
+              restartCompressedOffset)) {
+        // Skip the lines before the checkpoint without parsing them.
+        skipFully(dumpIn, lineOffset - restartDecompressedOffset);
+        long streamStart = restartDecompressedOffset;
+        state.readerStart_ = lineOffset;
+        state.getRestartPoint_ = (long offset) -> {
+          long[] point = ((WikidataDumpInput.Restartable)dumpIn).getRestartPoint
+            (offset - streamStart);
+          return new long[] { point[0], point[1] + streamStart };
+        };
+
+        LineParser<ParsedBatch> parser = WikidataJava::processLine;
+        if (subset != null) {
+          WikidataSubset finalSubset = subset;
+          parser = (CharSequence line, int lineNumber, ParsedBatch batch) -> {
+            // Check the item ID before parsing the line.
+            int itemId = getItemId(line);
+            if (itemId < 0 || finalSubset.contains(itemId))
+              processLine(line, lineNumber, batch);
+          };
+        }
 
-        // TODO: This computes hasSubclassOfLoop_ which should be required.
-        addRootItems
-          (item, item.debugRootClasses_, items, entry.getKey(), itemChain,
-           subclassOfLoopItems, (Item obj) -> obj.subclassOf_,
-           "subclass of", (Item obj) -> obj.hasSubclassOfLoop_,
-           (Item obj, boolean x) -> { obj.hasSubclassOfLoop_ = x; },
-           messages);
+        metrics.setStage("parse");
+        try (Utf8LineReader reader = new Utf8LineReader(dumpIn)) {
+          nLines = processLines
+            (reader, nLines, options, metrics, ParsedBatch::new, parser,
+             state::merge);
+        }
+      }
 
-        if (item.hasSubclassOfLoop_)
-          ++nHasSubclassOfLoop;
+      System.out.println("nLines " + nLines + ", elapsed minutes " +
+        (System.currentTimeMillis() - startMs) / 60000.0);
+
+      System.out.print("Writing dump files ...");
+      metrics.setStage("write");
+      ExecutorService writeExecutor = options.nWriteThreads > 1
+        ? Executors.newFixedThreadPool(options.nWriteThreads) : null;
+      try (DumpFileWriter writer = new DumpFileWriter
+            (dumpDir, "", true, true, options.writeBinary, options.compression,
+             writeExecutor)) {
+        if (state.spill_ != null) {
+          System.out.print(" merging " + state.spill_.getNRuns() + " spilled runs ...");
+          state.spill_.merge(writer::writeItem, messages);
+        }
         else {
-          if (!item.getEnLabel().isEmpty() && 
-              !item.debugRootClasses_.equals(entitySet))
-            ++nEnClassWithNonEntityRoot;
+          for (Item item : items.values())
+            writer.writeItem(item);
         }
+
+        for (Property property : properties.values())
+          writer.writeProperty(property);
       }
+      finally {
+        if (writeExecutor != null)
+          writeExecutor.shutdown();
+      }
+    }
+    finally {
+      if (state.spill_ != null)
+        // Delete the run files, also if reading or writing failed.
+        state.spill_.close();
+    }
+
+    if (options.writeBinary)
+      WikidataBinaryDump.writeMarker(dumpDir);
+    if (state.checkpoint_ != null)
+      // The dump files are complete, so we don't need the checkpoint.
+      state.checkpoint_.delete();
 
-      // Get part of loops.
-      if (item.partOf_ != null) {
-        itemChain.clear();
+    metrics.setStage("done");
+    System.out.println(" done.");
+  }
 
-        // TODO: This computes hasPartOfLoop_ which should be required.
-        addRootItems
-          (item, null, items, entry.getKey(), itemChain, partOfLoopItems,
-           (Item obj) -> obj.partOf_, "part of",
-           (Item obj) -> obj.hasPartOfLoop_,
-           (Item obj, boolean x) -> { obj.hasPartOfLoop_ = x; },
-           messages);
+  /**
+   * Apply a delta file to the dump files in dumpDir which were written by
+   * dumpFromJson. Each line of the delta file is either the JSON of a new or
+   * changed entity, in the same format as the dump, or the ID of a deleted
+   * entity like Q123 or P45. Later lines override earlier lines. The records
+   * of the changed and deleted entities are removed from each dump file and
+   * the records of the changed entities are appended. The other records are
+   * copied as they are. Item dump files are only rewritten if an item changed,
+   * and likewise for properties. Each dump file is replaced when complete.
+   * The binary dump is deleted. To write it again, load the dump and call
+   * WikidataBinaryDump.write.
+   * @param deltaFilePath The path of the delta file. This can be compressed as
+   * for dumpFromJson.
+   * @param dumpDir The directory of the dump files.
+   * @param messages Messages for data exceptions are added to this.
+   */
+  public static void
+  updateDumpFromJson
+    (String deltaFilePath, String dumpDir, ArrayList<String> messages)
+    throws FileNotFoundException, IOException
+  {
+    // The binary dump would be out of date, so loadFromDump uses the text files.
+    WikidataBinaryDump.delete(dumpDir);
+    DumpState state = new DumpState(messages, new WikidataIngestMetrics());
+    IntObjectHashMap<Item> items = state.items_;
+    IntObjectHashMap<Property> properties = state.properties_;
+    // The IDs of entities whose existing records are removed.
+    IntHashSet itemIds = new IntHashSet();
+    IntHashSet propertyIds = new IntHashSet();
+
+    System.out.print("Reading delta file ...");
+    try (InputStream deltaIn = WikidataDumpInput.open(deltaFilePath, 1);
+         Utf8LineReader reader = new Utf8LineReader(deltaIn)) {
+      ParsedBatch batch = new ParsedBatch();
+      Utf8Line line = new Utf8Line();
+      int nLines = 0;
+      while (reader.readLine(line)) {
+        ++nLines;
+        Matcher matcher = deletedEntityPattern_.matcher(line);
+        if (matcher.find()) {
+          int id = Integer.parseInt(matcher.group(2));
+          if (matcher.group(1).equals("Q")) {
+            items.remove(id);
+            itemIds.add(id);
+          }
+          else {
+            properties.remove(id);
+            propertyIds.add(id);
+          }
+          continue;
+        }
 
-        if (item.hasPartOfLoop_)
-          ++nHasPartOfLoop;
+        processLine(line, nLines, batch);
+        state.merge(batch);
       }
+    }
+    for (Item item : items.values())
+      itemIds.add(item.Id);
+    for (Property property : properties.values())
+      propertyIds.add(property.Id);
+    System.out.println(" " + items.size() + " items and " + properties.size() +
+      " properties changed, " + (itemIds.size() - items.size()) + " items and " +
+      (propertyIds.size() - properties.size()) + " properties deleted.");
+    if (itemIds.isEmpty() && propertyIds.isEmpty())
+      return;
 
-      // Get located in the administrative territorial entity loops.
-      if (item.locatedInTheAdministrativeTerritorialEntity_ != null) {
-        itemChain.clear();
-
-        // TODO: This computes hasLocatedInTheAdministrativeTerritorialEntityLoop_ which should be required.
-        addRootItems
-          (item, null, items, entry.getKey(), itemChain,
-           locatedInTheAdministrativeTerritorialEntityLoopItems,
-           (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntity_,
-           "located in the administrative territorial entity",
-           (Item obj) -> obj.hasLocatedInTheAdministrativeTerritorialEntityLoop_,
-           (Item obj, boolean x) -> { obj.hasLocatedInTheAdministrativeTerritorialEntityLoop_ = x; },
-           messages);
-
-        if (item.hasLocatedInTheAdministrativeTerritorialEntityLoop_)
-          ++nHasLocatedInTheAdministrativeTerritorialEntityLoop;
+    System.out.print("Updating dump files ...");
+    String newSuffix = ".new";
+    // Keep the compression of the existing dump files.
+    DumpCompression compression = DumpCompression.get
+      (DumpCompression.find(dumpDir, itemTermFormatFileName_));
+    List<String> fileNames;
+    try (DumpFileWriter writer = new DumpFileWriter
+           (dumpDir, newSuffix, !itemIds.isEmpty(), !propertyIds.isEmpty(),
+            false, compression, null)) {
+      fileNames = new ArrayList<>(writer.getFileNames());
+      for (String fileName : fileNames) {
+        IntHashSet ids = propertyDumpFileNames_.contains(fileName)
+          ? propertyIds : itemIds;
+        copyUnchangedDumpLines
+          (DumpCompression.find(dumpDir, fileName), writer.getWriter(fileName),
+           ids);
       }
-    }
 
-    for (int[] chain : subclassOfLoopItems.values()) {
-      String message = "subclassOf loop";
-      for (int id : chain)
-        message += ", " + items.get(id);
-      messages.add(message);
-    }
-    for (int[] chain : partOfLoopItems.values()) {
-      String message = "partOf loop";
-      for (int id : chain)
-        message += ", " + items.get(id);
-      messages.add(message);
-    }
-    for (int[] chain : locatedInTheAdministrativeTerritorialEntityLoopItems.values()) {
-      String message = "locatedInTheAdministrativeTerritorialEntity loop";
-      for (int id : chain)
-        message += ", " + items.get(id);
-      messages.add(message);
+      for (Item item : items.values())
+        writer.writeItem(item);
+      for (Property property : properties.values())
+        writer.writeProperty(property);
     }
 
-    messages.add("nItems " + items.size() + ", nClasses " + nClasses +
-      ", nPartOf " + nPartOf + ", nItemsWithoutEnLabel " + nItemsWithoutEnLabel +
-      ", nClassesWithoutEnLabel " + nClassesWithoutEnLabel);
-    messages.add("nMultiSubclassOf " + nMultiSubclassOf +
-      ", nSubclassOfAndInstanceOf " + nSubclassOfAndInstanceOf +
-      ", nNoInstanceOf " + nNoInstanceOf + ", nEnClassWithNonEntityRoot " +
-      nEnClassWithNonEntityRoot);
-    messages.add("nHasSubclassOfLoop " + nHasSubclassOfLoop +
-      ", nHasPartOfLoop " + nHasPartOfLoop +
-      ", nHasLocatedInTheAdministrativeTerritorialEntityLoop " +
-      nHasLocatedInTheAdministrativeTerritorialEntityLoop);
+    for (String fileName : fileNames)
+      Files.move
+        (new File(dumpDir, fileName + compression.extension + newSuffix).toPath(),
+         new File(dumpDir, fileName + compression.extension).toPath(),
+         StandardCopyOption.REPLACE_EXISTING);
+    System.out.println(" done.");
   }
 
   /**
-   * Get the valid IANA time zone for each location
-   * @param items The map of Item ID with its Item.
-   * @param messages Messages for data exceptions are added to this, which is a
-   * set because the messages repeat.
-   * @return A map where the key is the Item ID of a location and the value
-   * is the ID of its IANA time zone.
+   * Copy each line of the dump file to the writer unless its entity ID is in
+   * ids.
    */
-  public static Map<Integer, Integer>
-  getLocationIanaTimeZones(Map<Integer, Item> items, Set<String> messages)
+  private static void
+  copyUnchangedDumpLines(File file, BufferedWriter writer, IntHashSet ids)
+    throws IOException
   {
-    Map<Integer, Integer> result = new HashMap<>();
-
-    for (Map.Entry<Integer, Item> entry : items.entrySet()) {
-      Item item = entry.getValue();
-      int timeZoneId = getItemIanaTimeZoneWithParentLocation
-        (item, items, messages);
-      if (timeZoneId < 0)
-        continue;
-
-      result.put(entry.getKey(), timeZoneId);
+    try (DumpLineReader reader = new DumpLineReader(file)) {
+      while (reader.next()) {
+        Utf8Line line = reader.getLine();
+        if (!ids.contains(getDumpLineId(line))) {
+          writer.write(line.toString());
+          writer.newLine();
+        }
+      }
     }
-
-    return result;
   }
 
   /**
-   * Get the IANA time zone ID of the item or one of its parent locations. This
-   * fails if multiple parent locations have a different time zone.
-   * @param item The Item to check.
-   * @param items The Items map for looking up the time zone with UTC offset.
-   * @param messages Messages for data exceptions are added to this, which is a
-   * set because the messages repeat.
-   * @return The time zone's Item ID, or -1 if not found.
+   * Get the entity ID at the start of a line of a dump file, which is either
+   * the first TSV field or the Q ID in termFormat.
    */
   private static int
-  getItemIanaTimeZoneWithParentLocation
-    (Item item, Map<Integer, Item> items, Set<String> messages)
+  getDumpLineId(CharSequence line)
   {
-    int timeZoneId = getItemIanaTimeZone(item, items, messages);
-    if (timeZoneId >= 0)
-      return timeZoneId;
-
-    if (item.hasLocatedInTheAdministrativeTerritorialEntityLoop_)
-      return -1;
+    int i = startsWith(line, termFormatPrefix_) ? termFormatPrefix_.length() : 0;
+    int start = i;
+    int result = 0;
+    while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+      result = result * 10 + (line.charAt(i) - '0');
+      ++i;
+    }
+    if (i == start)
+      throw new Error("Can't get the ID of dump line: " + line);
+    return result;
+  }
 
-    if (item.locatedInTheAdministrativeTerritorialEntity_ != null) {
-      for (int parentItemId : item.locatedInTheAdministrativeTerritorialEntity_) {
-        if (item.locatedInTheAdministrativeTerritorialEntityQualifiers_ != null &&
-            !locationQualifiersAreOk
-              (item,
-               item.locatedInTheAdministrativeTerritorialEntityQualifiers_.get(parentItemId)))
-          // Try the next parent location.
-          continue;
+  private static boolean
+  startsWith(CharSequence s, String prefix)
+  {
+    if (s.length() < prefix.length())
+      return false;
+    for (int i = 0; i < prefix.length(); ++i) {
+      if (s.charAt(i) != prefix.charAt(i))
+        return false;
+    }
+    return true;
+  }
 
-        // Recurse.
-        if (!items.containsKey(parentItemId))
-          continue;
-        int parentTimeZoneId = getItemIanaTimeZoneWithParentLocation
-            (items.get(parentItemId), items, messages);
-        if (parentTimeZoneId < 0)
-          continue;
-        if (timeZoneId >= 0 && parentTimeZoneId != timeZoneId) {
-          messages.add("Item " + item + " has a parent location with IANA time zone " +
-            items.get(timeZoneId) + " but has another parent " + items.get(parentItemId) +
-            " with a different IANA time zone " + items.get(parentTimeZoneId));
-          // Different time zones, so fail.
-          return -1;
-        }
+  /**
+   * Check the items and add the counts and data exceptions to messages. This
+   * sets hasSubclassOfLoop_, hasPartOfLoop_,
+   * hasLocatedInTheAdministrativeTerritorialEntityLoop_ and debugRootClasses_
+   * of the items. The work is done by WikidataItemColumns.getStatistics on a
+   * column copy of the items, with a fork/join thread for each processor. To
+   * check the items of a WikidataJava and then get its time zones without
+   * copying the items twice, use the instance getStatistics.
+   */
+  public static void
+  getStatistics(IntObjectHashMap<Item> items, List<String> messages)
+  {
+    getStatistics(items, messages, Runtime.getRuntime().availableProcessors());
+  }
 
-        timeZoneId = parentTimeZoneId;
-      }
-    }
+  /**
+   * Check the items like getStatistics(items, messages) with nThreads
+   * fork/join threads. The counts and messages are the same for any nThreads.
+   */
+  public static void
+  getStatistics(IntObjectHashMap<Item> items, List<String> messages, int nThreads)
+  {
+    WikidataItemColumns columns = new WikidataItemColumns(items);
+    columns.getStatistics(messages, nThreads);
+    columns.copyLoopsTo(items);
+  }
 
-    return timeZoneId;
+  /**
+   * Get the valid IANA time zone for each location. This uses the loops found
+   * by getStatistics. The work is done by
+   * WikidataItemColumns.getLocationIanaTimeZones on a column copy of the items.
+   * @param items The map of Item ID with its Item.
+   * @param messages Messages for data exceptions are added to this, which is a
+   * set because the messages repeat.
+   * @return A map where the key is the Item ID of a location and the value
+   * is the ID of its IANA time zone.
+   */
+  public static Map<Integer, Integer>
+  getLocationIanaTimeZones(IntObjectHashMap<Item> items, Set<String> messages)
+  {
+    return new WikidataItemColumns(items).getLocationIanaTimeZones(messages);
   }
 
-  private static boolean
-  locationQualifiersAreOk(Item item, Map<Integer, int[]> qualifiers)
+  /**
+   * Check the qualifiers of a located in the administrative territorial entity
+   * value.
+   * @param item The item, only used for the error message.
+   * @param qualifiers The qualifiers of the value, or null if none.
+   * @return False if a qualifier means that the value isn't the current
+   * location.
+   * @throws Error for an unrecognized qualifier.
+   */
+  static boolean
+  locationQualifiersAreOk(Object item, WikidataQualifiers.QualifierSet qualifiers)
   {
     if (qualifiers == null)
       return true;
   
-    for (Map.Entry<Integer, int[]> entry : qualifiers.entrySet()) {
-      if (entry.getKey() == PstartTime ||
-          entry.getKey() == PearliestDate ||
-          entry.getKey() == Pinception) {
+    for (int i = 0; i < qualifiers.size(); ++i) {
+      int propertyId = qualifiers.getPropertyId(i);
+      if (propertyId == PstartTime ||
+          propertyId == PearliestDate ||
+          propertyId == Pinception) {
         // A start time is OK. We reject an end time below.
       }
-      else if (entry.getKey() == PendTime ||
-               entry.getKey() == PdiscontinuedDate ||
-               entry.getKey() == PdissolvedOrAbolished ||
-               entry.getKey() == PlatestDate ||
-               entry.getKey() == PpointInTime)
+      else if (propertyId == PendTime ||
+               propertyId == PdiscontinuedDate ||
+               propertyId == PdissolvedOrAbolished ||
+               propertyId == PlatestDate ||
+               propertyId == PpointInTime)
         // Reject an entry with an end time or discontinued date or point in
         //   time or latest date qualifier (assuming the time is in the past).
         return false;
-      else if (entry.getKey() == PappliesToPart ||
-               entry.getKey() == PpartOf)
+      else if (propertyId == PappliesToPart ||
+               propertyId == PpartOf)
         // Reject a location with applies to part or part of  since we
         // don't know if it changes the location.
         return false;
-      else if (entry.getKey() == PcoordinateLocation)
+      else if (propertyId == PcoordinateLocation)
         // Reject a location with coordinate location since we
         // don't know if it is a random location.
         return false;
-      else if (entry.getKey() == Plocation || entry.getKey() == Pcountry ||
-               entry.getKey() == PlocatedInTheAdministrativeTerritorialEntity)
+      else if (propertyId == Plocation || propertyId == Pcountry ||
+               propertyId == PlocatedInTheAdministrativeTerritorialEntity)
         // Reject a location with a qualifier of location or country or
         //   located in the administrative territorial entity since we don't
         //   know if changes the location.
         return false;
-      else if (entry.getKey() == PlocatedOnStreet ||
-               entry.getKey() == PstreetNumber) {
+      else if (propertyId == PlocatedOnStreet ||
+               propertyId == PstreetNumber) {
         // A located on street or street number qualifier is OK, assuming it
         //   is a refinement of the location.
       }
-      else if (entry.getKey() == PexceptionToConstraint ||
-               entry.getKey() == Pexcluding) {
+      else if (propertyId == PexceptionToConstraint ||
+               propertyId == Pexcluding) {
         // An exception to constraint or excluding qualifier is OK,
         //   assuming the excepted item has its own location.
       }
-      else if (entry.getKey() == PreasonForDeprecation)
+      else if (propertyId == PreasonForDeprecation)
         // Reject a deprecated statement.
         return false;
-      else if (entry.getKey() == PsourcingCircumstances)
+      else if (propertyId == PsourcingCircumstances)
         // Reject a statement with suspect circumstances.
         return false;
       else if (
-               entry.getKey() == Parchitect ||
-               entry.getKey() == PcastMember ||
-               entry.getKey() == Pfollows ||
-               entry.getKey() == PmainRegulatoryText ||
-               entry.getKey() == PreferenceUrl ||
-               entry.getKey() == Preplaces ||
-               entry.getKey() == Pretrieved ||
-               entry.getKey() == PhasCause ||
-               entry.getKey() == PsignificantEvent ||
-               entry.getKey() == PstatedIn ||
-               entry.getKey() == PstatementDisputedBy ||
-               entry.getKey() == PsubjectOf) {
+               propertyId == Parchitect ||
+               propertyId == PcastMember ||
+               propertyId == Pfollows ||
+               propertyId == PmainRegulatoryText ||
+               propertyId == PreferenceUrl ||
+               propertyId == Preplaces ||
+               propertyId == Pretrieved ||
+               propertyId == PhasCause ||
+               propertyId == PsignificantEvent ||
+               propertyId == PstatedIn ||
+               propertyId == PstatementDisputedBy ||
+               propertyId == PsubjectOf) {
         // Statements with these qualifiers are OK, assuming they are only
         //   expository.
       }
-      else if (entry.getKey() == Pas ||
-               entry.getKey() == PcontainsAdministrativeTerritorialEntity ||
-               entry.getKey() == Pdirection ||
-               entry.getKey() == PinstanceOf ||
-               entry.getKey() == Pof ||
-               entry.getKey() == Pproportion ||
-               entry.getKey() == Puse)
+      else if (propertyId == Pas ||
+               propertyId == PcontainsAdministrativeTerritorialEntity ||
+               propertyId == Pdirection ||
+               propertyId == PinstanceOf ||
+               propertyId == Pof ||
+               propertyId == Pproportion ||
+               propertyId == Puse)
         // Reject statements with these qualifiers because the semantics are
         //   unclear.
         return false;
       else {
         System.out.println
-          ("Item " + item + " has an unrecognized located in qualifier " + entry.getKey());
+          ("Item " + item + " has an unrecognized located in qualifier " + propertyId);
         throw new Error
-          ("Item " + item + " has an unrecognized located in qualifier " + entry.getKey());
+          ("Item " + item + " has an unrecognized located in qualifier " + propertyId);
       }
     }
 
@@ -599,755 +907,1182 @@ public class WikidataJava {
   }
 
   /**
-   * Get the item's unique IANA time zone ID. This does not check "parent" items
-   * that this may be located in.
-   * @param item The Item to check.
-   * @param items The Items map for looking up the time zone with UTC offset.
-   * @param messages Messages for data exceptions are added to this, which is a
-   * set because the messages repeat.
-   * @return The time zone's Item ID, or -1 if not found.
+   * Check the qualifiers of a located in time zone value.
+   * @param item The item, only used for the error message.
+   * @param qualifiers The qualifiers of the value.
+   * @return False if a qualifier means that the value isn't the current IANA
+   * time zone.
+   * @throws Error for an unrecognized qualifier.
    */
-  private static int
-  getItemIanaTimeZone(Item item, Map<Integer, Item> items, Set<String> messages)
+  static boolean
+  timeZoneQualifiersAreOk(Object item, WikidataQualifiers.QualifierSet qualifiers)
   {
-    if (item.locatedInTimeZone_ == null)
-      return -1;
-
-    int result = -1;
-    for (int timeZoneId : item.locatedInTimeZone_) {
-      Item timeZone = items.get(timeZoneId);
-      if (timeZone == null)
-        throw new Error("Item " + item + " has non-existing located in time zone " + timeZoneId);
-      if (!(timeZone.instanceOf_ != null &&
-            contains(timeZone.instanceOf_, QIanaTimeZone)))
-        // Not an IANA time zone.
-        continue;
-
-      // Try to disqualify based on qualifiers.
-      if (item.locatedInTimeZoneQualifiers_ != null &&
-          item.locatedInTimeZoneQualifiers_.containsKey(timeZoneId)) {
-        boolean isValid = true;
-        for (Map.Entry<Integer, int[]> entry 
-             : item.locatedInTimeZoneQualifiers_.get(timeZoneId).entrySet()) {
-          if (entry.getKey() == PvalidInPeriod) {
-            // Reject a time zone with valid in period since it should not be
-            // needed for IANA time zones.
-            isValid = false;
-            break;
-          }
-          else if (entry.getKey() == PstartTime) {
-            // A start time is OK. We reject an end time below.
-          }
-          else if (entry.getKey() == PendTime) {
-            // Reject an entry with an end time qualifier (assuming the end time is in the past).
-            isValid = false;
-            break;
-          }
-          else if (entry.getKey() == PappliesToPart) {
-            // Reject a time zone with applies to part. Assume the part has its own.
-            isValid = false;
-            break;
-          }
-          else if (entry.getKey() == PsubjectOf) {
-            // A subject of qualifier is OK, assuming it is only expository.
-          }
-          else if (entry.getKey() == PexceptionToConstraint ||
-                   entry.getKey() == Pexcluding) {
-            // An exception to constraint or excluding qualifier is OK,
-            //   assuming the excepted item has its own time zone.
-          }
-          else
-            throw new Error
-              ("Item " + item + " has an unrecognized time zone qualifier " + entry.getKey());
-        }
-
-        if (!isValid)
-          // Try the next time zone.
-          continue;
+    for (int i = 0; i < qualifiers.size(); ++i) {
+      int propertyId = qualifiers.getPropertyId(i);
+      if (propertyId == PvalidInPeriod)
+        // Reject a time zone with valid in period since it should not be
+        // needed for IANA time zones.
+        return false;
+      else if (propertyId == PstartTime) {
+        // A start time is OK. We reject an end time below.
       }
-
-      if (result >= 0 && result != timeZoneId) {
-        messages.add("Item " + item + " has multiple valid IANA time zones " +
-          result + " and " + timeZoneId);
-        // Ignore multiple valid results.
-        return -1;
+      else if (propertyId == PendTime)
+        // Reject an entry with an end time qualifier (assuming the end time is in the past).
+        return false;
+      else if (propertyId == PappliesToPart)
+        // Reject a time zone with applies to part. Assume the part has its own.
+        return false;
+      else if (propertyId == PsubjectOf) {
+        // A subject of qualifier is OK, assuming it is only expository.
+      }
+      else if (propertyId == PexceptionToConstraint ||
+               propertyId == Pexcluding) {
+        // An exception to constraint or excluding qualifier is OK,
+        //   assuming the excepted item has its own time zone.
       }
-      result = timeZoneId;
+      else
+        throw new Error
+          ("Item " + item + " has an unrecognized time zone qualifier " + propertyId);
     }
 
-    return result;
+    return true;
   }
 
   private static void
-  addRootItems
-    (Item leafItem, Set<Integer> leafItemRootItems, Map<Integer, Item> items,
-     int itemId, List<Integer> itemChain, Map<Integer, int[]> loopItems,
-     GetIntArray<Item> getPropertyValues, String propertyLabel,
-     Item.GetHasLoop getHasLoop, Item.SetHasLoop setHasLoop,
-     List<String> messages)
+  dumpPropertyLine(BufferedWriter writer, int id, int[] values) throws IOException
   {
-    Item item = items.get(itemId);
-
-    if (itemChain.contains(itemId)) {
-      itemChain.add(itemId);
-      loopItems.put(itemId, listToArray(itemChain));
-      setHasLoop.setHasLoop(leafItem, true);
-      return;
-    }
-    itemChain.add(itemId);
-
-    int[] propertyValues = getPropertyValues.getIntArray(item);
-    if (propertyValues == null) {
-      // No more property values in the chain. Finished.
-      if (leafItemRootItems != null)
-        leafItemRootItems.add(itemId);
-      return;
-    }
-
-    int saveItemChainSize = itemChain.size();
-    for (int propertyValue : propertyValues) {
-      if (propertyValue == itemId) {
-        // A property value is itself. Finished.
-        if (leafItemRootItems != null)
-          leafItemRootItems.add(itemId);
-      }
-      else {
-        // Resize to saveItemChainSize to start over.
-        while (itemChain.size() > saveItemChainSize)
-          itemChain.remove(saveItemChainSize);
-
-        // Recurse.
-        if (!items.containsKey(propertyValue))
-          messages.add
-            (items.get(itemId) + " " + propertyLabel + " non-existing Q" +
-             propertyValue);
-        else
-          addRootItems
-            (leafItem, leafItemRootItems, items, propertyValue, itemChain,
-             loopItems, getPropertyValues, propertyLabel, getHasLoop,
-             setHasLoop, messages);
-
-        if (getHasLoop.getHasLoop(leafItem))
-          // There is a loop. We don't need to continue.
-          return;
-      }
+    if (values != null) {
+      writer.write("" + id);
+      for (int value : values)
+        writer.write("\t" + value);
+      writer.newLine();
     }
   }
 
-  private static <T> void
-  dumpProperty
-    (Map<Integer, T> dictionary, GetIntArray<T> getPropertyValues, String filePath)
+  private static void
+  dumpStringPropertyLine(BufferedWriter writer, int id, String[] values)
     throws IOException
   {
-    try (FileWriter file = new FileWriter(filePath);
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, T> entry : dictionary.entrySet()) {
-        if (getPropertyValues.getIntArray(entry.getValue()) != null) {
-          writer.write("" + entry.getKey());
-          for (int value : getPropertyValues.getIntArray(entry.getValue()))
-            writer.write("\t" + value);
-          writer.newLine();
-        }
+    if (values != null) {
+      writer.write("" + id);
+      for (String value : values) {
+        // Json-encode the value, omitting surrounding quotes.
+        String jsonString = gson_.toJson(value);
+        writer.write("\t" + jsonString.substring(1, jsonString.length() - 1));
       }
+      writer.newLine();
     }
   }
 
-  private static <T> void
-  dumpStringProperty
-    (Map<Integer, T> dictionary, GetStringArray<T> getPropertyValues, String filePath)
+  private static void
+  dumpQualifiersLines
+    (BufferedWriter writer, int id, WikidataQualifiers qualifiers)
     throws IOException
   {
-    try (FileWriter file = new FileWriter(filePath);
-         BufferedWriter writer = new BufferedWriter(file)) {
-      for (Map.Entry<Integer, T> entry : dictionary.entrySet()) {
-        if (getPropertyValues.getStringArray(entry.getValue()) != null) {
-          writer.write("" + entry.getKey());
-          for (String value : getPropertyValues.getStringArray(entry.getValue())) {
-            // Json-encode the value, omitting surrounding quotes.
-            String jsonString = gson_.toJson(value);
-            writer.write("\t" + jsonString.substring(1, jsonString.length() - 1));
-          }
+    if (qualifiers != null) {
+      // itemId\titemPropertyId\tqualifierPropertyId1\titemValue1\titemValue2...
+      for (int i = 0; i < qualifiers.size(); ++i) {
+        WikidataQualifiers.QualifierSet qualifierSet = qualifiers.getQualifierSet(i);
+        for (int j = 0; j < qualifierSet.size(); ++j) {
+          writer.write
+            (id + "\t" + qualifiers.getValue(i) + "\t" +
+             qualifierSet.getPropertyId(j));
+          for (int value : qualifierSet.getValues(j))
+            writer.write("\t" + value);
           writer.newLine();
         }
       }
     }
   }
 
-  private static <T> void
-  dumpQualifiers
-    (Map<Integer, T> dictionary, GetQualifiersMap<T> getQualifiers,
-     String filePath) throws IOException
-  {
-    try (FileWriter file = new FileWriter(filePath);
-         BufferedWriter writer = new BufferedWriter(file)) {
-      // itemId\titemPropertyId\tqualifierPropertyId1\titemValue1\titemValue2...
-      for (Map.Entry<Integer, T> entry : dictionary.entrySet()) {
-        if (getQualifiers.getQualifiersMap(entry.getValue()) != null) {
-          for (Map.Entry<Integer, Map<Integer, int[]>> qualifiersEntry
-               : getQualifiers.getQualifiersMap(entry.getValue()).entrySet()) {
-            for (Map.Entry<Integer, int[]> qualifierValuesEntry
-                 : qualifiersEntry.getValue().entrySet()) {
-              writer.write
-                (entry.getKey() + "\t" + qualifiersEntry.getKey() + "\t" +
-                 qualifierValuesEntry.getKey());
-              for (int value : qualifierValuesEntry.getValue())
-                writer.write("\t" + value);
-              writer.newLine();
-            }
-          }
+  /**
+   * A DumpFileWriter writes each item or property to all of its dump files at
+   * once, so that the entities can come from a stream.
+   */
+  private static class DumpFileWriter implements Closeable {
+    /**
+     * Open the dump files for writing.
+     * @param dumpDir The directory for the dump files.
+     * @param fileNameSuffix Add this to each file name.
+     * @param openItemFiles If true, open the item dump files.
+     * @param openPropertyFiles If true, open the propertyDumpFileNames_.
+     */
+    public DumpFileWriter
+      (String dumpDir, String fileNameSuffix, boolean openItemFiles,
+       boolean openPropertyFiles) throws IOException
+    {
+      this(dumpDir, fileNameSuffix, openItemFiles, openPropertyFiles, false,
+           DumpCompression.None, null);
+    }
+
+    /**
+     * Open the dump files for writing.
+     * @param writeBinary If true, also write the binary dump. This needs
+     * openItemFiles and openPropertyFiles. After closing, call
+     * WikidataBinaryDump.writeMarker.
+     * @param compression The compression of the text dump files. Its
+     * extension is added to the file name before the fileNameSuffix.
+     * @param writeExecutor If not null, each text dump file is compressed and
+     * written by tasks on this executor (see BackgroundOutputStream), so that
+     * the files are written concurrently. close waits for the tasks.
+     */
+    public DumpFileWriter
+      (String dumpDir, String fileNameSuffix, boolean openItemFiles,
+       boolean openPropertyFiles, boolean writeBinary,
+       DumpCompression compression, ExecutorService writeExecutor)
+      throws IOException
+    {
+      dumpDir_ = dumpDir;
+      fileNameSuffix_ = fileNameSuffix;
+      compression_ = compression;
+      writeExecutor_ = writeExecutor;
+      try {
+        if (openItemFiles) {
+          termFormat_ = open(itemTermFormatFileName_);
+          itemWriters_ = openSpecFiles(itemPropertySpecs_);
+        }
+        if (openPropertyFiles) {
+          propertyEnLabels_ = open(propertyEnLabelsFileName_);
+          propertyDatatype_ = open(propertyDatatypeFileName_);
+          propertyWriters_ = openSpecFiles(propertyPropertySpecs_);
         }
+        if (writeBinary)
+          binaryWriter_ = new WikidataBinaryDump.Writer(dumpDir);
+      } catch (IOException ex) {
+        close();
+        throw ex;
+      }
+    }
+
+    public void
+    writeItem(Item item) throws IOException
+    {
+      // Json-encode the value.
+      termFormat_.write("(termFormat EnglishLanguage Q" + item.Id + " " +
+        gson_.toJson(item.getEnLabel()) + ")");
+      termFormat_.newLine();
+
+      writeSpecs(itemPropertySpecs_, itemWriters_, item.Id, item);
+      if (binaryWriter_ != null)
+        binaryWriter_.writeItem(item);
+    }
+
+    public void
+    writeProperty(Property property) throws IOException
+    {
+      // Json-encode the value, omitting surrounding quotes.
+      String jsonString = gson_.toJson(property.getEnLabel());
+      propertyEnLabels_.write
+        (property.Id + "\t" + jsonString.substring(1, jsonString.length() - 1));
+      propertyEnLabels_.newLine();
+
+      propertyDatatype_.write
+        (property.Id + "\t" + DatatypeString.get(property.datatype_));
+      propertyDatatype_.newLine();
+
+      writeSpecs(propertyPropertySpecs_, propertyWriters_, property.Id, property);
+      if (binaryWriter_ != null)
+        binaryWriter_.writeProperty(property);
+    }
+
+    /**
+     * Get the writer for the dump file, or null if it is not open.
+     * @param fileName The file name without the fileNameSuffix.
+     */
+    public BufferedWriter getWriter(String fileName) { return writers_.get(fileName); }
+
+    /**
+     * Get the names of the open dump files, without the fileNameSuffix.
+     */
+    public Set<String> getFileNames() { return writers_.keySet(); }
+
+    @Override
+    public void
+    close() throws IOException
+    {
+      IOException exception = null;
+      for (BufferedWriter writer : writers_.values()) {
+        try {
+          writer.close();
+        } catch (IOException ex) {
+          if (exception == null)
+            exception = ex;
+        }
+      }
+      if (binaryWriter_ != null) {
+        try {
+          binaryWriter_.close();
+        } catch (IOException ex) {
+          if (exception == null)
+            exception = ex;
+        }
+      }
+      if (exception != null)
+        throw exception;
+    }
+
+    /**
+     * Write the values of each spec to writers[2*i] and the qualifiers to
+     * writers[2*i + 1].
+     */
+    private static <T> void
+    writeSpecs
+      (List<PropertySpec<T>> specs, BufferedWriter[] writers, int id, T obj)
+      throws IOException
+    {
+      for (int i = 0; i < specs.size(); ++i) {
+        PropertySpec<T> spec = specs.get(i);
+        if (spec.valueType == WikidataEntityScanner.ValueType.String)
+          dumpStringPropertyLine
+            (writers[2 * i], id, spec.getStringValues.getStringArray(obj));
+        else
+          dumpPropertyLine(writers[2 * i], id, spec.getValues.getIntArray(obj));
+        if (spec.hasQualifiers())
+          dumpQualifiersLines
+            (writers[2 * i + 1], id, spec.getQualifiers.getQualifiers(obj));
+      }
+    }
+
+    private <T> BufferedWriter[]
+    openSpecFiles(List<PropertySpec<T>> specs) throws IOException
+    {
+      BufferedWriter[] writers = new BufferedWriter[2 * specs.size()];
+      for (int i = 0; i < specs.size(); ++i) {
+        writers[2 * i] = open(specs.get(i).fileName);
+        if (specs.get(i).hasQualifiers())
+          writers[2 * i + 1] = open(specs.get(i).qualifiersFileName);
+      }
+      return writers;
+    }
+
+    private BufferedWriter
+    open(String fileName) throws IOException
+    {
+      if (fileNameSuffix_.isEmpty())
+        compression_.deleteOthers(dumpDir_, fileName);
+      OutputStream out = new FileOutputStream
+        (new File(dumpDir_, fileName + compression_.extension + fileNameSuffix_));
+      try {
+        out = compression_.compress(out);
+      } catch (IOException ex) {
+        out.close();
+        throw ex;
       }
+      if (writeExecutor_ != null)
+        out = new BackgroundOutputStream(out, writeExecutor_);
+      // The loaders read UTF-8, so don't use the platform encoding. Dump files
+      // written in another platform encoding must be written again.
+      BufferedWriter writer = new BufferedWriter
+        (new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+      writers_.put(fileName, writer);
+      return writer;
     }
+
+    private final String dumpDir_;
+    private final String fileNameSuffix_;
+    private final DumpCompression compression_;
+    private final ExecutorService writeExecutor_;
+    private final LinkedHashMap<String, BufferedWriter> writers_ = new LinkedHashMap<>();
+    private BufferedWriter termFormat_;
+    private BufferedWriter[] itemWriters_;
+    private BufferedWriter propertyEnLabels_;
+    private BufferedWriter propertyDatatype_;
+    private BufferedWriter[] propertyWriters_;
+    private WikidataBinaryDump.Writer binaryWriter_ = null;
   }
 
   private void
-  loadFromDump(String dumpDir) throws FileNotFoundException, IOException
+  loadFromDump(String dumpDir, LoadOptions options)
+    throws FileNotFoundException, IOException
   {
-    try (FileReader file = new FileReader(new File(dumpDir, "itemTermFormatEnglishLanguage.kif"));
-         BufferedReader reader = new BufferedReader(file)) {
-      int nLines = 0;
-      String line;
-      while ((line = reader.readLine()) != null) {
-        ++nLines;
-        if (nLines % 5000000 == 0) {
-          System.out.println("N itemEnLabels lines " + nLines + ", total memory GB " +
-            Runtime.getRuntime().totalMemory() / 1000000000.0);
+    WikidataIngestMetrics metrics = options.metrics != null
+      ? options.metrics : new WikidataIngestMetrics();
+    boolean isBinary = options.useBinaryDump && WikidataBinaryDump.exists(dumpDir);
+
+    // The labels create the items and properties.
+    LinkedHashMap<String, LoadTask> tasks = new LinkedHashMap<>();
+    if (isBinary) {
+      tasks.put("Loading " + WikidataBinaryDump.itemEnLabelsFileName_,
+        () -> WikidataBinaryDump.loadItemEnLabels
+          (dumpDir, items_, itemLabels_, metrics));
+      tasks.put("Loading " + WikidataBinaryDump.propertyEnLabelsFileName_,
+        () -> WikidataBinaryDump.loadPropertyEnLabels
+          (dumpDir, properties_, propertyLabels_, metrics));
+    }
+    else {
+      tasks.put("Loading " + itemTermFormatFileName_,
+        () -> loadItemEnLabels(dumpDir, metrics));
+      tasks.put("Loading " + propertyEnLabelsFileName_,
+        () -> loadPropertyEnLabels(dumpDir, metrics));
+    }
+    runLoadTasks(tasks, options.nThreads);
+    metrics.setMapSizes(items_.size(), properties_.size());
+
+    // The other files only look up the items and properties, and each sets
+    // different fields, so they can be loaded at once.
+    tasks.clear();
+    if (isBinary)
+      tasks.put("Loading " + WikidataBinaryDump.propertyDatatypeFileName_,
+        () -> WikidataBinaryDump.loadPropertyDatatypes(dumpDir, properties_, metrics));
+    else
+      tasks.put("Loading " + propertyDatatypeFileName_,
+        () -> loadPropertyDatatypes(dumpDir, metrics));
+    addSpecLoadTasks
+      (tasks, dumpDir, items_, itemPropertySpecs_, options.propertyIds, isBinary,
+       metrics);
+    addSpecLoadTasks
+      (tasks, dumpDir, properties_, propertyPropertySpecs_, options.propertyIds,
+       isBinary, metrics);
+    runLoadTasks(tasks, options.nThreads);
+
+    System.out.print("Finding instances, subclasses and parts ...");
+    metrics.setStage("index");
+    setHasInstanceHasSubclassAndHasPart(options.nThreads);
+    metrics.setStage("done");
+    System.out.println(" done.");
+  }
+
+  private static <T> void
+  addSpecLoadTasks
+    (Map<String, LoadTask> tasks, String dumpDir, IntObjectHashMap<T> dictionary,
+     List<PropertySpec<T>> specs, Set<Integer> propertyIds, boolean isBinary,
+     WikidataIngestMetrics metrics)
+  {
+    for (PropertySpec<T> spec : specs) {
+      if (propertyIds != null && !propertyIds.contains(spec.propertyId))
+        continue;
+      if (isBinary)
+        tasks.put("Loading property " + spec.label,
+          () -> WikidataBinaryDump.loadSpec(dumpDir, dictionary, spec, metrics));
+      else
+        tasks.put("Loading property " + spec.label,
+          () -> loadSpecFromDump(dumpDir, dictionary, spec, metrics));
+    }
+  }
+
+  /**
+   * A LoadTask loads a dump file, or the files of one property.
+   */
+  interface LoadTask { void load() throws IOException; }
+
+  /**
+   * Run the tasks and wait for them to finish.
+   * @param tasks The key is the description to print.
+   * @param nThreads If 1, run the tasks one after another on this thread.
+   */
+  private static void
+  runLoadTasks(Map<String, LoadTask> tasks, int nThreads) throws IOException
+  {
+    if (nThreads <= 1 || tasks.size() <= 1) {
+      for (Map.Entry<String, LoadTask> entry : tasks.entrySet()) {
+        System.out.print(entry.getKey() + " ...");
+        entry.getValue().load();
+        System.out.println(" done.");
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool
+      (Math.min(nThreads, tasks.size()));
+    try {
+      ArrayList<Future<Object>> futures = new ArrayList<>();
+      for (Map.Entry<String, LoadTask> entry : tasks.entrySet()) {
+        futures.add(executor.submit(() -> {
+          entry.getValue().load();
+          System.out.println(entry.getKey() + " ... done.");
+          return null;
+        }));
+      }
+      // Future.get makes the changes of each task visible to this thread.
+      for (Future<Object> future : futures)
+        getParsedBatch(future);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void
+  loadItemEnLabels(String dumpDir, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    metrics.setStage("load " + itemTermFormatFileName_);
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(dumpDir, itemTermFormatFileName_))) {
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        if (reader.getNLines() % 5000000 == 0) {
+          System.out.println("N itemEnLabels lines " + reader.getNLines() +
+            ", total memory GB " + Runtime.getRuntime().totalMemory() / 1000000000.0);
         }
 
-        Matcher matcher = itemTermFormatEnglishLanguagePattern_.matcher(line);
-        if (!matcher.find())
-          throw new Error("Can't match EnglishLanguage pattern: " + line);
-        int id = Integer.parseInt(matcher.group(1));
-        String label = gson_.fromJson("\"" + matcher.group(2) + "\"", String.class);
+        // (termFormat EnglishLanguage Q123 "label")
+        reader.startKif("termFormat");
+        reader.expectSymbol("EnglishLanguage");
+        int id = reader.nextSymbolId('Q');
+        String label = reader.nextQuotedString();
+        reader.endKif();
         if (!items_.containsKey(id))
-          items_.put(id, new Item(id, label));
+          items_.put(id, new Item(id, itemLabels_, itemLabels_.add(label)));
       }
     }
+    itemLabels_.trimToSize();
+  }
 
-    System.out.print("Loading propertyEnLabels ...");
-    try (FileReader file = new FileReader(new File(dumpDir, "propertyEnLabels.tsv"));
-         BufferedReader reader = new BufferedReader(file)) {
-      int nLines = 0;
-      String line;
-      while ((line = reader.readLine()) != null) {
-        ++nLines;
-        if (nLines % 5000000 == 0) {
-          System.out.println("N propertyEnLabels lines " + nLines + ", total memory GB " +
-            Runtime.getRuntime().totalMemory() / 1000000000.0);
+  private void
+  loadPropertyEnLabels(String dumpDir, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    metrics.setStage("load " + propertyEnLabelsFileName_);
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(dumpDir, propertyEnLabelsFileName_))) {
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        if (reader.getNLines() % 5000000 == 0) {
+          System.out.println("N propertyEnLabels lines " + reader.getNLines() +
+            ", total memory GB " + Runtime.getRuntime().totalMemory() / 1000000000.0);
         }
 
-        String[] splitLine = line.split("\\t");
-        int id = Integer.parseInt(splitLine[0]);
-        String label = splitLine.length < 2 ? ""
-          : gson_.fromJson("\"" + splitLine[1] + "\"", String.class);
+        int id = reader.nextInt();
+        // Decode the Json value.
+        String label = reader.hasNextField() ? reader.nextString() : "";
         if (!properties_.containsKey(id))
-          // Decode the Json value.
-          properties_.put(id, new Property(id, label));
+          properties_.put
+            (id, new Property(id, propertyLabels_, propertyLabels_.add(label)));
       }
     }
-    System.out.println(" done.");
+    propertyLabels_.trimToSize();
+  }
 
-    try (FileReader file = new FileReader(new File(dumpDir, "propertyDatatype.tsv"));
-         BufferedReader reader = new BufferedReader(file)) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] splitLine = line.split("\\t");
-        int id = Integer.parseInt(splitLine[0]);
-        properties_.get(id).datatype_ = getDatatypeFromString(splitLine[1]);
+  private void
+  loadPropertyDatatypes(String dumpDir, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    metrics.setStage("load " + propertyDatatypeFileName_);
+    try (DumpLineReader reader = new DumpLineReader
+          (DumpCompression.find(dumpDir, propertyDatatypeFileName_))) {
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        int id = reader.nextInt();
+        properties_.get(id).datatype_ = getDatatypeFromString(reader.nextField());
       }
     }
+  }
 
-    loadPropertyFromDump
-      (new File(dumpDir, "instanceOf.tsv").getAbsolutePath(), items_, "instance of", 
-       (Item obj, int[] x) -> { obj.instanceOf_ = x; });
-    loadPropertyFromDump
-      (new File(dumpDir, "subclassOf.tsv").getAbsolutePath(), items_, "subclass of", 
-       (Item obj, int[] x) -> { obj.subclassOf_ = x; });
-    loadPropertyFromDump
-      (new File(dumpDir, "partOf.tsv").getAbsolutePath(), items_, "part of", 
-       (Item obj, int[] x) -> { obj.partOf_ = x; });
-    loadPropertyFromDump
-      (new File(dumpDir, "saidToBeTheSameAs.tsv").getAbsolutePath(), items_, "said to be the same as",
-       (Item obj, int[] x) -> { obj.saidToBeTheSameAs_ = x; });
-    loadPropertyFromDump
-      (new File(dumpDir, "locatedInTheAdministrativeTerritorialEntity.tsv").getAbsolutePath(), items_,
-       "located in the administrative territorial entity", 
-       (Item obj, int[] x) -> { obj.locatedInTheAdministrativeTerritorialEntity_ = x; });
-    loadQualifiersFromDump
-      (new File(dumpDir, "locatedInTheAdministrativeTerritorialEntityQualifiers.tsv").getAbsolutePath(), items_,
-       "located in the administrative territorial entity",
-       (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntityQualifiers_,
-       (Item obj, Map<Integer, Map<Integer, int[]>> x) -> { obj.locatedInTheAdministrativeTerritorialEntityQualifiers_ = x; });
-    loadPropertyFromDump
-      (new File(dumpDir, "locatedInTimeZone.tsv").getAbsolutePath(), items_,
-       "located in time zone", 
-       (Item obj, int[] x) -> { obj.locatedInTimeZone_ = x; });
-    loadQualifiersFromDump
-      (new File(dumpDir, "locatedInTimeZoneQualifiers.tsv").getAbsolutePath(), items_,
-       "located in time zone",
-       (Item obj) -> obj.locatedInTimeZoneQualifiers_,
-       (Item obj, Map<Integer, Map<Integer, int[]>> x) -> { obj.locatedInTimeZoneQualifiers_ = x; });
-    loadStringPropertyFromDump
-      (new File(dumpDir, "iataAirportCode.tsv").getAbsolutePath(), items_, "IATA airport code",
-       (Item obj, String[] x) -> { obj.iataAirportCode_ = x; });
-
-    loadPropertyFromDump
-      (new File(dumpDir, "propertySubpropertyOf.tsv").getAbsolutePath(), properties_,
-       "subproperty of", 
-       (Property obj, int[] x) -> { obj.subpropertyOf_ = x; });
+  /**
+   * Add the line and its bytes to the metrics.
+   */
+  private static void
+  addLine(WikidataIngestMetrics metrics, Utf8Line line)
+  {
+    metrics.addLines(1);
+    metrics.addDecompressedBytes(line.length() + 1);
+  }
 
-    System.out.print("Finding instances, subclasses and parts ...");
-    setHasInstanceHasSubclassAndHasPart();
-    System.out.println(" done.");
+  private static <T> void
+  loadSpecFromDump
+    (String dumpDir, IntObjectHashMap<T> dictionary, PropertySpec<T> spec,
+     WikidataIngestMetrics metrics) throws IOException
+  {
+    metrics.setStage("load " + spec.fileName);
+    String filePath = DumpCompression.find(dumpDir, spec.fileName).getAbsolutePath();
+    if (spec.valueType == WikidataEntityScanner.ValueType.String)
+      loadStringPropertyFromDump
+        (filePath, dictionary, spec.setStringValues, metrics);
+    else
+      loadPropertyFromDump
+        (filePath, dictionary, spec.setValues, metrics);
+
+    if (spec.hasQualifiers()) {
+      metrics.setStage("load " + spec.qualifiersFileName);
+      loadQualifiersFromDump
+        (DumpCompression.find(dumpDir, spec.qualifiersFileName).getAbsolutePath(),
+         dictionary,
+         spec.getQualifiers, spec.setQualifiers, metrics);
+    }
   }
 
   private static <T> void
   loadPropertyFromDump
-    (String filePath, Map<Integer, T> dictionary, String propertyLabel,
-     SetIntArray<T> setPropertyValues) throws IOException
+    (String filePath, IntObjectHashMap<T> dictionary,
+     SetIntArray<T> setPropertyValues, WikidataIngestMetrics metrics)
+    throws IOException
   {
-    System.out.print("Loading property " + propertyLabel + " ...");
-
-    try (FileReader file = new FileReader(filePath);
-         BufferedReader reader = new BufferedReader(file)) {
-      Set<Integer> valueSet = new HashSet<>();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] splitLine = line.split("\\t");
-        T obj = dictionary.get(Integer.parseInt(splitLine[0]));
-
-        valueSet.clear();
-        for (int i = 1; i < splitLine.length; ++i)
-          valueSet.add(Integer.parseInt(splitLine[i]));
-        setPropertyValues.setIntArray(obj, setToArray(valueSet));
+    try (DumpLineReader reader = new DumpLineReader(new File(filePath))) {
+      DumpLineReader.IntArrayBuilder values = new DumpLineReader.IntArrayBuilder();
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        T obj = dictionary.get(reader.nextInt());
+
+        values.clear();
+        while (reader.hasNextField())
+          values.add(reader.nextInt());
+        setPropertyValues.setIntArray(obj, values.toUniqueArray());
       }
     }
-
-    System.out.println(" done.");
   }
 
   private static <T> void
   loadStringPropertyFromDump
-    (String filePath, Map<Integer, T> dictionary, String propertyLabel,
-     SetStringArray<T> setPropertyValues) throws IOException
+    (String filePath, IntObjectHashMap<T> dictionary,
+     SetStringArray<T> setPropertyValues, WikidataIngestMetrics metrics)
+    throws IOException
   {
-    System.out.print("Loading property " + propertyLabel + " ...");
-
-    try (FileReader file = new FileReader(filePath);
-         BufferedReader reader = new BufferedReader(file)) {
-      Set<String> valueSet = new HashSet<>();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] splitLine = line.split("\\t");
-        T obj = dictionary.get(Integer.parseInt(splitLine[0]));
-
-        valueSet.clear();
-        for (int i = 1; i < splitLine.length; ++i)
-          valueSet.add(gson_.fromJson("\"" + splitLine[i] + "\"", String.class));
-        setPropertyValues.setStringArray(obj, stringSetToArray(valueSet));
+    try (DumpLineReader reader = new DumpLineReader(new File(filePath))) {
+      ArrayList<String> values = new ArrayList<>();
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        T obj = dictionary.get(reader.nextInt());
+
+        values.clear();
+        while (reader.hasNextField()) {
+          String value = reader.nextString();
+          // There are only a few values, so a linear search is fastest.
+          if (!values.contains(value))
+            values.add(value);
+        }
+        setPropertyValues.setStringArray(obj, values.toArray(new String[values.size()]));
       }
     }
-
-    System.out.println(" done.");
   }
 
   private static <T> void
   loadQualifiersFromDump
-    (String filePath, Map<Integer, T> dictionary, String propertyLabel,
-     GetQualifiersMap<T> getQualifiers, SetQualifiersMap<T> setQualifiers)
-     throws IOException
+    (String filePath, IntObjectHashMap<T> dictionary,
+     GetQualifiers<T> getQualifiers, SetQualifiers<T> setQualifiers,
+     WikidataIngestMetrics metrics) throws IOException
   {
-    System.out.print("Loading qualifiers for property " + propertyLabel + " ...");
-
-    try (FileReader file = new FileReader(filePath);
-         BufferedReader reader = new BufferedReader(file)) {
-      HashSet valueSet = new HashSet<>();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] splitLine = line.split("\\t");
-        int itemId = Integer.parseInt(splitLine[0]);
-        int itemPropertyId = Integer.parseInt(splitLine[1]);
-        int qualifierPropertyId = Integer.parseInt(splitLine[2]);
-        valueSet.clear();
-        for (int i = 3; i < splitLine.length; ++i)
-          valueSet.add(Integer.parseInt(splitLine[i]));
-
-        T obj = dictionary.get(itemId);
-        if (getQualifiers.getQualifiersMap(obj) == null)
-          setQualifiers.setQualifiersMap(obj, new HashMap<>());
-
-        Map<Integer, int[]> qualifierValuesMap =
-          getQualifiers.getQualifiersMap(obj).get(itemPropertyId);
-        if (qualifierValuesMap == null) {
-          qualifierValuesMap = new HashMap<>();
-          getQualifiers.getQualifiersMap(obj).put(itemPropertyId, qualifierValuesMap);
+    // The lines of an entity are together, so build its qualifiers and set
+    // them when the entity ID changes.
+    WikidataQualifiers.Interner interner = new WikidataQualifiers.Interner();
+    WikidataQualifiers.Builder builder = new WikidataQualifiers.Builder();
+    T obj = null;
+    try (DumpLineReader reader = new DumpLineReader(new File(filePath))) {
+      DumpLineReader.IntArrayBuilder values = new DumpLineReader.IntArrayBuilder();
+      int previousItemId = -1;
+      while (reader.next()) {
+        addLine(metrics, reader.getLine());
+        int itemId = reader.nextInt();
+        int itemPropertyId = reader.nextInt();
+        int qualifierPropertyId = reader.nextInt();
+        values.clear();
+        while (reader.hasNextField())
+          values.add(reader.nextInt());
+
+        if (itemId != previousItemId) {
+          setQualifiers(obj, builder, getQualifiers, setQualifiers, interner);
+          obj = dictionary.get(itemId);
+          previousItemId = itemId;
         }
-        qualifierValuesMap.put(qualifierPropertyId, setToArray(valueSet));
+        builder.add(itemPropertyId, qualifierPropertyId, values.toUniqueArray());
       }
     }
+    setQualifiers(obj, builder, getQualifiers, setQualifiers, interner);
+  }
 
-    System.out.println(" done.");
+  /**
+   * Set the qualifiers of obj to its existing qualifiers, if any, and the ones
+   * in builder, then clear builder.
+   */
+  private static <T> void
+  setQualifiers
+    (T obj, WikidataQualifiers.Builder builder, GetQualifiers<T> getQualifiers,
+     SetQualifiers<T> setQualifiers, WikidataQualifiers.Interner interner)
+  {
+    if (builder.isEmpty())
+      return;
+
+    WikidataQualifiers existing = getQualifiers.getQualifiers(obj);
+    if (existing != null) {
+      // Add the new ones again so that they replace the existing ones.
+      WikidataQualifiers.Builder merged = new WikidataQualifiers.Builder();
+      merged.addAll(existing);
+      merged.addAll(builder.build(null));
+      setQualifiers.setQualifiers(obj, merged.build(interner));
+    }
+    else
+      setQualifiers.setQualifiers(obj, builder.build(interner));
+    builder.clear();
   }
 
   private void
-  setHasInstanceHasSubclassAndHasPart()
+  setHasInstanceHasSubclassAndHasPart(int nThreads)
   {
-    for (Item item : items_.values()) {
-      if (item.instanceOf_ != null) {
-        for (int id : item.instanceOf_) {
-          Item value = items_.get(id);
-          if (value != null)
-            value.addHasInstance(item.Id);
-        }
-      }
-
-      if (item.subclassOf_ != null) {
-        for (int id : item.subclassOf_) {
-          Item value = items_.get(id);
-          if (value != null)
-            value.addHasSubclass(item.Id);
-        }
-      }
+    WikidataReverseRelation[] reverseRelations = WikidataReverseRelation.build
+      (items_, Arrays.asList
+         ((Item item) -> item.instanceOf_, (Item item) -> item.subclassOf_,
+          (Item item) -> item.partOf_),
+       nThreads);
+    hasInstance_ = reverseRelations[0];
+    hasSubclass_ = reverseRelations[1];
+    hasPart_ = reverseRelations[2];
+  }
 
-      if (item.partOf_ != null) {
-        for (int id : item.partOf_) {
-          Item value = items_.get(id);
-          if (value != null)
-            value.addHasPart(item.Id);
-        }
-      }
+  /**
+   * Read the dump file and return the closed subset of items that the
+   * calendar needs. This only scans the claims for the subset edges and
+   * seeds. A line without any of those claims is not scanned.
+   */
+  private static WikidataSubset
+  findSubset
+    (String dumpFilePath, DumpOptions options, WikidataIngestMetrics metrics)
+    throws IOException
+  {
+    System.out.println("Finding the subset of items ...");
+    metrics.setStage("subset");
+    WikidataSubset subset = new WikidataSubset();
+    try (InputStream dumpIn = WikidataDumpInput.open
+           (dumpFilePath, options.nInputThreads, options.inputChunkSize);
+         Utf8LineReader reader = new Utf8LineReader(dumpIn)) {
+      processLines
+        (reader, 0, options, metrics, SubsetBatch::new,
+         WikidataJava::processSubsetLine,
+         (SubsetBatch batch) -> subset.addAll(batch.subset_));
     }
+
+    int nEdges = subset.getNEdges();
+    subset.close();
+    System.out.println("Subset has " + subset.getNItems() + " items from " +
+      subset.getNSeeds() + " seeds and " + nEdges + " edges");
+    return subset;
   }
 
+  /**
+   * If the line is an item which has any of the subsetClaims_, add its edges
+   * and add it as a seed if it has a seed claim.
+   */
   private static void
-  processLine
-    (String line, int nLines, Map<Integer, Item> items,
-     Map<Integer, Property> properties, List<String> messages) throws IOException
+  processSubsetLine(CharSequence line, int nLines, SubsetBatch batch)
   {
-    // Assume one item or property per line.
+    int id = getItemId(line);
+    if (id < 0) {
+      if (line.length() == 0 || line.charAt(0) == '[' || line.charAt(0) == ']' ||
+          line.charAt(0) == ',')
+        return;
+      Matcher matcher = itemPattern_.matcher(line);
+      if (!matcher.find())
+        // A property, which is checked when the line is parsed.
+        return;
+      id = Integer.parseInt(matcher.group(1));
+    }
 
-    // Skip blank lines and the open/close of the outer list.
-    if (line.length() == 0 || line.charAt(0) == '[' || line.charAt(0) == ']' ||
-        line.charAt(0) == ',')
+    // Prefilter on the bytes of the claim names. This is much faster than
+    // scanning the claims, and most lines don't have a seed claim.
+    boolean hasClaim = false;
+    for (String claimName : subsetClaimNames_) {
+      if (WikidataEntityScanner.indexOf(line, claimName, 0) >= 0) {
+        hasClaim = true;
+        break;
+      }
+    }
+    if (!hasClaim)
       return;
 
-    Matcher matcher = itemPattern_.matcher(line);
-    if (matcher.find()) {
-      Item item = processItem(line, Integer.parseInt(matcher.group(1)), messages);
-      if (items.containsKey(item.Id))
-        messages.add(">>>>>> Replacing existing item " + items.get(item.Id));
-      items.put(item.Id, item);
-    }
-    else {
-      matcher = propertyPattern_.matcher(line);
-      if (matcher.find()) {
-        Property property = processProperty
-          (line, Integer.parseInt(matcher.group(2)), matcher.group(1), messages);
-        if (properties.containsKey(property.Id))
-          messages.add("Already have property P" + property.Id + " \"" + 
-            properties.get(property.Id) + "\". Got \"" + property + "\"");
-        properties.put(property.Id, property);
+    WikidataEntityScanner scanner = batch.scanner_;
+    long startNanos = System.nanoTime();
+    scanner.scan(line, id);
+    batch.claimScanNanos_ += System.nanoTime() - startNanos;
+    for (int propertyId : subsetEdgeProperties_) {
+      int[] values = scanner.getValues(propertyId);
+      if (values != null) {
+        for (int value : values)
+          batch.subset_.addEdge(id, value);
       }
-      else
-        throw new Error
-          ("Line " + nLines + " not an item or property: " +
-           line.substring(0, Math.min(75, line.length())));
     }
+    if (scanner.getValues(PlocatedInTimeZone) != null ||
+        scanner.getValues(PlocatedInTheAdministrativeTerritorialEntity) != null ||
+        scanner.getStringValues(PiataAirportCode) != null)
+      batch.subset_.addSeed(id);
   }
 
-  private static Item
-  processItem(String line, int id, List<String> messages) throws IOException
+  /**
+   * If the line starts like an item, return its ID. Otherwise return -1 and
+   * the caller should check the line with itemPattern_.
+   */
+  private static int
+  getItemId(CharSequence line)
   {
-    Item item = new Item(id, getEnLabel(line));
-    List<Map<Integer, Map<Integer, int[]>>> qualifiers = new ArrayList<>();
-    qualifiers.add(null);
-
-    item.instanceOf_ = setToArray
-      (getPropertyValues(item, "instance of", line, PinstanceOf, messages, false, null));
-    item.subclassOf_ = setToArray
-      (getPropertyValues(item, "subclass of", line, PsubclassOf, messages, false, null));
-    item.partOf_ = setToArray
-      (getPropertyValues(item, "part of", line, PpartOf, messages, false, null));
-    item.saidToBeTheSameAs_ = setToArray
-      (getPropertyValues(item, "said to be the same as", line, PsaidToBeTheSameAs, messages, false, null));
-    item.locatedInTheAdministrativeTerritorialEntity_ = setToArray
-      (getPropertyValues(item, "located in the administrative territorial entity", line,
-       PlocatedInTheAdministrativeTerritorialEntity, messages, false, qualifiers));
-    item.locatedInTheAdministrativeTerritorialEntityQualifiers_ = qualifiers.get(0);
-    item.locatedInTimeZone_ = setToArray(getPropertyValues
-      (item, "located in time zone", line, PlocatedInTimeZone, messages, false,
-       qualifiers));
-    item.locatedInTimeZoneQualifiers_ = qualifiers.get(0);
-    item.iataAirportCode_ = stringSetToArray
-      (getPropertyStringValues(item, "IATA airport code", line, PiataAirportCode, messages, qualifiers));
+    if (!WikidataEntityScanner.regionMatches(line, 0, itemPrefix_))
+      return -1;
 
-    return item;
+    int id = 0;
+    int i = itemPrefix_.length();
+    for (; i < line.length(); ++i) {
+      char c = line.charAt(i);
+      if (c < '0' || c > '9')
+        break;
+      if (id > (Integer.MAX_VALUE - 9) / 10)
+        return -1;
+      id = id * 10 + (c - '0');
+    }
+    if (i == itemPrefix_.length() || i >= line.length() || line.charAt(i) != '\"')
+      return -1;
+    return id;
   }
 
-  private static int[] setToArray(Set<Integer> set)
+  private static void
+  skipFully(InputStream in, long n) throws IOException
   {
-    if (set == null)
-      return null;
-
-    int[] result = new int[set.size()];
-    int i = 0;
-    for (int x : set)
-      result[i++] = x;
-    return result;
+    byte[] buffer = new byte[1 << 16];
+    while (n > 0) {
+      int nRead = in.read(buffer, 0, (int)Math.min(n, buffer.length));
+      if (nRead < 0)
+        throw new EOFException("The dump file is shorter than the checkpoint");
+      n -= nRead;
+    }
   }
 
-  private static String[] stringSetToArray(Set<String> set)
+  /**
+   * Read the lines from the reader and parse each into a batch, then merge
+   * each batch. If options.nThreads is more than 1, parse batches of lines in
+   * parallel. Either way, batches are merged in the order they were read, so
+   * that the result is the same as when parsing on one thread.
+   * @param nLines The number of lines before the first line from the reader.
+   * @param metrics Lines, bytes and the batch times are added to this.
+   * @return The total number of lines read.
+   */
+  private static <B extends BatchResult> int
+  processLines
+    (Utf8LineReader reader, int nLines, DumpOptions options,
+     WikidataIngestMetrics metrics, Supplier<B> newBatch, LineParser<B> parser,
+     BatchMerger<B> merger) throws IOException
   {
-    if (set == null)
-      return null;
+    merger = new MeasuredMerger<>(merger, metrics, nLines, reader.getPosition());
+    if (options.nThreads > 1)
+      return processLinesInParallel
+        (reader, nLines, options, newBatch, parser, merger);
+
+    B batch = newBatch.get();
+    Utf8Line line = new Utf8Line();
+    while (reader.readLine(line)) {
+      ++nLines;
+      if (nLines % 500000 == 0) {
+        System.out.println("nLines " + nLines + ", total memory GB " +
+          Runtime.getRuntime().totalMemory() / 1000000000.0);
+      }
 
-    String[] result = new String[set.size()];
-    int i = 0;
-    for (String x : set)
-      result[i++] = x;
-    return result;
+      parser.parse(line, nLines, batch);
+      batch.lastLineNumber_ = nLines;
+      batch.endPosition_ = reader.getPosition();
+      merger.merge(batch);
+    }
+
+    return nLines;
   }
 
-  private static int[] listToArray(List<Integer> list)
+  /**
+   * Read batches of lines from the reader and parse them on a pool of
+   * options.nThreads threads.
+   */
+  private static <B extends BatchResult> int
+  processLinesInParallel
+    (Utf8LineReader reader, int nLines, DumpOptions options,
+     Supplier<B> newBatch, LineParser<B> parser, BatchMerger<B> merger)
+    throws IOException
   {
-    if (list == null)
-      return null;
+    ExecutorService executor = Executors.newFixedThreadPool(options.nThreads);
+    // Limit the batches in flight so that the reader can't run ahead of the
+    // parsers and fill the heap.
+    int maxPendingBatches = options.nThreads * 4;
+    ArrayDeque<Future<B>> pendingBatches = new ArrayDeque<>();
+    Utf8Line line = new Utf8Line();
+
+    try {
+      while (true) {
+        // Copy the line bytes into the batch since the reader reuses its buffer.
+        LineBatch lines = new LineBatch(nLines + 1);
+        while (lines.size() < options.batchSize &&
+               lines.byteSize() < maxBatchBytes_ && reader.readLine(line)) {
+          ++nLines;
+          if (nLines % 500000 == 0) {
+            System.out.println("nLines " + nLines + ", total memory GB " +
+              Runtime.getRuntime().totalMemory() / 1000000000.0);
+          }
 
-    int[] result = new int[list.size()];
-    int i = 0;
-    for (int x : list)
-      result[i++] = x;
-    return result;
+          lines.add(line);
+        }
+        if (lines.size() == 0)
+          break;
+        long endPosition = reader.getPosition();
+
+        pendingBatches.add(executor.submit(() -> {
+          B batch = newBatch.get();
+          Utf8Line batchLine = new Utf8Line();
+          for (int i = 0; i < lines.size(); ++i) {
+            lines.get(i, batchLine);
+            parser.parse(batchLine, lines.firstLineNumber_ + i, batch);
+          }
+          batch.lastLineNumber_ = lines.firstLineNumber_ + lines.size() - 1;
+          batch.endPosition_ = endPosition;
+          return batch;
+        }));
+
+        if (pendingBatches.size() >= maxPendingBatches)
+          merger.merge(getParsedBatch(pendingBatches.remove()));
+      }
+
+      while (!pendingBatches.isEmpty())
+        merger.merge(getParsedBatch(pendingBatches.remove()));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    return nLines;
   }
 
-  private static Property
-  processProperty
-    (String line, int id, String datatypeString, List<String> messages) throws IOException
+  private static <B> B
+  getParsedBatch(Future<B> future) throws IOException
   {
-    String enLabel = getEnLabel(line);
-    if (enLabel == "")
-      messages.add("No enLabel for property P" + id);
-    Property property = new Property(id, enLabel);
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing the dump");
+    } catch (ExecutionException ex) {
+      // Rethrow the parser's exception as if it were parsed on this thread.
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException)
+        throw (IOException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new Error(cause);
+    }
+  }
 
-    property.subpropertyOf_ = setToArray
-      (getPropertyValues(null, "subproperty of", line, 1647, messages, true, null));
-    property.datatype_ = getDatatypeFromString(datatypeString);
+  /**
+   * A LineBatch holds a copy of the bytes of a batch of lines which the reader
+   * passes to a parsing thread.
+   */
+  private static class LineBatch {
+    public LineBatch(int firstLineNumber) { firstLineNumber_ = firstLineNumber; }
 
-    return property;
+    public int size() { return nLines_; }
+
+    public int byteSize() { return nBytes_; }
+
+    public void
+    add(Utf8Line line)
+    {
+      int length = line.length();
+      if (nBytes_ + length > bytes_.length)
+        bytes_ = Arrays.copyOf(bytes_, Math.max(bytes_.length * 2, nBytes_ + length));
+      line.copyTo(bytes_, nBytes_);
+
+      if (nLines_ + 1 >= lineOffsets_.length)
+        lineOffsets_ = Arrays.copyOf(lineOffsets_, lineOffsets_.length * 2);
+      nBytes_ += length;
+      lineOffsets_[++nLines_] = nBytes_;
+    }
+
+    /**
+     * Set line to a view of the line at the index.
+     */
+    public void
+    get(int index, Utf8Line line)
+    {
+      line.set(bytes_, lineOffsets_[index], lineOffsets_[index + 1] - lineOffsets_[index]);
+    }
+
+    public final int firstLineNumber_;
+    private byte[] bytes_ = new byte[1 << 16];
+    /** Line i is from lineOffsets_[i] to lineOffsets_[i + 1]. */
+    private int[] lineOffsets_ = new int[256];
+    private int nLines_ = 0;
+    private int nBytes_ = 0;
   }
 
-  private static Set<Integer>
-  getPropertyValues
-    (Item item, String propertyName, String line, int propertyId,
-     List<String> messages, boolean objIsProperty,
-     List<Map<Integer, Map<Integer, int[]>>> qualifiersReturn) throws IOException
-  {
-    String qualifiersStart = ",\"qualifiers\":";
-    HashSet<Integer> valueSet = new HashSet<>();
-    Map<Integer, Map<Integer, int[]>> qualifiers = new HashMap<>();
-
-    Pattern pattern = Pattern.compile
-      ("\"mainsnak\":\\{\"snaktype\":\"value\",\"property\":\"P" + propertyId +
-       "\",\"datavalue\":\\{\"value\":\\{\"entity-type\":\"" + (objIsProperty ? "property" : "item") +
-       "\",\"numeric-id\":(\\d+)" +
-       // If not objIsProperty, scan up to the beginning of possible qualifiers.
-       (objIsProperty ? "" : ",\"id\":\"Q\\d+\"},\"type\":\"wikibase-entityid\"},\"datatype\":\"wikibase-item\"},\"type\":\"statement\""));
-    Matcher matcher = pattern.matcher(line);
-    while (matcher.find()) {
-      int value = Integer.parseInt(matcher.group(1));
-      if (objIsProperty)
-        // TODO: Check for property self reference.
-        valueSet.add(value);
-      else {
-        if (value != item.Id) {
-          int iQualifiersStartEnd = matcher.end(0) + qualifiersStart.length();
-          boolean hasQualifiers = (iQualifiersStartEnd < line.length() &&
-            line.regionMatches(matcher.end(0), qualifiersStart, 0, qualifiersStart.length()));
-          if (hasQualifiers && qualifiersReturn != null) {
-            Map<Integer, int[]> qualifiersValues = readQualifiers
-              (line, iQualifiersStartEnd);
-            if (qualifiersValues.size() > 0)
-              qualifiers.put(value, qualifiersValues);
-          }
+  private interface LineParser<B> { void parse(CharSequence line, int lineNumber, B batch); }
+  private interface BatchMerger<B> { void merge(B batch) throws IOException; }
+
+  /**
+   * A BatchResult is the base class of the result of parsing a batch of lines.
+   */
+  private static class BatchResult {
+    /**
+     * Add the stage times to the metrics and reset them.
+     */
+    public void
+    addTimesTo(WikidataIngestMetrics metrics)
+    {
+      metrics.addLabelDecodeNanos(labelDecodeNanos_);
+      metrics.addEntityMatchNanos(entityMatchNanos_);
+      metrics.addClaimScanNanos(claimScanNanos_);
+      metrics.addQualifierParseNanos(qualifierParseNanos_);
+      labelDecodeNanos_ = entityMatchNanos_ = claimScanNanos_ = qualifierParseNanos_ = 0;
+    }
+
+    /** The line number of the last line in the batch. */
+    public int lastLineNumber_ = 0;
+    /** The reader position after the last line in the batch. */
+    public long endPosition_ = 0;
+    public long labelDecodeNanos_ = 0;
+    public long entityMatchNanos_ = 0;
+    /** The nanoseconds to scan claims, not including qualifiers. */
+    public long claimScanNanos_ = 0;
+    public long qualifierParseNanos_ = 0;
+  }
+
+  /**
+   * A MeasuredMerger adds the lines, bytes and times of each batch to the
+   * metrics, then passes it to the merger.
+   */
+  private static class MeasuredMerger<B extends BatchResult> implements BatchMerger<B> {
+    public MeasuredMerger
+      (BatchMerger<B> merger, WikidataIngestMetrics metrics, int lastLineNumber,
+       long lastPosition)
+    {
+      merger_ = merger;
+      metrics_ = metrics;
+      lastLineNumber_ = lastLineNumber;
+      lastPosition_ = lastPosition;
+    }
+
+    @Override
+    public void
+    merge(B batch) throws IOException
+    {
+      metrics_.addLines(batch.lastLineNumber_ - lastLineNumber_);
+      metrics_.addDecompressedBytes(batch.endPosition_ - lastPosition_);
+      lastLineNumber_ = batch.lastLineNumber_;
+      lastPosition_ = batch.endPosition_;
+      batch.addTimesTo(metrics_);
+      merger_.merge(batch);
+    }
+
+    private final BatchMerger<B> merger_;
+    private final WikidataIngestMetrics metrics_;
+    private int lastLineNumber_;
+    private long lastPosition_;
+  }
+
+  /**
+   * A SubsetBatch holds the subset edges and seeds from a batch of lines.
+   */
+  private static class SubsetBatch extends BatchResult {
+    public final WikidataSubset subset_ = new WikidataSubset();
+    public final WikidataEntityScanner scanner_ =
+      new WikidataEntityScanner(subsetClaims_);
+  }
+
+  /**
+   * A ParsedBatch holds the items and properties parsed from a batch of lines,
+   * plus the messages from parsing, so that they can be merged into the result
+   * maps in line order.
+   */
+  private static class ParsedBatch extends BatchResult {
+    public void
+    addEntity(Object entity, int nMessagesBefore)
+    {
+      entities_.add(entity);
+      nMessagesBefore_.add(nMessagesBefore);
+    }
 
-          valueSet.add(value);
+    /**
+     * Add the entities to items and properties, and add the messages, in the
+     * same order as parsing one line at a time. Then clear this batch.
+     * @param checkpoint If not null, pass each entity to addMerged.
+     */
+    public void
+    mergeInto
+      (IntObjectHashMap<Item> items, IntObjectHashMap<Property> properties,
+       List<String> messages, WikidataCheckpoint checkpoint)
+    {
+      int iMessage = 0;
+      for (int i = 0; i < entities_.size(); ++i) {
+        int nMessagesBefore = nMessagesBefore_.get(i);
+        while (iMessage < nMessagesBefore)
+          messages.add(messages_.get(iMessage++));
+
+        Object entity = entities_.get(i);
+        if (checkpoint != null)
+          checkpoint.addMerged(entity);
+        if (entity instanceof Item) {
+          Item item = (Item)entity;
+          if (items.containsKey(item.Id))
+            messages.add(">>>>>> Replacing existing item " + items.get(item.Id));
+          items.put(item.Id, item);
+        }
+        else {
+          Property property = (Property)entity;
+          if (properties.containsKey(property.Id))
+            messages.add("Already have property P" + property.Id + " \"" + 
+              properties.get(property.Id) + "\". Got \"" + property + "\"");
+          properties.put(property.Id, property);
         }
-        else
-          messages.add("Item is " + propertyName + " itself: " + item);
       }
+      while (iMessage < messages_.size())
+        messages.add(messages_.get(iMessage++));
+
+      entities_.clear();
+      nMessagesBefore_.clear();
+      messages_.clear();
     }
 
-    if (qualifiersReturn != null)
-      qualifiersReturn.set(0, qualifiers.size() > 0 ? qualifiers : null);
+    /** Each entity is an Item or Property. */
+    private final ArrayList<Object> entities_ = new ArrayList<>();
+    /** The number of messages_ added before the matching entity was parsed. */
+    private final ArrayList<Integer> nMessagesBefore_ = new ArrayList<>();
+    private final ArrayList<String> messages_ = new ArrayList<>();
+  }
 
-    if (valueSet.isEmpty())
-      return null;
-    else
-      return valueSet;
+  /**
+   * A DumpState holds the results of dumpFromJson which parsed batches are
+   * merged into, and the checkpoint if enabled.
+   */
+  private static class DumpState {
+    public DumpState(List<String> messages, WikidataIngestMetrics metrics)
+    {
+      messages_ = messages;
+      metrics_ = metrics;
+    }
+
+    /**
+     * Merge the batch and write a checkpoint if it is time.
+     */
+    public void
+    merge(ParsedBatch batch) throws IOException
+    {
+      int lastLineNumber = batch.lastLineNumber_;
+      long endPosition = batch.endPosition_;
+      batch.mergeInto(items_, properties_, messages_, checkpoint_);
+      if (spill_ != null) {
+        for (Item item : items_.values())
+          spill_.add(item);
+        items_.clear();
+        metrics_.setMapSizes(spill_.getNItems(), properties_.size());
+      }
+      else
+        metrics_.setMapSizes(items_.size(), properties_.size());
+      if (checkpoint_ != null)
+        checkpoint_.update
+          (lastLineNumber, readerStart_ + endPosition, getRestartPoint_, messages_);
+    }
+
+    public final IntObjectHashMap<Item> items_ = new IntObjectHashMap<>();
+    public final IntObjectHashMap<Property> properties_ = new IntObjectHashMap<>();
+    public final List<String> messages_;
+    public final WikidataIngestMetrics metrics_;
+    public WikidataCheckpoint checkpoint_ = null;
+    /** If not null, items_ are moved here after each merge. */
+    public WikidataSpill spill_ = null;
+    /** Get the restart point for a decompressed offset of the dump. */
+    public LongFunction<long[]> getRestartPoint_ = null;
+    /** The decompressed offset of the dump where the line reader started. */
+    public long readerStart_ = 0;
   }
 
-  private static Set<String>
-  getPropertyStringValues
-    (Item item, String propertyName, String line, int propertyId,
-     List<String> messages,
-     List<Map<Integer, Map<Integer, int[]>>> qualifiersReturn) throws IOException
+  private static void
+  processLine(CharSequence line, int nLines, ParsedBatch batch)
   {
-    String qualifiersStart = ",\"qualifiers\":";
-    HashSet<String> valueSet = new HashSet<>();
-    Map<Integer, Map<Integer, int[]>> qualifiers = new HashMap<>();
-
-    // Debug: ([^\"]*) will not match a string with escaped quotes.
-    Pattern pattern = Pattern.compile
-      ("\"mainsnak\":\\{\"snaktype\":\"value\",\"property\":\"P" + propertyId +
-       "\",\"datavalue\":\\{\"value\":\"([^\"]*)\",\"type\":\"string\"},\"datatype\":\"string\"},\"type\":\"statement\"");
-    Matcher matcher = pattern.matcher(line);
-    while (matcher.find()) {
-      String value = matcher.group(1);
-      int iQualifiersStartEnd = matcher.end(0) + qualifiersStart.length();
-      boolean hasQualifiers = (iQualifiersStartEnd < line.length() &&
-        line.regionMatches(matcher.end(0), qualifiersStart, 0, qualifiersStart.length()));
-/*
-      if (hasQualifiers && qualifiersReturn != null) {
-        Map<Integer, int[]> qualifiersValues = readQualifiers
-          (line, iQualifiersStartEnd);
-        if (qualifiersValues.size() > 0)
-          qualifiers.put(value, qualifiersValues);
-      }
-*/
+    // Assume one item or property per line.
 
-      valueSet.add(value);
+    // Skip blank lines and the open/close of the outer list.
+    if (line.length() == 0 || line.charAt(0) == '[' || line.charAt(0) == ']' ||
+        line.charAt(0) == ',')
+      return;
+
+    long startNanos = System.nanoTime();
+    Matcher matcher = itemPattern_.matcher(line);
+    if (matcher.find()) {
+      int id = Integer.parseInt(matcher.group(1));
+      batch.entityMatchNanos_ += System.nanoTime() - startNanos;
+      Item item = processItem(line, id, batch);
+      batch.addEntity(item, batch.messages_.size());
+    }
+    else {
+      matcher = propertyPattern_.matcher(line);
+      if (matcher.find()) {
+        int id = Integer.parseInt(matcher.group(2));
+        batch.entityMatchNanos_ += System.nanoTime() - startNanos;
+        Property property = processProperty(line, id, matcher.group(1), batch);
+        batch.addEntity(property, batch.messages_.size());
+      }
+      else
+        throw new Error
+          ("Line " + nLines + " not an item or property: " +
+           line.subSequence(0, Math.min(75, line.length())));
     }
+  }
 
-    if (qualifiersReturn != null)
-      qualifiersReturn.set(0, qualifiers.size() > 0 ? qualifiers : null);
+  private static Item
+  processItem(CharSequence line, int id, ParsedBatch batch)
+  {
+    long startNanos = System.nanoTime();
+    Item item = new Item(id, getEnLabel(line));
+    batch.labelDecodeNanos_ += System.nanoTime() - startNanos;
+    WikidataEntityScanner scanner = scan(line, id, itemClaims_, batch);
 
-    if (valueSet.isEmpty())
-      return null;
-    else
-      return valueSet;
+    for (PropertySpec<Item> spec : itemPropertySpecs_) {
+      spec.setFromScanner(item, scanner);
+      addSelfReferenceMessages
+        (scanner, spec.propertyId, spec.label, item, batch.messages_);
+    }
+
+    return item;
   }
 
   /**
-   * Read the JSON object which has multiple qualifiers.
-   * @param json The string containing the JSON qualifiers.
-   * @param iStart The starting index in json of the qualifiers.
-   * @return A Map where the key is the qualifier property ID and the value is
-   * an array of item ID values.
+   * Scan the claims of the line and add the times to the batch.
    */
-  private static Map<Integer, int[]>
-  readQualifiers(String json, int iStart) throws IOException
+  private static WikidataEntityScanner
+  scan
+    (CharSequence line, int id, WikidataEntityScanner.ClaimSpec[] claims,
+     BatchResult batch)
   {
-    Map<Integer, int[]> result = new HashMap<>();
-
-    try (StringReader stringReader = new StringReader(json)) {
-      stringReader.skip(iStart);
-
-      try (JsonReader reader = new JsonReader(stringReader)) {
-        reader.beginObject();
-        while (reader.hasNext()) {
-          // Ignore the name like "P518". We'll get the propertyId below.
-          reader.nextName();
-
-          int previousPropertyId = -1;
-          Set<Integer> valueItemIdSet = new HashSet<>();
-
-          // Read the array of values.
-          reader.beginArray();
-          while (reader.hasNext()) {
-            int propertyId = -1;
-            int valueItemId = -1;
-
-            // Read the value object.
-            reader.beginObject();
-            while (reader.hasNext()) {
-              String name = reader.nextName();
-
-              if (name.equals("property")) {
-                String value = reader.nextString();
-                if (value.startsWith("P")) {
-                  propertyId = Integer.parseInt(value.substring(1));
-                  
-                  if (previousPropertyId < 0)
-                    previousPropertyId = propertyId;
-                  else {
-                    if (propertyId != previousPropertyId)
-                      // We don't expect this to happen.
-                      throw new Error("Unexpected change in qualifier property ID");
-                  }
-                }
-              }
-              else if (name.equals("datavalue")) {
-                // Read the datavalue object.
-                reader.beginObject();
-                while (reader.hasNext()) {
-                  name = reader.nextName();
-
-                  if (name.equals("value")) {
-                    // Read the datavalue value object.
-                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
-                      reader.beginObject();
-                      while (reader.hasNext()) {
-                        name = reader.nextName();
-
-                        if (name.equals("id")) {
-                          String value = reader.nextString();
-                          if (value.startsWith("Q"))
-                            valueItemId = Integer.parseInt(value.substring(1));
-                        }
-                        else
-                          reader.skipValue();
-                      }
-
-                      reader.endObject();
-                      if (valueItemId < 0)
-                        valueItemId = QNull; // debug
-                    }
-                    else
-                      reader.skipValue();
-                  }
-                  else
-                    reader.skipValue();
-                }
-
-                reader.endObject();
-              }
-              else
-                reader.skipValue();
-            }
-
-            reader.endObject();
-
-            if (propertyId >= 0 && valueItemId >= 0)
-              valueItemIdSet.add(valueItemId);
-          }
+    WikidataEntityScanner scanner = new WikidataEntityScanner(claims);
+    long startNanos = System.nanoTime();
+    scanner.scan(line, id);
+    long qualifierNanos = scanner.getQualifierNanos();
+    batch.claimScanNanos_ += System.nanoTime() - startNanos - qualifierNanos;
+    batch.qualifierParseNanos_ += qualifierNanos;
+    return scanner;
+  }
 
-          reader.endArray();
+  private static void
+  addSelfReferenceMessages
+    (WikidataEntityScanner scanner, int propertyId, String propertyName,
+     Item item, List<String> messages)
+  {
+    for (int i = 0; i < scanner.getSelfReferenceCount(propertyId); ++i)
+      messages.add("Item is " + propertyName + " itself: " + item);
+  }
 
-          if (previousPropertyId >= 0 && valueItemIdSet.size() > 0)
-            result.put(previousPropertyId, setToArray(valueItemIdSet));
-        }
+  private static Property
+  processProperty
+    (CharSequence line, int id, String datatypeString, ParsedBatch batch)
+  {
+    long startNanos = System.nanoTime();
+    String enLabel = getEnLabel(line);
+    batch.labelDecodeNanos_ += System.nanoTime() - startNanos;
+    if (enLabel == "")
+      batch.messages_.add("No enLabel for property P" + id);
+    Property property = new Property(id, enLabel);
 
-        reader.endObject();
-      }
-    }
+    WikidataEntityScanner scanner = scan(line, id, propertyClaims_, batch);
+    for (PropertySpec<Property> spec : propertyPropertySpecs_)
+      spec.setFromScanner(property, scanner);
+    property.datatype_ = getDatatypeFromString(datatypeString);
 
-    return result;
+    return property;
   }
 
   private static String
-  getEnLabel(String line)
+  getEnLabel(CharSequence line)
   {
-    int iLabelsStart = line.indexOf("\"labels\":{\"");
+    int iLabelsStart = WikidataEntityScanner.indexOf(line, "\"labels\":{\"", 0);
     if (iLabelsStart < 0)
       return "";
 
     // Debug: Problem if a label has "}}".
-    int iLabelsEnd = line.indexOf("}}", iLabelsStart);
+    int iLabelsEnd = WikidataEntityScanner.indexOf(line, "}}", iLabelsStart);
     if (iLabelsEnd < 0)
       return "";
 
     String enPrefix = "en\":{\"language\":\"en\",\"value\":\"";
-    int iEnStart = line.indexOf(enPrefix, iLabelsStart);
+    int iEnStart = WikidataEntityScanner.indexOf(line, enPrefix, iLabelsStart);
     if (iEnStart >= iLabelsEnd)
       iEnStart = -1;
     if (iEnStart < 0)
@@ -1355,38 +2090,89 @@ public class WikidataJava {
 
     int iEnLabelStart = iEnStart + enPrefix.length();
     // Find the end quote, skipping escaped characters.
+    boolean hasEscape = false;
     int iEndQuote = iEnLabelStart;
-    while (true) {
-      int iBackslash = line.indexOf('\\', iEndQuote);
-      iEndQuote = line.indexOf('\"', iEndQuote);
-      if (iBackslash >= 0 && iBackslash < iEndQuote)
-        // Skip escaped characters.
-        iEndQuote = iBackslash + 2;
-      else
+    while (iEndQuote < line.length()) {
+      char c = line.charAt(iEndQuote);
+      if (c == '\\') {
+        hasEscape = true;
+        iEndQuote += 2;
+      }
+      else if (c == '\"')
         break;
+      else
+        ++iEndQuote;
     }
 
+    if (!hasEscape)
+      // Only decode the UTF-8 of the label.
+      return line.subSequence(iEnLabelStart, iEndQuote).toString();
+
     // Include the surrounding quotes.
-    String jsonString = line.substring(iEnLabelStart - 1, iEndQuote + 1);
+    String jsonString = line.subSequence(iEnLabelStart - 1, iEndQuote + 1).toString();
     // Decode the Json value.
     return gson_.fromJson(jsonString, String.class);
   }
 
-  private static boolean contains(int[] array, int value) {
-    for (int x : array) {
-      if (x == value)
-        return true;
+  private static <T> WikidataEntityScanner.ClaimSpec[]
+  getClaimSpecs(List<PropertySpec<T>> specs)
+  {
+    WikidataEntityScanner.ClaimSpec[] result =
+      new WikidataEntityScanner.ClaimSpec[specs.size()];
+    for (int i = 0; i < specs.size(); ++i)
+      result[i] = specs.get(i).getClaimSpec();
+    return result;
+  }
+
+  /**
+   * Get the names of the text dump files of the item labels and of the
+   * registered item properties with the IDs, which is what loadFromDump reads
+   * for the items with these LoadOptions.propertyIds.
+   */
+  public static List<String>
+  getItemDumpFileNames(Set<Integer> propertyIds)
+  {
+    ArrayList<PropertySpec<Item>> specs = new ArrayList<>();
+    for (PropertySpec<Item> spec : itemPropertySpecs_) {
+      if (propertyIds.contains(spec.propertyId))
+        specs.add(spec);
+    }
+    return getDumpFileNames(specs, itemTermFormatFileName_);
+  }
+
+  /**
+   * Get the fileNames followed by the value and qualifier file names of the
+   * specs.
+   */
+  private static <T> List<String>
+  getDumpFileNames(List<PropertySpec<T>> specs, String... fileNames)
+  {
+    ArrayList<String> result = new ArrayList<>(Arrays.asList(fileNames));
+    for (PropertySpec<T> spec : specs) {
+      result.add(spec.fileName);
+      if (spec.hasQualifiers())
+        result.add(spec.qualifiersFileName);
     }
-    return false;
+    return result;
   }
 
-  public HashMap<Integer, Item> items_ = new HashMap<>();
-  public HashMap<Integer, Property> properties_ = new HashMap<>();
+  public IntObjectHashMap<Item> items_ = new IntObjectHashMap<>();
+  public IntObjectHashMap<Property> properties_ = new IntObjectHashMap<>();
+  // The reverse of instanceOf_, subclassOf_ and partOf_ of the items. These
+  // are set after loading from the dump.
+  public WikidataReverseRelation hasInstance_ = null;
+  public WikidataReverseRelation hasSubclass_ = null;
+  public WikidataReverseRelation hasPart_ = null;
+  private WikidataItemColumns itemColumns_ = null;
+  // The labels of the loaded items and properties. These are separate since
+  // they are loaded at the same time and a LabelArena add isn't thread safe.
+  private final LabelArena itemLabels_ = new LabelArena();
+  private final LabelArena propertyLabels_ = new LabelArena(1 << 16);
 
   public interface GetIntArray<T> { int[] getIntArray(T obj); }
-  public interface GetQualifiersMap<T> { Map<Integer, Map<Integer, int[]>> getQualifiersMap(T obj); }
+  public interface GetQualifiers<T> { WikidataQualifiers getQualifiers(T obj); }
   public interface SetIntArray<T> { void setIntArray(T obj, int[] values); }
-  public interface SetQualifiersMap<T> { void setQualifiersMap(T obj, Map<Integer, Map<Integer, int[]>> values); }
+  public interface SetQualifiers<T> { void setQualifiers(T obj, WikidataQualifiers qualifiers); }
   public interface GetStringArray<T> { String[] getStringArray(T obj); }
   public interface SetStringArray<T> { void setStringArray(T obj, String[] values); }
 
@@ -1435,15 +2221,103 @@ public class WikidataJava {
   public static final int PlatestDate = 1326;
   public static final int Preplaces = 1365;
   public static final int PsourcingCircumstances = 1480;
+  public static final int PsubpropertyOf = 1647;
   public static final int PexceptionToConstraint = 2303;
   public static final int PdiscontinuedDate = 2669;
   private static final Gson gson_ = new Gson();
+  /** The registered properties which dumpFromJson extracts from each item. */
+  public static final List<PropertySpec<Item>> itemPropertySpecs_ =
+    Collections.unmodifiableList(Arrays.asList(
+      new PropertySpec<Item>
+        (PinstanceOf, "instance of", WikidataEntityScanner.ValueType.Item,
+         "instanceOf.tsv", (Item obj) -> obj.instanceOf_,
+         (Item obj, int[] x) -> { obj.instanceOf_ = x; }),
+      new PropertySpec<Item>
+        (PsubclassOf, "subclass of", WikidataEntityScanner.ValueType.Item,
+         "subclassOf.tsv", (Item obj) -> obj.subclassOf_,
+         (Item obj, int[] x) -> { obj.subclassOf_ = x; }),
+      new PropertySpec<Item>
+        (PpartOf, "part of", WikidataEntityScanner.ValueType.Item,
+         "partOf.tsv", (Item obj) -> obj.partOf_,
+         (Item obj, int[] x) -> { obj.partOf_ = x; }),
+      new PropertySpec<Item>
+        (PsaidToBeTheSameAs, "said to be the same as",
+         WikidataEntityScanner.ValueType.Item, "saidToBeTheSameAs.tsv",
+         (Item obj) -> obj.saidToBeTheSameAs_,
+         (Item obj, int[] x) -> { obj.saidToBeTheSameAs_ = x; }),
+      new PropertySpec<Item>
+        (PlocatedInTheAdministrativeTerritorialEntity,
+         "located in the administrative territorial entity",
+         "locatedInTheAdministrativeTerritorialEntity.tsv",
+         (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntity_,
+         (Item obj, int[] x) -> { obj.locatedInTheAdministrativeTerritorialEntity_ = x; },
+         "locatedInTheAdministrativeTerritorialEntityQualifiers.tsv",
+         (Item obj) -> obj.locatedInTheAdministrativeTerritorialEntityQualifiers_,
+         (Item obj, WikidataQualifiers x) -> { obj.locatedInTheAdministrativeTerritorialEntityQualifiers_ = x; }),
+      new PropertySpec<Item>
+        (PlocatedInTimeZone, "located in time zone", "locatedInTimeZone.tsv",
+         (Item obj) -> obj.locatedInTimeZone_,
+         (Item obj, int[] x) -> { obj.locatedInTimeZone_ = x; },
+         "locatedInTimeZoneQualifiers.tsv",
+         (Item obj) -> obj.locatedInTimeZoneQualifiers_,
+         (Item obj, WikidataQualifiers x) -> { obj.locatedInTimeZoneQualifiers_ = x; }),
+      new PropertySpec<Item>
+        (PiataAirportCode, "IATA airport code", "iataAirportCode.tsv",
+         (Item obj) -> obj.iataAirportCode_,
+         (Item obj, String[] x) -> { obj.iataAirportCode_ = x; })));
+
+  /** The registered properties which dumpFromJson extracts from each property. */
+  public static final List<PropertySpec<Property>> propertyPropertySpecs_ =
+    Collections.unmodifiableList(Arrays.asList(
+      new PropertySpec<Property>
+        (PsubpropertyOf, "subproperty of", WikidataEntityScanner.ValueType.Property,
+         "propertySubpropertyOf.tsv", Property::getSubpropertyOf,
+         Property::setSubpropertyOf)));
+  /** The claims which processItem gets from each item line. */
+  private static final WikidataEntityScanner.ClaimSpec[] itemClaims_ =
+    getClaimSpecs(itemPropertySpecs_);
+  /** The claims which processProperty gets from each property line. */
+  private static final WikidataEntityScanner.ClaimSpec[] propertyClaims_ =
+    getClaimSpecs(propertyPropertySpecs_);
+  /** The claims which findSubset gets from each item line. */
+  private static final WikidataEntityScanner.ClaimSpec[] subsetClaims_ = {
+    new WikidataEntityScanner.ClaimSpec
+      (PinstanceOf, WikidataEntityScanner.ValueType.Item, false),
+    new WikidataEntityScanner.ClaimSpec
+      (PsubclassOf, WikidataEntityScanner.ValueType.Item, false),
+    new WikidataEntityScanner.ClaimSpec
+      (PlocatedInTheAdministrativeTerritorialEntity,
+       WikidataEntityScanner.ValueType.Item, false),
+    new WikidataEntityScanner.ClaimSpec
+      (PlocatedInTimeZone, WikidataEntityScanner.ValueType.Item, false),
+    new WikidataEntityScanner.ClaimSpec
+      (PiataAirportCode, WikidataEntityScanner.ValueType.String, false) };
+  /**
+   * The properties of the edges of a WikidataSubset. The time zone edge keeps
+   * the time zone items which getLocationIanaTimeZones needs.
+   */
+  private static final int[] subsetEdgeProperties_ = {
+    PinstanceOf, PsubclassOf, PlocatedInTheAdministrativeTerritorialEntity,
+    PlocatedInTimeZone };
+  /** The quoted names of the subsetClaims_ for the prefilter. */
+  private static final String[] subsetClaimNames_ =
+    { "\"P31\"", "\"P279\"", "\"P131\"", "\"P421\"", "\"P238\"" };
+  private static final String itemPrefix_ = "{\"type\":\"item\",\"id\":\"Q";
+  /** The maximum bytes of lines in a LineBatch, unless a line is longer. */
+  private static final int maxBatchBytes_ = 1 << 24;
   private static final Pattern itemPattern_ = Pattern.compile
     ("^\\{\"type\":\"item\",\"id\":\"Q(\\d+)");
   private static final Pattern propertyPattern_ = Pattern.compile
     ("^\\{\"type\":\"property\",\"datatype\":\"([\\w-]+)\",\"id\":\"P(\\d+)");
   private static final Pattern utcPattern_ = Pattern.compile
     ("^UTC([+\\−])(\\d\\d)\\:(\\d\\d)$");
-  private static final Pattern itemTermFormatEnglishLanguagePattern_ = Pattern.compile
-    ("^\\(termFormat EnglishLanguage Q(\\d+) \"(.*)\"\\)$");
+  private static final Pattern deletedEntityPattern_ = Pattern.compile
+    ("^([QP])(\\d+)$");
+  private static final String termFormatPrefix_ = "(termFormat EnglishLanguage Q";
+  private static final String itemTermFormatFileName_ = "itemTermFormatEnglishLanguage.kif";
+  private static final String propertyEnLabelsFileName_ = "propertyEnLabels.tsv";
+  private static final String propertyDatatypeFileName_ = "propertyDatatype.tsv";
+  /** The dump files written by DumpFileWriter.writeProperty. */
+  private static final List<String> propertyDumpFileNames_ = getDumpFileNames
+    (propertyPropertySpecs_, propertyEnLabelsFileName_, propertyDatatypeFileName_);
 }
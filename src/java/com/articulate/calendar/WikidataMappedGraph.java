@@ -0,0 +1,327 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataBinaryDump.Cursor;
+import com.articulate.calendar.WikidataBinaryDump.TableReader;
+import com.articulate.calendar.WikidataJava.Datatype;
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.Property;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A WikidataMappedGraph is a read-only view of the binary dump written by
+ * dumpFromJson (see WikidataBinaryDump). The table files are memory-mapped
+ * and nothing is loaded into the heap, so opening it is nearly instant. An
+ * ItemView or PropertyView is a flyweight with just the row of the entity in
+ * the label table. Its values are decoded from the mapped tables when asked
+ * for. The reverse relations like WikidataJava.hasInstance_ aren't
+ * available. A WikidataMappedGraph is thread safe.
+ */
+public class WikidataMappedGraph implements Closeable {
+  /**
+   * Map the binary dump in dumpDir.
+   * @throws Error if dumpDir has no binary dump.
+   */
+  public WikidataMappedGraph(String dumpDir) throws IOException
+  {
+    if (!WikidataBinaryDump.exists(dumpDir))
+      throw new Error
+        ("No binary dump in " + dumpDir +
+         ". Write it with dumpFromJson or WikidataBinaryDump.write.");
+
+    try {
+      itemLabels_ = open(dumpDir, WikidataBinaryDump.itemEnLabelsFileName_);
+      propertyLabels_ = open(dumpDir, WikidataBinaryDump.propertyEnLabelsFileName_);
+      propertyDatatypes_ = open(dumpDir, WikidataBinaryDump.propertyDatatypeFileName_);
+      openSpecTables(dumpDir, WikidataJava.itemPropertySpecs_);
+      openSpecTables(dumpDir, WikidataJava.propertyPropertySpecs_);
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    }
+  }
+
+  public int getNItems() { return itemLabels_.getNRows(); }
+
+  public int getNProperties() { return propertyLabels_.getNRows(); }
+
+  /**
+   * Get the item with the ID, or null if there is none.
+   */
+  public ItemView
+  getItem(int id)
+  {
+    int row = itemLabels_.findRow(id);
+    return row < 0 ? null : new ItemView(this, id, row);
+  }
+
+  /**
+   * Get the item at the index in ascending ID order, from 0 to getNItems() - 1.
+   */
+  public ItemView
+  getItemAt(int index) { return new ItemView(this, itemLabels_.getId(index), index); }
+
+  /**
+   * Get the property with the ID, or null if there is none.
+   */
+  public PropertyView
+  getProperty(int id)
+  {
+    int row = propertyLabels_.findRow(id);
+    return row < 0 ? null : new PropertyView(this, id, row);
+  }
+
+  /**
+   * Get the property at the index in ascending ID order, from 0 to
+   * getNProperties() - 1.
+   */
+  public PropertyView
+  getPropertyAt(int index)
+  {
+    return new PropertyView(this, propertyLabels_.getId(index), index);
+  }
+
+  /**
+   * Release the mappings.
+   */
+  @Override
+  public void
+  close()
+  {
+    if (itemLabels_ != null)
+      itemLabels_.close();
+    if (propertyLabels_ != null)
+      propertyLabels_.close();
+    if (propertyDatatypes_ != null)
+      propertyDatatypes_.close();
+    for (TableReader table : specTables_.values())
+      table.close();
+    for (TableReader table : qualifierTables_.values())
+      table.close();
+  }
+
+  /**
+   * An EntityView is a flyweight for an item or property.
+   */
+  public static abstract class EntityView<T> {
+    protected EntityView(WikidataMappedGraph graph, int id, int labelRow)
+    {
+      graph_ = graph;
+      Id = id;
+      labelRow_ = labelRow;
+    }
+
+    public String
+    getEnLabel() { return getLabelTable().getCursor(labelRow_).readString(); }
+
+    /**
+     * Get the values of the registered property as in the loaded Item or
+     * Property, except that they are sorted.
+     * @return The values, or null if there are none.
+     */
+    public int[]
+    getValues(PropertySpec<T> spec)
+    {
+      Cursor cursor = graph_.getSpecCursor(graph_.specTables_, spec, Id);
+      return cursor == null ? null : cursor.readValues();
+    }
+
+    /**
+     * Get the values of the registered property with String values.
+     * @return The values, or null if there are none.
+     */
+    public String[]
+    getStringValues(PropertySpec<T> spec)
+    {
+      Cursor cursor = graph_.getSpecCursor(graph_.specTables_, spec, Id);
+      return cursor == null ? null : cursor.readStrings();
+    }
+
+    /**
+     * Get the qualifiers of the registered property.
+     * @return The qualifiers, or null if there are none.
+     */
+    public WikidataQualifiers
+    getQualifiers(PropertySpec<T> spec)
+    {
+      Cursor cursor = graph_.getSpecCursor(graph_.qualifierTables_, spec, Id);
+      return cursor == null ? null : cursor.readQualifiers();
+    }
+
+    protected abstract TableReader getLabelTable();
+
+    public final int Id;
+    protected final WikidataMappedGraph graph_;
+    protected final int labelRow_;
+  }
+
+  public static class ItemView extends EntityView<Item> {
+    ItemView(WikidataMappedGraph graph, int id, int labelRow)
+    {
+      super(graph, id, labelRow);
+    }
+
+    /**
+     * Get the label with the ID like the getEnLabelWithId of Item.
+     */
+    public String
+    getEnLabelWithId()
+    {
+      String label = getEnLabel();
+      return label.isEmpty() ? "Q" + Id : label + " (Q" + Id + ")";
+    }
+
+    public int[] getInstanceOf() { return getValues(instanceOfSpec_); }
+
+    public int[] getSubclassOf() { return getValues(subclassOfSpec_); }
+
+    public int[] getPartOf() { return getValues(partOfSpec_); }
+
+    public int[]
+    getLocatedInTheAdministrativeTerritorialEntity()
+    {
+      return getValues(locatedInSpec_);
+    }
+
+    public int[] getLocatedInTimeZone() { return getValues(locatedInTimeZoneSpec_); }
+
+    /**
+     * Decode all the registered values into a new Item. The reverse relations
+     * like WikidataJava.hasInstance_ are not in the Item.
+     */
+    public Item
+    toItem()
+    {
+      Item item = new Item(Id, getEnLabel());
+      setAll(WikidataJava.itemPropertySpecs_, this, item);
+      return item;
+    }
+
+    @Override
+    public String
+    toString() { return getEnLabelWithId(); }
+
+    @Override
+    protected TableReader getLabelTable() { return graph_.itemLabels_; }
+  }
+
+  public static class PropertyView extends EntityView<Property> {
+    PropertyView(WikidataMappedGraph graph, int id, int labelRow)
+    {
+      super(graph, id, labelRow);
+    }
+
+    /**
+     * Get the datatype. Each property has one, in the same row as the label.
+     */
+    public Datatype
+    getDatatype()
+    {
+      return WikidataJava.getDatatypeFromString
+        (graph_.propertyDatatypes_.getCursor(labelRow_).readString());
+    }
+
+    public int[] getSubpropertyOf() { return getValues(subpropertyOfSpec_); }
+
+    /**
+     * Decode all the registered values into a new Property.
+     */
+    public Property
+    toProperty()
+    {
+      Property property = new Property(Id, getEnLabel());
+      property.datatype_ = getDatatype();
+      setAll(WikidataJava.propertyPropertySpecs_, this, property);
+      return property;
+    }
+
+    @Override
+    public String
+    toString() { return getEnLabel() + " (P" + Id + ")"; }
+
+    @Override
+    protected TableReader getLabelTable() { return graph_.propertyLabels_; }
+  }
+
+  private static <T> void
+  setAll(List<PropertySpec<T>> specs, EntityView<T> view, T obj)
+  {
+    for (PropertySpec<T> spec : specs) {
+      if (spec.valueType == WikidataEntityScanner.ValueType.String)
+        spec.setStringValues.setStringArray(obj, view.getStringValues(spec));
+      else
+        spec.setValues.setIntArray(obj, view.getValues(spec));
+      if (spec.hasQualifiers())
+        spec.setQualifiers.setQualifiers(obj, view.getQualifiers(spec));
+    }
+  }
+
+  /**
+   * Get a Cursor at the row of the entity in the table of the spec.
+   * @return The cursor, or null if the table has no row for the entity.
+   */
+  private Cursor
+  getSpecCursor
+    (Map<PropertySpec<?>, TableReader> tables, PropertySpec<?> spec, int id)
+  {
+    TableReader table = tables.get(spec);
+    if (table == null)
+      throw new Error("Not a registered property: " + spec.label);
+    int row = table.findRow(id);
+    return row < 0 ? null : table.getCursor(row);
+  }
+
+  private <T> void
+  openSpecTables(String dumpDir, List<PropertySpec<T>> specs) throws IOException
+  {
+    for (PropertySpec<T> spec : specs) {
+      specTables_.put
+        (spec, open(dumpDir, WikidataBinaryDump.getFileName(spec.fileName)));
+      if (spec.hasQualifiers())
+        qualifierTables_.put
+          (spec, open(dumpDir, WikidataBinaryDump.getFileName(spec.qualifiersFileName)));
+    }
+  }
+
+  private static TableReader
+  open(String dumpDir, String fileName) throws IOException
+  {
+    return new TableReader(new File(dumpDir, fileName));
+  }
+
+  private static <T> PropertySpec<T>
+  findSpec(List<PropertySpec<T>> specs, int propertyId)
+  {
+    for (PropertySpec<T> spec : specs) {
+      if (spec.propertyId == propertyId)
+        return spec;
+    }
+    throw new Error("Not a registered property: P" + propertyId);
+  }
+
+  private TableReader itemLabels_ = null;
+  private TableReader propertyLabels_ = null;
+  private TableReader propertyDatatypes_ = null;
+  // PropertySpec doesn't override equals, so these are identity maps.
+  private final HashMap<PropertySpec<?>, TableReader> specTables_ = new HashMap<>();
+  private final HashMap<PropertySpec<?>, TableReader> qualifierTables_ = new HashMap<>();
+
+  private static final PropertySpec<Item> instanceOfSpec_ =
+    findSpec(WikidataJava.itemPropertySpecs_, WikidataJava.PinstanceOf);
+  private static final PropertySpec<Item> subclassOfSpec_ =
+    findSpec(WikidataJava.itemPropertySpecs_, WikidataJava.PsubclassOf);
+  private static final PropertySpec<Item> partOfSpec_ =
+    findSpec(WikidataJava.itemPropertySpecs_, WikidataJava.PpartOf);
+  private static final PropertySpec<Item> locatedInSpec_ =
+    findSpec(WikidataJava.itemPropertySpecs_,
+             WikidataJava.PlocatedInTheAdministrativeTerritorialEntity);
+  private static final PropertySpec<Item> locatedInTimeZoneSpec_ =
+    findSpec(WikidataJava.itemPropertySpecs_, WikidataJava.PlocatedInTimeZone);
+  private static final PropertySpec<Property> subpropertyOfSpec_ =
+    findSpec(WikidataJava.propertyPropertySpecs_, WikidataJava.PsubpropertyOf);
+}
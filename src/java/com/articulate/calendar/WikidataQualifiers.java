@@ -0,0 +1,318 @@
+package com.articulate.calendar;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A WikidataQualifiers has the qualifiers of the Item values of one property
+ * of an entity, like the qualifiers of each located in time zone value. It
+ * replaces a map from each value to a map from qualifier property ID to the
+ * qualifier values. The values which have qualifiers are in an int array in
+ * ascending order, with the QualifierSet of each value in a parallel array.
+ * A QualifierSet has the qualifier property IDs in ascending order with the
+ * array of qualifier values of each. Most QualifierSets are one of a few
+ * patterns like a start time with no Item values, so an Interner shares equal
+ * QualifierSets and value arrays between entities. A WikidataQualifiers and
+ * its QualifierSets are immutable and don't have an empty QualifierSet.
+ */
+public class WikidataQualifiers {
+  private WikidataQualifiers(int[] values, QualifierSet[] qualifierSets)
+  {
+    values_ = values;
+    qualifierSets_ = qualifierSets;
+  }
+
+  /**
+   * Get the number of values which have qualifiers.
+   */
+  public int size() { return values_.length; }
+
+  /**
+   * Get the value at the index, from 0 to size() - 1, in ascending order.
+   */
+  public int getValue(int index) { return values_[index]; }
+
+  /**
+   * Get the qualifiers of the value at the index.
+   */
+  public QualifierSet getQualifierSet(int index) { return qualifierSets_[index]; }
+
+  /**
+   * Get the qualifiers of the value, or null if it has none.
+   */
+  public QualifierSet
+  get(int value)
+  {
+    int index = Arrays.binarySearch(values_, value);
+    return index < 0 ? null : qualifierSets_[index];
+  }
+
+  /**
+   * Make a WikidataQualifiers from a map where the key is the Item value and
+   * the value is a map where the key is the qualifier property ID and the
+   * value is an array of item ID values, like WikidataEntityScanner returns.
+   * @param interner If not null, share equal QualifierSets through this.
+   * @return The WikidataQualifiers, or null if map is null or has no
+   * qualifiers.
+   */
+  public static WikidataQualifiers
+  fromMap(Map<Integer, Map<Integer, int[]>> map, Interner interner)
+  {
+    if (map == null)
+      return null;
+
+    Builder builder = new Builder();
+    for (Map.Entry<Integer, Map<Integer, int[]>> entry : map.entrySet()) {
+      for (Map.Entry<Integer, int[]> qualifierEntry : entry.getValue().entrySet())
+        builder.add(entry.getKey(), qualifierEntry.getKey(), qualifierEntry.getValue());
+    }
+    return builder.build(interner);
+  }
+
+  @Override
+  public boolean
+  equals(Object obj)
+  {
+    if (!(obj instanceof WikidataQualifiers))
+      return false;
+    WikidataQualifiers other = (WikidataQualifiers)obj;
+    return Arrays.equals(values_, other.values_) &&
+      Arrays.equals(qualifierSets_, other.qualifierSets_);
+  }
+
+  @Override
+  public int
+  hashCode()
+  {
+    return 31 * Arrays.hashCode(values_) + Arrays.hashCode(qualifierSets_);
+  }
+
+  /**
+   * Get a string like {123={580=[], 642=[456]}}.
+   */
+  @Override
+  public String
+  toString()
+  {
+    StringBuilder result = new StringBuilder("{");
+    for (int i = 0; i < values_.length; ++i) {
+      if (i > 0)
+        result.append(", ");
+      result.append(values_[i]).append('=').append(qualifierSets_[i]);
+    }
+    return result.append('}').toString();
+  }
+
+  /**
+   * A QualifierSet has the qualifiers of one value. The qualifier property IDs
+   * are in ascending order. The arrays from getValues must not be changed
+   * since they are shared.
+   */
+  public static class QualifierSet {
+    private QualifierSet(int[] propertyIds, int[][] values)
+    {
+      propertyIds_ = propertyIds;
+      values_ = values;
+      hashCode_ = 31 * Arrays.hashCode(propertyIds) + Arrays.deepHashCode(values);
+    }
+
+    /**
+     * Get the number of qualifier properties.
+     */
+    public int size() { return propertyIds_.length; }
+
+    /**
+     * Get the qualifier property ID at the index, from 0 to size() - 1.
+     */
+    public int getPropertyId(int index) { return propertyIds_[index]; }
+
+    /**
+     * Get the qualifier Item values of the qualifier property at the index.
+     */
+    public int[] getValues(int index) { return values_[index]; }
+
+    /**
+     * Get the qualifier Item values of the qualifier property, or null if it
+     * isn't in this set.
+     */
+    public int[]
+    get(int propertyId)
+    {
+      int index = Arrays.binarySearch(propertyIds_, propertyId);
+      return index < 0 ? null : values_[index];
+    }
+
+    @Override
+    public boolean
+    equals(Object obj)
+    {
+      if (!(obj instanceof QualifierSet))
+        return false;
+      QualifierSet other = (QualifierSet)obj;
+      return hashCode_ == other.hashCode_ &&
+        Arrays.equals(propertyIds_, other.propertyIds_) &&
+        Arrays.deepEquals(values_, other.values_);
+    }
+
+    @Override
+    public int hashCode() { return hashCode_; }
+
+    @Override
+    public String
+    toString()
+    {
+      StringBuilder result = new StringBuilder("{");
+      for (int i = 0; i < propertyIds_.length; ++i) {
+        if (i > 0)
+          result.append(", ");
+        result.append(propertyIds_[i]).append('=')
+          .append(Arrays.toString(values_[i]));
+      }
+      return result.append('}').toString();
+    }
+
+    private final int[] propertyIds_;
+    private final int[][] values_;
+    private final int hashCode_;
+  }
+
+  /**
+   * A Builder collects the qualifiers of the values in any order. A later add
+   * for the same value and qualifier property replaces the earlier one.
+   */
+  public static class Builder {
+    /**
+     * Add the qualifier values of the qualifier property of the value.
+     */
+    public void
+    add(int value, int qualifierPropertyId, int[] qualifierValues)
+    {
+      qualifiers_.put(getKey(value, qualifierPropertyId), qualifierValues);
+    }
+
+    /**
+     * Add all the qualifiers of qualifiers.
+     */
+    public void
+    addAll(WikidataQualifiers qualifiers)
+    {
+      for (int i = 0; i < qualifiers.size(); ++i) {
+        QualifierSet qualifierSet = qualifiers.getQualifierSet(i);
+        for (int j = 0; j < qualifierSet.size(); ++j)
+          add(qualifiers.getValue(i), qualifierSet.getPropertyId(j),
+              qualifierSet.getValues(j));
+      }
+    }
+
+    public boolean isEmpty() { return qualifiers_.isEmpty(); }
+
+    public void clear() { qualifiers_.clear(); }
+
+    /**
+     * Make a WikidataQualifiers of the qualifiers added since the last clear.
+     * @param interner If not null, share equal QualifierSets through this.
+     * @return The WikidataQualifiers, or null if there are no qualifiers.
+     */
+    public WikidataQualifiers
+    build(Interner interner)
+    {
+      if (qualifiers_.isEmpty())
+        return null;
+
+      ArrayList<Integer> values = new ArrayList<>();
+      ArrayList<QualifierSet> qualifierSets = new ArrayList<>();
+      ArrayList<Map.Entry<Long, int[]>> entries = new ArrayList<>(qualifiers_.entrySet());
+      int start = 0;
+      while (start < entries.size()) {
+        int value = (int)(entries.get(start).getKey() >>> 32);
+        int end = start + 1;
+        while (end < entries.size() &&
+               (int)(entries.get(end).getKey() >>> 32) == value)
+          ++end;
+
+        int[] propertyIds = new int[end - start];
+        int[][] qualifierValues = new int[end - start][];
+        for (int i = start; i < end; ++i) {
+          propertyIds[i - start] = (int)(long)entries.get(i).getKey();
+          qualifierValues[i - start] = entries.get(i).getValue();
+        }
+        QualifierSet qualifierSet = new QualifierSet(propertyIds, qualifierValues);
+        values.add(value);
+        qualifierSets.add
+          (interner != null ? interner.intern(qualifierSet) : qualifierSet);
+        start = end;
+      }
+
+      int[] valuesArray = new int[values.size()];
+      for (int i = 0; i < valuesArray.length; ++i)
+        valuesArray[i] = values.get(i);
+      return new WikidataQualifiers
+        (valuesArray, qualifierSets.toArray(new QualifierSet[qualifierSets.size()]));
+    }
+
+    /**
+     * Get a key which sorts by value, then by qualifier property ID. The IDs
+     * are not negative.
+     */
+    private static long
+    getKey(int value, int qualifierPropertyId)
+    {
+      return ((long)value << 32) | qualifierPropertyId;
+    }
+
+    private final TreeMap<Long, int[]> qualifiers_ = new TreeMap<>();
+  }
+
+  /**
+   * An Interner returns one shared instance for equal QualifierSets and for
+   * equal arrays of qualifier values. Use one while loading. This is not
+   * thread safe.
+   */
+  public static class Interner {
+    /**
+     * Get the shared QualifierSet equal to qualifierSet, with its value arrays
+     * also shared.
+     */
+    public QualifierSet
+    intern(QualifierSet qualifierSet)
+    {
+      QualifierSet result = qualifierSets_.get(qualifierSet);
+      if (result == null) {
+        int[][] values = new int[qualifierSet.values_.length][];
+        for (int i = 0; i < values.length; ++i)
+          values[i] = intern(qualifierSet.values_[i]);
+        result = new QualifierSet(qualifierSet.propertyIds_, values);
+        qualifierSets_.put(result, result);
+      }
+      return result;
+    }
+
+    /**
+     * Get the shared array equal to values.
+     */
+    public int[]
+    intern(int[] values)
+    {
+      IntBuffer key = IntBuffer.wrap(values);
+      int[] result = values_.get(key);
+      if (result == null) {
+        result = values;
+        values_.put(key, result);
+      }
+      return result;
+    }
+
+    public int getNQualifierSets() { return qualifierSets_.size(); }
+
+    private final HashMap<QualifierSet, QualifierSet> qualifierSets_ = new HashMap<>();
+    // IntBuffer equals compares the contents of the array.
+    private final HashMap<IntBuffer, int[]> values_ = new HashMap<>();
+  }
+
+  private final int[] values_;
+  private final QualifierSet[] qualifierSets_;
+}
@@ -0,0 +1,232 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.GetIntArray;
+import com.articulate.calendar.WikidataJava.Item;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * A WikidataReverseRelation has the reverse of a relation between items, like
+ * hasInstance for instanceOf, in compressed sparse rows. The target items are
+ * the rows, in ascending ID order. The IDs of the items which have the target
+ * as a value are in one array for all rows, from offsets_[row] to
+ * offsets_[row + 1] in ascending order. This replaces a set of IDs for each
+ * target, which was large and unbalanced for a class like human. It is built
+ * in parallel by counting the values of each target, with separate counts for
+ * each thread, then filling them in. After build returns, it is immutable and
+ * thread safe.
+ */
+public class WikidataReverseRelation {
+  private WikidataReverseRelation(int[] ids, int[] offsets, int[] values)
+  {
+    ids_ = ids;
+    offsets_ = offsets;
+    values_ = values;
+  }
+
+  /**
+   * Build the reverse of each relation of the items. A value which isn't the
+   * ID of one of the items is skipped, as is a repeated value.
+   * @param relations Get the values of each relation of an item, or null.
+   * @param nThreads If 1, build on this thread. While building, each thread
+   * has an int count for each item.
+   * @return The reverse relations in the order of relations. They share the
+   * array of target IDs.
+   */
+  public static WikidataReverseRelation[]
+  build
+    (IntObjectHashMap<Item> items, List<GetIntArray<Item>> relations,
+     int nThreads)
+  {
+    int nItems = items.size();
+    int[] ids = new int[nItems];
+    int iItem = 0;
+    for (Item item : items.values())
+      ids[iItem++] = item.Id;
+    Arrays.parallelSort(ids);
+    Item[] rowItems = new Item[nItems];
+    for (int row = 0; row < nItems; ++row)
+      rowItems[row] = items.get(ids[row]);
+
+    WikidataReverseRelation[] result = new WikidataReverseRelation[relations.size()];
+    ExecutorService executor = nThreads > 1
+      ? Executors.newFixedThreadPool(nThreads) : null;
+    try {
+      for (int i = 0; i < result.length; ++i)
+        result[i] = build(ids, rowItems, relations.get(i), executor, nThreads);
+    }
+    finally {
+      if (executor != null)
+        executor.shutdownNow();
+    }
+    return result;
+  }
+
+  /**
+   * Get the IDs of the items which have the item as a value, in ascending
+   * order.
+   * @return A new array, or null if there are none.
+   */
+  public int[]
+  get(int id)
+  {
+    int row = Arrays.binarySearch(ids_, id);
+    if (row < 0 || offsets_[row] == offsets_[row + 1])
+      return null;
+    return Arrays.copyOfRange(values_, offsets_[row], offsets_[row + 1]);
+  }
+
+  /**
+   * Get the number of items which have the item as a value.
+   */
+  public int
+  getNValues(int id)
+  {
+    int row = Arrays.binarySearch(ids_, id);
+    return row < 0 ? 0 : offsets_[row + 1] - offsets_[row];
+  }
+
+  /**
+   * Call the consumer with the ID of each item which has the item as a value,
+   * in ascending order, without copying them.
+   */
+  public void
+  forEachValue(int id, IntConsumer consumer)
+  {
+    int row = Arrays.binarySearch(ids_, id);
+    if (row < 0)
+      return;
+    for (int i = offsets_[row]; i < offsets_[row + 1]; ++i)
+      consumer.accept(values_[i]);
+  }
+
+  /**
+   * Get the total number of values of all items.
+   */
+  public int getNValues() { return values_.length; }
+
+  private static WikidataReverseRelation
+  build
+    (int[] ids, Item[] rowItems, GetIntArray<Item> relation,
+     ExecutorService executor, int nThreads)
+  {
+    int nItems = ids.length;
+    // Split the rows into one range for each thread. Each range counts the
+    // values of each target in its own array, so that the threads don't
+    // contend on the count of a target with many values, like human.
+    int nRanges = executor == null || nItems < minRangeSize_ ? 1 : nThreads;
+    int rangeSize = (nItems + nRanges - 1) / nRanges;
+    int[][] counts = new int[nRanges][];
+    runRanges(nRanges, executor, (int range) -> {
+      int[] rangeCounts = new int[nItems];
+      int end = Math.min(nItems, (range + 1) * rangeSize);
+      for (int row = range * rangeSize; row < end; ++row) {
+        int[] values = relation.getIntArray(rowItems[row]);
+        if (values == null)
+          continue;
+        for (int i = 0; i < values.length; ++i) {
+          int targetRow = Arrays.binarySearch(ids, values[i]);
+          if (targetRow >= 0 && isFirst(values, i))
+            ++rangeCounts[targetRow];
+        }
+      }
+      counts[range] = rangeCounts;
+    });
+
+    // Sum the counts into the offsets. Change each count to the index where
+    // its range starts filling in the target, after the lower ranges.
+    int[] offsets = new int[nItems + 1];
+    for (int row = 0; row < nItems; ++row) {
+      int index = offsets[row];
+      for (int range = 0; range < nRanges; ++range) {
+        int count = counts[range][row];
+        counts[range][row] = index;
+        index += count;
+      }
+      offsets[row + 1] = index;
+    }
+
+    // Fill in the values. Each range has its own indexes, and the ranges and
+    // the rows in them are in ID order, so each target is already sorted.
+    int[] reverseValues = new int[offsets[nItems]];
+    runRanges(nRanges, executor, (int range) -> {
+      int[] next = counts[range];
+      int end = Math.min(nItems, (range + 1) * rangeSize);
+      for (int row = range * rangeSize; row < end; ++row) {
+        int[] values = relation.getIntArray(rowItems[row]);
+        if (values == null)
+          continue;
+        for (int i = 0; i < values.length; ++i) {
+          int targetRow = Arrays.binarySearch(ids, values[i]);
+          if (targetRow >= 0 && isFirst(values, i))
+            reverseValues[next[targetRow]++] = ids[row];
+        }
+      }
+    });
+
+    return new WikidataReverseRelation(ids, offsets, reverseValues);
+  }
+
+  /**
+   * Return true if values[index] is not also at a lower index.
+   */
+  private static boolean
+  isFirst(int[] values, int index)
+  {
+    for (int i = 0; i < index; ++i) {
+      if (values[i] == values[index])
+        return false;
+    }
+    return true;
+  }
+
+  private interface RangeTask { void run(int range); }
+
+  /**
+   * Run the task for each range from 0 to nRanges - 1. This returns when all
+   * have finished, and the writes of the tasks are then visible to this
+   * thread.
+   * @param executor If null, run the tasks on this thread.
+   */
+  private static void
+  runRanges(int nRanges, ExecutorService executor, RangeTask task)
+  {
+    if (executor == null || nRanges == 1) {
+      for (int range = 0; range < nRanges; ++range)
+        task.run(range);
+      return;
+    }
+
+    ArrayList<Future<?>> futures = new ArrayList<>();
+    for (int range = 0; range < nRanges; ++range) {
+      int finalRange = range;
+      futures.add(executor.submit(() -> task.run(finalRange)));
+    }
+
+    try {
+      for (Future<?> future : futures)
+        future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new Error("Interrupted while building a reverse relation", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new Error(cause);
+    }
+  }
+
+  private static final int minRangeSize_ = 4096;
+  private final int[] ids_;
+  private final int[] offsets_;
+  private final int[] values_;
+}
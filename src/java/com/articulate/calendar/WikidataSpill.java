@@ -0,0 +1,227 @@
+package com.articulate.calendar;
+
+import com.articulate.calendar.WikidataJava.Item;
+import com.articulate.calendar.WikidataJava.PropertySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A WikidataSpill holds the items parsed by dumpFromJson in a bounded heap
+ * buffer. When the buffer is full, its items are sorted by ID and written to
+ * a run file. At the end, the runs are merged so that the items can be
+ * written to the dump files in ID order with only one item per run in memory.
+ */
+public class WikidataSpill implements Closeable {
+  /**
+   * Create a WikidataSpill.
+   * @param spillDir The directory for the run files.
+   * @param maxBufferBytes The estimated bytes of items to hold before writing
+   * a run.
+   */
+  public WikidataSpill(String spillDir, long maxBufferBytes)
+  {
+    spillDir_ = spillDir;
+    maxBufferBytes_ = maxBufferBytes;
+  }
+
+  public void
+  add(Item item) throws IOException
+  {
+    buffer_.add(item);
+    ++nItems_;
+    bufferBytes_ += estimateBytes(item);
+    if (bufferBytes_ >= maxBufferBytes_)
+      writeRun();
+  }
+
+  public int getNRuns() { return runFiles_.size(); }
+
+  /**
+   * Get the number of items added, including items with the same ID.
+   */
+  public int getNItems() { return nItems_; }
+
+  /**
+   * Merge the runs and pass each item to the visitor in ID order. If more than
+   * one item was added with the same ID, the last one added is used and a
+   * message is added for each one it replaces.
+   */
+  public void
+  merge(ItemVisitor visitor, List<String> messages) throws IOException
+  {
+    if (runFiles_.isEmpty() && buffer_.isEmpty())
+      return;
+    writeRun();
+
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles_.size(),
+      Comparator.comparingInt((RunReader run) -> run.item_.Id)
+      .thenComparingInt(run -> run.runIndex_));
+    try {
+      for (int i = 0; i < runFiles_.size(); ++i) {
+        RunReader run = new RunReader(runFiles_.get(i), i);
+        if (run.next())
+          queue.add(run);
+        else
+          run.close();
+      }
+
+      Item previous = null;
+      while (!queue.isEmpty()) {
+        RunReader run = queue.remove();
+        Item item = run.item_;
+        if (run.next())
+          queue.add(run);
+        else
+          run.close();
+
+        if (previous != null) {
+          if (previous.Id == item.Id)
+            messages.add(">>>>>> Replacing existing item " + previous);
+          else
+            visitor.visit(previous);
+        }
+        previous = item;
+      }
+      if (previous != null)
+        visitor.visit(previous);
+    }
+    finally {
+      for (RunReader run : queue)
+        run.close();
+    }
+  }
+
+  /**
+   * Delete the run files.
+   */
+  @Override
+  public void
+  close()
+  {
+    for (File file : runFiles_)
+      file.delete();
+    runFiles_.clear();
+    buffer_.clear();
+  }
+
+  public interface ItemVisitor { void visit(Item item) throws IOException; }
+
+  private void
+  writeRun() throws IOException
+  {
+    if (buffer_.isEmpty())
+      return;
+
+    // The sort is stable, so a later item with the same ID stays later.
+    buffer_.sort(Comparator.comparingInt((Item item) -> item.Id));
+    File file = new File
+      (spillDir_, String.format("spill-%05d.bin", runFiles_.size()));
+    runFiles_.add(file);
+    try (DataOutputStream out = new DataOutputStream
+          (new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+      for (Item item : buffer_)
+        WikidataCheckpoint.writeItem(out, item);
+    }
+
+    buffer_.clear();
+    bufferBytes_ = 0;
+  }
+
+  /**
+   * Return a rough estimate of the heap bytes of the item.
+   */
+  private static long
+  estimateBytes(Item item)
+  {
+    long bytes = 96 + 2L * item.getEnLabel().length();
+    for (PropertySpec<Item> spec : WikidataJava.itemPropertySpecs_) {
+      if (spec.valueType == WikidataEntityScanner.ValueType.String) {
+        String[] values = spec.getStringValues.getStringArray(item);
+        if (values != null) {
+          for (String value : values)
+            bytes += 48 + 2L * value.length();
+        }
+      }
+      else
+        bytes += estimateBytes(spec.getValues.getIntArray(item));
+      if (spec.hasQualifiers())
+        bytes += estimateBytes(spec.getQualifiers.getQualifiers(item));
+    }
+    return bytes;
+  }
+
+  private static long
+  estimateBytes(int[] values) { return values == null ? 0 : 16 + 4L * values.length; }
+
+  private static long
+  estimateBytes(WikidataQualifiers qualifiers)
+  {
+    if (qualifiers == null)
+      return 0;
+
+    // The QualifierSets are often shared, but count them as if not.
+    long bytes = 48 + estimateBytes(new int[qualifiers.size()]);
+    for (int i = 0; i < qualifiers.size(); ++i) {
+      WikidataQualifiers.QualifierSet qualifierSet = qualifiers.getQualifierSet(i);
+      bytes += 64 + 12L * qualifierSet.size();
+      for (int j = 0; j < qualifierSet.size(); ++j)
+        bytes += estimateBytes(qualifierSet.getValues(j));
+    }
+    return bytes;
+  }
+
+  /**
+   * A RunReader reads the items of a run file in order.
+   */
+  private static class RunReader implements Closeable {
+    public RunReader(File file, int runIndex) throws IOException
+    {
+      runIndex_ = runIndex;
+      in_ = new DataInputStream
+        (new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * Read the next item into item_.
+     * @return False if there are no more items.
+     */
+    public boolean
+    next() throws IOException
+    {
+      // DataInputStream has no end of file check, so peek a byte.
+      in_.mark(1);
+      if (in_.read() < 0)
+        return false;
+      in_.reset();
+
+      item_ = WikidataCheckpoint.readItem(in_);
+      return true;
+    }
+
+    @Override
+    public void
+    close() throws IOException { in_.close(); }
+
+    public Item item_ = null;
+    public final int runIndex_;
+    private final DataInputStream in_;
+  }
+
+  private final String spillDir_;
+  private final long maxBufferBytes_;
+  private final ArrayList<Item> buffer_ = new ArrayList<>();
+  private long bufferBytes_ = 0;
+  private int nItems_ = 0;
+  private final ArrayList<File> runFiles_ = new ArrayList<>();
+}
@@ -0,0 +1,109 @@
+package com.articulate.calendar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A WikidataSubset finds the items which the calendar needs. The seed items
+ * are the ones with a time zone, an administrative location or an IATA code.
+ * The subset is the seeds plus every item reachable from them by an edge,
+ * where the edges are the instance of, subclass of, located in the
+ * administrative territorial entity and located in time zone values of each
+ * item.
+ * An edge is packed in a long so that the whole graph of the dump takes
+ * eight bytes per edge.
+ */
+public class WikidataSubset {
+  public void
+  addEdge(int sourceId, int targetId)
+  {
+    if (nEdges_ >= edges_.length)
+      edges_ = Arrays.copyOf(edges_, edges_.length * 2);
+    edges_[nEdges_++] = ((long)sourceId << 32) | (targetId & 0xffffffffL);
+  }
+
+  public void addSeed(int id) { seeds_.set(id); }
+
+  /**
+   * Add the edges and seeds of the other subset, which is not changed.
+   */
+  public void
+  addAll(WikidataSubset other)
+  {
+    if (nEdges_ + other.nEdges_ > edges_.length)
+      edges_ = Arrays.copyOf
+        (edges_, Math.max(edges_.length * 2, nEdges_ + other.nEdges_));
+    System.arraycopy(other.edges_, 0, edges_, nEdges_, other.nEdges_);
+    nEdges_ += other.nEdges_;
+    seeds_.or(other.seeds_);
+  }
+
+  /**
+   * Find the items reachable from the seeds. After this, contains() can be
+   * called and the edges are released.
+   */
+  public void
+  close()
+  {
+    // Sort by source ID so that the edges from an item are together.
+    Arrays.parallelSort(edges_, 0, nEdges_);
+
+    items_ = (BitSet)seeds_.clone();
+    int[] stack = new int[1024];
+    int nStack = 0;
+    for (int id = seeds_.nextSetBit(0); id >= 0; id = seeds_.nextSetBit(id + 1)) {
+      stack[nStack++] = id;
+      while (nStack > 0) {
+        int sourceId = stack[--nStack];
+        for (int i = findFirstEdge(sourceId);
+             i < nEdges_ && (int)(edges_[i] >>> 32) == sourceId; ++i) {
+          int targetId = (int)edges_[i];
+          if (!items_.get(targetId)) {
+            items_.set(targetId);
+            if (nStack >= stack.length)
+              stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[nStack++] = targetId;
+          }
+        }
+      }
+    }
+
+    edges_ = null;
+    nEdges_ = 0;
+  }
+
+  /**
+   * Return true if the item is in the subset. This must be called after close().
+   */
+  public boolean contains(int id) { return items_.get(id); }
+
+  public int getNSeeds() { return seeds_.cardinality(); }
+
+  public int getNItems() { return items_.cardinality(); }
+
+  public int getNEdges() { return nEdges_; }
+
+  /**
+   * Return the index of the first edge from the source, or where it would be.
+   */
+  private int
+  findFirstEdge(int sourceId)
+  {
+    long key = (long)sourceId << 32;
+    int low = 0;
+    int high = nEdges_;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (edges_[mid] < key)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private long[] edges_ = new long[1024];
+  private int nEdges_ = 0;
+  private final BitSet seeds_ = new BitSet();
+  private BitSet items_ = null;
+}